@@ -139,16 +139,19 @@ table
 schemaname
 :
 	Identifier
+	| QuotedIdentifier
 ;
 
 tablename
 :
 	Identifier
+	| QuotedIdentifier
 ;
 
 columnname
 :
 	Identifier
+	| QuotedIdentifier
 ;
 
 typedef
@@ -172,7 +175,20 @@ Identifier
 
 QuotedString
 :
-	'\'' ~( '\'' )* '\''
+	'\''
+	(
+		~( '\'' )
+		| '\'\''
+	)* '\''
+;
+
+QuotedIdentifier
+:
+	'"'
+	(
+		~( '"' )
+		| '""'
+	)* '"'
 ;
 
 fragment
@@ -111,6 +111,43 @@ public class SqlUtils {
         throw new RuntimeException("Unsupported sql type:" + sqlType);
     }
 
+    /**
+     * Converts the PostgreSQL text representation of a value (as sent by the pgoutput plugin or by COPY) into the
+     * Boolean and Number values wal2json would write for the same type. The values of the other types are kept as
+     * text.
+     *
+     * @param sqlType PostgreSQL type name (e.g. int4, bool).
+     * @param text    Text representation of the value or null.
+     * @return Returns the converted value.
+     */
+    public static Object fromTextValue(String sqlType, String text) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            switch (sqlType) {
+                case "bool":
+                    return "t".equals(text);
+                case "int2":
+                case "int4":
+                    return Integer.valueOf(text);
+                case "int8":
+                case "oid":
+                    return Long.valueOf(text);
+                case "float4":
+                case "float8":
+                    return Double.valueOf(text);
+                case "numeric":
+                    return new BigDecimal(text);
+                default:
+                    return text;
+            }
+        } catch (NumberFormatException e) {
+            // e.g. numeric 'NaN'
+            return text;
+        }
+    }
+
     public static DateTime extractCommitTime(String timestampString) {
         //DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss.SSSZZ");
         DateTimeFormatter formatter = new DateTimeFormatterBuilder()
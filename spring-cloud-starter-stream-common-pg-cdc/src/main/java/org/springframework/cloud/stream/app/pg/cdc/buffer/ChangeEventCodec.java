@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.buffer;
+
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary form of a {@link ChangeEvent}, used for the spilled events. Unlike a JSON round trip, the column
+ * values are read back with the Java type they were written with (e.g. Long, Float or BigDecimal).
+ *
+ * @author Christian Tzolov
+ */
+class ChangeEventCodec {
+
+    private static final int NULL = -1;
+
+    private static final byte STRING = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte FLOAT = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte BIG_DECIMAL = 6;
+    private static final byte NULL_VALUE = 7;
+
+    static void write(ChangeEvent event, DataOutput out) throws IOException {
+        out.writeByte(event.getKind() == null ? NULL : event.getKind().ordinal());
+        writeString(event.getSchema(), out);
+        writeString(event.getTable(), out);
+        writeStrings(event.getColumnnames(), out);
+        writeStrings(event.getColumntypes(), out);
+        writeValues(undecodedValues(event), out);
+        writeStrings(event.getColumntexts(), out);
+        ChangeEvent.OldKeys oldKeys = event.getOldkeys();
+        out.writeBoolean(oldKeys != null);
+        if (oldKeys != null) {
+            writeStrings(oldKeys.getKeynames(), out);
+            writeStrings(oldKeys.getKeytypes(), out);
+            writeValues(oldKeys.getKeyvalues(), out);
+        }
+        writeStrings(event.getPknames(), out);
+        writeStrings(event.getUnchangedcolumns(), out);
+    }
+
+    static ChangeEvent read(DataInput in) throws IOException {
+        ChangeEvent event = new ChangeEvent();
+        byte kind = in.readByte();
+        event.setKind(kind == NULL ? null : ChangeEvent.Kind.values()[kind]);
+        event.setSchema(readString(in));
+        event.setTable(readString(in));
+        event.setColumnnames(readStrings(in));
+        event.setColumntypes(readStrings(in));
+        event.setColumnvalues(readValues(in));
+        event.setColumntexts(readStrings(in));
+        if (in.readBoolean()) {
+            ChangeEvent.OldKeys oldKeys = new ChangeEvent.OldKeys();
+            oldKeys.setKeynames(readStrings(in));
+            oldKeys.setKeytypes(readStrings(in));
+            oldKeys.setKeyvalues(readValues(in));
+            event.setOldkeys(oldKeys);
+        }
+        event.setPknames(readStrings(in));
+        event.setUnchangedcolumns(readStrings(in));
+        return event;
+    }
+
+    /**
+     * The columns added as text are written as text only, so the spilled events are decoded when accessed too.
+     */
+    private static List<Object> undecodedValues(ChangeEvent event) {
+        List<String> texts = event.getColumntexts();
+        if (texts == null) {
+            return event.getColumnvalues();
+        }
+        List<Object> values = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            values.add(texts.get(i) != null ? null : event.getColumnvalue(i));
+        }
+        return values;
+    }
+
+    private static void writeString(String value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        // not writeUTF, that is limited to 64KB
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(List<String> values, DataOutput out) throws IOException {
+        if (values == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(value, out);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size == NULL) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static void writeValues(List<Object> values, DataOutput out) throws IOException {
+        if (values == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        out.writeInt(values.size());
+        for (Object value : values) {
+            if (value == null) {
+                out.writeByte(NULL_VALUE);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof BigDecimal) {
+                out.writeByte(BIG_DECIMAL);
+                writeString(value.toString(), out);
+            } else {
+                out.writeByte(STRING);
+                writeString(value.toString(), out);
+            }
+        }
+    }
+
+    private static List<Object> readValues(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size == NULL) {
+            return null;
+        }
+        List<Object> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte type = in.readByte();
+            switch (type) {
+                case NULL_VALUE:
+                    values.add(null);
+                    break;
+                case INTEGER:
+                    values.add(in.readInt());
+                    break;
+                case LONG:
+                    values.add(in.readLong());
+                    break;
+                case FLOAT:
+                    values.add(in.readFloat());
+                    break;
+                case DOUBLE:
+                    values.add(in.readDouble());
+                    break;
+                case BOOLEAN:
+                    values.add(in.readBoolean());
+                    break;
+                case BIG_DECIMAL:
+                    values.add(new BigDecimal(readString(in)));
+                    break;
+                default:
+                    values.add(readString(in));
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.buffer;
+
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.util.Assert;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link TransactionBuffer} that keeps the first events on-heap and spills the rest of an oversized transaction into
+ * temporary segment files, so the heap use is bounded regardless of the transaction size.
+ * <p>
+ * Up to maxInMemoryEvents events are kept as-is. Every further event is serialized (see {@link ChangeEventCodec})
+ * as a length-prefixed record, appended through a buffered stream to the current segment file. A new segment is
+ * created when the current one is full. The iterator returns the on-heap events first and then decodes the spilled
+ * records one by one, read with positional reads of the segment channels, so only one spilled event at a time is
+ * materialized. The segments are not memory-mapped, their channels are closed and their files deleted on
+ * {@link #close()}, without waiting for a garbage collection.
+ *
+ * @author Christian Tzolov
+ */
+public class SpillingTransactionBuffer implements TransactionBuffer {
+
+    private static final String SEGMENT_PREFIX = "pg-cdc-tx-";
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private final int maxInMemoryEvents;
+
+    private final File spillDirectory;
+
+    private final int segmentBytes;
+
+    private final List<ChangeEvent> events = new ArrayList<>();
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+    private final DataOutputStream recordOutput = new DataOutputStream(this.record);
+
+    private int size;
+
+    /**
+     * @param maxInMemoryEvents Number of events kept on-heap before spilling.
+     * @param spillDirectory    Directory of the segment files. The default temp directory if null.
+     * @param segmentBytes      Size of a segment file (in bytes). Larger events get a segment of their own size.
+     */
+    public SpillingTransactionBuffer(int maxInMemoryEvents, File spillDirectory, int segmentBytes) {
+        Assert.isTrue(maxInMemoryEvents >= 0, "The maxInMemoryEvents must not be negative");
+        Assert.isTrue(segmentBytes > 0, "The segmentBytes must be positive");
+        this.maxInMemoryEvents = maxInMemoryEvents;
+        this.spillDirectory = spillDirectory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Spills only the transactions that are emitted in chunks. A transaction emitted as a single message is held
+     * on-heap anyway, spilling it would only add IO.
+     *
+     * @param chunkSize         Maximum number of change events in an emitted sub-batch, 0 or less if not chunked.
+     * @param maxInMemoryEvents Number of events kept on-heap before spilling a chunked transaction.
+     * @param spillDirectory    Directory of the segment files. The default temp directory if null.
+     * @param segmentBytes      Size of a segment file (in bytes).
+     * @return Returns the buffer of the change events of the transactions emitted in chunks of chunkSize.
+     */
+    public static SpillingTransactionBuffer forChunkSize(int chunkSize, int maxInMemoryEvents, File spillDirectory,
+                                                         int segmentBytes) {
+        return new SpillingTransactionBuffer((chunkSize > 0) ? maxInMemoryEvents : Integer.MAX_VALUE, spillDirectory,
+                segmentBytes);
+    }
+
+    @Override
+    public void add(ChangeEvent changeEvent) {
+        if (this.segments.isEmpty() && this.events.size() < this.maxInMemoryEvents) {
+            this.events.add(changeEvent);
+        } else {
+            spill(changeEvent);
+        }
+        this.size++;
+    }
+
+    private void spill(ChangeEvent changeEvent) {
+        try {
+            this.record.reset();
+            ChangeEventCodec.write(changeEvent, this.recordOutput);
+            int recordBytes = 4 + this.record.size();
+
+            Segment segment = this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1);
+            if (segment == null || segment.remaining() < recordBytes) {
+                if (segment != null) {
+                    segment.flush();
+                }
+                segment = new Segment(this.spillDirectory, Math.max(this.segmentBytes, recordBytes));
+                this.segments.add(segment);
+            }
+            segment.write(this.record);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill the transaction events into " + this.spillDirectory, e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean isSpilled() {
+        return !this.segments.isEmpty();
+    }
+
+    @Override
+    public Iterator<ChangeEvent> iterator() {
+        return new Iterator<ChangeEvent>() {
+
+            private int index;
+
+            private int segmentIndex;
+
+            private int segmentRecords;
+
+            private DataInputStream segmentInput;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < size;
+            }
+
+            @Override
+            public ChangeEvent next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (this.index < events.size()) {
+                    return events.get(this.index++);
+                }
+                try {
+                    while (this.segmentRecords == 0) {
+                        Segment segment = segments.get(this.segmentIndex++);
+                        this.segmentInput = new DataInputStream(segment.inputStream());
+                        this.segmentRecords = segment.records;
+                    }
+                    this.segmentInput.readInt();
+                    this.segmentRecords--;
+                    this.index++;
+                    return ChangeEventCodec.read(this.segmentInput);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to read the spilled transaction events", e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        this.events.clear();
+        for (Segment segment : this.segments) {
+            segment.delete();
+        }
+        this.segments.clear();
+        this.size = 0;
+    }
+
+    /**
+     * @return Returns the number of segment files currently in use.
+     */
+    int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * Temporary file of length-prefixed event records. The records are appended through a buffered stream, and read
+     * back with positional reads, which don't move the channel position of the appends.
+     */
+    private static class Segment {
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private final DataOutputStream output;
+
+        private final int capacity;
+
+        private int size;
+
+        private int records;
+
+        Segment(File directory, int capacity) throws IOException {
+            this.file = File.createTempFile(SEGMENT_PREFIX, SEGMENT_SUFFIX, directory);
+            try {
+                this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+            } catch (IOException e) {
+                this.file.delete();
+                throw e;
+            }
+            this.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel)));
+            this.capacity = capacity;
+        }
+
+        int remaining() {
+            return this.capacity - this.size;
+        }
+
+        void write(ByteArrayOutputStream record) throws IOException {
+            this.output.writeInt(record.size());
+            record.writeTo(this.output);
+            this.size += 4 + record.size();
+            this.records++;
+        }
+
+        void flush() throws IOException {
+            this.output.flush();
+        }
+
+        InputStream inputStream() throws IOException {
+            flush();
+            return new BufferedInputStream(new ChannelInputStream(this.channel, this.size));
+        }
+
+        void delete() {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            if (!this.file.delete()) {
+                this.file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Reads the channel up to the limit with positional reads.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        private final long limit;
+
+        private long position;
+
+        ChannelInputStream(FileChannel channel, long limit) {
+            this.channel = channel;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) < 0) ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (this.position >= this.limit) {
+                return -1;
+            }
+            int count = (int) Math.min(length, this.limit - this.position);
+            int read = this.channel.read(ByteBuffer.wrap(bytes, offset, count), this.position);
+            if (read < 0) {
+                return -1;
+            }
+            this.position += read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.buffer;
+
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+
+import java.io.Closeable;
+
+/**
+ * Collects the change events of a single transaction, until the transaction is committed and can be emitted.
+ * <p>
+ * The events are returned in the order they were added. A buffer is not thread-safe and must not be modified while
+ * it is iterated. {@link #close()} releases the resources held by the buffer.
+ *
+ * @author Christian Tzolov
+ */
+public interface TransactionBuffer extends Iterable<ChangeEvent>, Closeable {
+
+    /**
+     * Appends a complete change event. The event must not be modified after it was added.
+     */
+    void add(ChangeEvent changeEvent);
+
+    /**
+     * @return Returns the number of buffered events.
+     */
+    int size();
+
+    /**
+     * @return Returns true if some of the events are kept off-heap.
+     */
+    boolean isSpilled();
+
+    /**
+     * Releases the buffered events. The buffer is empty afterwards.
+     */
+    @Override
+    void close();
+}
@@ -23,6 +23,7 @@ import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -40,7 +41,8 @@ import static java.util.Arrays.asList;
  * <p>
  * The Key is computed either from the OldKeys in the UPDATE and DELETE {@link ChangeEvent} or by looking up
  * a pre-configured column indexes in the case of INSERT events. To lookup table datasetToPrimaryKeyColumnIndexesMap
- * allows to configure different primary-key column indices for every target dataset.
+ * allows to configure different primary-key column indices for every target dataset. When the event carries the
+ * primary key column names (wal2json format-version 2) those are used instead of the pre-configured indexes.
  * <p>
  * The Value is computed only for the INSERT and DELETE event types. The the DELETE event value is an empty string.
  * Value encoded an flat JSON representation of the input raw values. The column names are used as field names and the
@@ -77,6 +79,22 @@ public class KeyValueAdapter {
         return new KeyValueChangeEvent(eventType, datasetName, key, value);
     }
 
+    /**
+     * @param changeEvent Event form which the target Dataset name is computed.
+     * @return Returns the name of the target dataset altered by this event.
+     */
+    public String getDatasetName(ChangeEvent changeEvent) {
+        return doGetDatasetName(changeEvent);
+    }
+
+    /**
+     * @param changeEvent change event to extract the key from.
+     * @return Returns the key of the entry altered by this event.
+     */
+    public String getKey(ChangeEvent changeEvent) {
+        return doGetKey(changeEvent);
+    }
+
     /**
      * Computes the target Dataset name from the input Schema and Table names.
      *
@@ -100,7 +118,13 @@ public class KeyValueAdapter {
     protected String doGetKey(ChangeEvent changeEvent) {
         switch (changeEvent.getKind()) {
             case update:
+                if (changeEvent.getOldkeys() == null && hasPrimaryKeyNames(changeEvent)) {
+                    // format-version 2 records may omit the identity when the key is unchanged
+                    return computeInsertKey(changeEvent);
+                }
+                return computeUpdateDeleteKey(changeEvent);
             case delete:
+                // a delete carries no new column values, its key is known from the old keys only
                 return computeUpdateDeleteKey(changeEvent);
             case insert:
                 return computeInsertKey(changeEvent);
@@ -110,6 +134,10 @@ public class KeyValueAdapter {
     }
 
     private String computeUpdateDeleteKey(ChangeEvent changeEvent) {
+        if (changeEvent.getOldkeys() == null || changeEvent.getOldkeys().getKeyvalues() == null) {
+            throw new RuntimeException("No old keys in the " + changeEvent.getKind() + " event of " +
+                    changeEvent.getSchema() + "." + changeEvent.getTable() + ", the table has no replica identity");
+        }
 
         StringBuilder sb = new StringBuilder();
         Iterator<Object> keyValuesIterator = changeEvent.getOldkeys().getKeyvalues().iterator();
@@ -124,8 +152,9 @@ public class KeyValueAdapter {
 
     private String computeInsertKey(ChangeEvent changeEvent) {
         StringBuilder sb = new StringBuilder();
-        Iterator<Integer> columnIndexIterator = getPrimaryKeyColumnIndexes(
-                changeEvent.getSchema(), changeEvent.getTable()).iterator();
+        Iterator<Integer> columnIndexIterator = (hasPrimaryKeyNames(changeEvent) ?
+                getPrimaryKeyColumnIndexes(changeEvent) :
+                getPrimaryKeyColumnIndexes(changeEvent.getSchema(), changeEvent.getTable())).iterator();
         while (columnIndexIterator.hasNext()) {
             sb.append(changeEvent.getColumnvalues().get(columnIndexIterator.next()));
             if (columnIndexIterator.hasNext()) {
@@ -135,6 +164,25 @@ public class KeyValueAdapter {
         return sb.toString();
     }
 
+    private static boolean hasPrimaryKeyNames(ChangeEvent changeEvent) {
+        return changeEvent.getPknames() != null && !changeEvent.getPknames().isEmpty();
+    }
+
+    /**
+     * @return Returns the column indexes of the primary key column names carried by the event.
+     */
+    private List<Integer> getPrimaryKeyColumnIndexes(ChangeEvent changeEvent) {
+        List<Integer> indices = new ArrayList<>(changeEvent.getPknames().size());
+        for (String pkName : changeEvent.getPknames()) {
+            int index = changeEvent.getColumnnames().indexOf(pkName);
+            if (index < 0) {
+                throw new RuntimeException("Unknown primary key column:" + pkName);
+            }
+            indices.add(index);
+        }
+        return indices;
+    }
+
     /**
      * @return Returns the list of column indexes that define the primary key for the dataset.
      */
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.testdecoding;
+
+import org.springframework.cloud.stream.app.pg.cdc.SqlUtils;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+
+import java.util.ArrayList;
+
+/**
+ * Single-pass scanner of the test_decoding log lines:
+ * <ul>
+ * <li>BEGIN 529</li>
+ * <li>table public.data: INSERT: id[integer]:3 data[text]:'it''s'</li>
+ * <li>table public.data: UPDATE: old-key: id[integer]:3 new-tuple: id[integer]:4 data[text]:'x'</li>
+ * <li>table public.data: DELETE: id[integer]:4</li>
+ * <li>COMMIT 529 (at 2017-10-03 11:22:43.773734+02)</li>
+ * </ul>
+ * The line is read in place, without lexer tokens or parse tree, and only the identifiers, types and values of the
+ * {@link ChangeEvent} are allocated. The quoted identifiers and values are unescaped ("" and ''). The old key values are
+ * decoded right away, the column values are kept as text and decoded when accessed.
+ * <p>
+ * A line is fed to the {@link ToWal2JsonParserListener} only once it was scanned entirely. A line that doesn't match
+ * the expected format is left untouched, for the {@link ToWal2JsonParser} to fall back to the ANTLR grammar.
+ * <p>
+ * Not thread-safe: the scanner keeps the line being scanned and reuses its unescaping buffer.
+ *
+ * @author Christian Tzolov
+ */
+public class TestDecodingScanner {
+
+    private static final String BEGIN = "BEGIN";
+
+    private static final String COMMIT = "COMMIT";
+
+    private static final String COMMIT_TIMESTAMP = " (at ";
+
+    private static final String TABLE = "table ";
+
+    private static final String INSERT = "INSERT:";
+
+    private static final String UPDATE = "UPDATE:";
+
+    private static final String DELETE = "DELETE:";
+
+    private static final String OLD_KEY = "old-key:";
+
+    private static final String NEW_TUPLE = "new-tuple:";
+
+    private static final String NO_TUPLE_DATA = "(no-tuple-data)";
+
+    /**
+     * Reused to unescape the quoted identifiers and values.
+     */
+    private final StringBuilder unescaped = new StringBuilder();
+
+    private CharSequence line;
+
+    private int position;
+
+    /**
+     * @param line     test_decoding log line.
+     * @param listener Receives the scanned transaction boundary or change event.
+     * @return Returns true if the line was scanned and fed to the listener, false if the line doesn't match the
+     * expected format.
+     */
+    public boolean scan(CharSequence line, ToWal2JsonParserListener listener) {
+        this.line = line;
+        this.position = 0;
+        try {
+            if (skip(TABLE)) {
+                ChangeEvent changeEvent = scanDmlStatement();
+                if (changeEvent == null) {
+                    return false;
+                }
+                listener.addChangeEvent(changeEvent);
+                return true;
+            }
+            if (skip(BEGIN)) {
+                Integer xid = scanXid();
+                if (this.position != line.length()) {
+                    return false;
+                }
+                listener.beginTransaction(xid);
+                return true;
+            }
+            if (skip(COMMIT)) {
+                Integer xid = scanXid();
+                String timestamp = null;
+                if (skip(COMMIT_TIMESTAMP)) {
+                    int end = line.length() - 1;
+                    if (end < this.position || line.charAt(end) != ')') {
+                        return false;
+                    }
+                    timestamp = line.subSequence(this.position, end).toString();
+                    this.position = line.length();
+                }
+                if (this.position != line.length()) {
+                    return false;
+                }
+                listener.commitTransaction(xid, timestamp);
+                return true;
+            }
+            return false;
+        } finally {
+            this.line = null;
+        }
+    }
+
+    /**
+     * @return Returns the ' 529' transaction id, or null if the include-xids option is off.
+     */
+    private Integer scanXid() {
+        if (this.position + 1 >= this.line.length() || this.line.charAt(this.position) != ' '
+                || !isDigit(this.line.charAt(this.position + 1))) {
+            return null;
+        }
+        long xid = 0;
+        int start = ++this.position;
+        while (this.position < this.line.length() && isDigit(this.line.charAt(this.position))) {
+            xid = xid * 10 + (this.line.charAt(this.position++) - '0');
+        }
+        return (this.position > start && xid <= Integer.MAX_VALUE) ? Integer.valueOf((int) xid) : null;
+    }
+
+    private ChangeEvent scanDmlStatement() {
+        String schema = scanIdentifier('.');
+        if (schema == null || !skip('.')) {
+            return null;
+        }
+        String table = scanIdentifier(':');
+        if (table == null || !skip(':') || !skip(' ')) {
+            return null;
+        }
+
+        ChangeEvent changeEvent = new ChangeEvent();
+        changeEvent.setSchema(schema);
+        changeEvent.setTable(table);
+        if (skip(INSERT)) {
+            changeEvent.setKind(ChangeEvent.Kind.insert);
+        } else if (skip(UPDATE)) {
+            changeEvent.setKind(ChangeEvent.Kind.update);
+        } else if (skip(DELETE)) {
+            changeEvent.setKind(ChangeEvent.Kind.delete);
+        } else {
+            return null;
+        }
+
+        // the delete lists the old key columns only, the update lists them after 'old-key:' if the key has changed
+        boolean oldKey = changeEvent.getKind() == ChangeEvent.Kind.delete;
+        while (this.position < this.line.length()) {
+            if (!skip(' ')) {
+                return null;
+            }
+            if (this.position == this.line.length()) {
+                break;
+            }
+            if (skip(OLD_KEY)) {
+                oldKey = true;
+            } else if (skip(NEW_TUPLE)) {
+                oldKey = false;
+            } else if (!skip(NO_TUPLE_DATA) && !scanColumn(changeEvent, oldKey)) {
+                return null;
+            }
+        }
+        return changeEvent;
+    }
+
+    /**
+     * Scans a name[type]:value column.
+     */
+    private boolean scanColumn(ChangeEvent changeEvent, boolean oldKey) {
+        String name = scanIdentifier('[');
+        if (name == null || !skip('[')) {
+            return false;
+        }
+
+        int typeEnd = this.position;
+        while (typeEnd + 1 < this.line.length()
+                && !(this.line.charAt(typeEnd) == ']' && this.line.charAt(typeEnd + 1) == ':')) {
+            typeEnd++;
+        }
+        if (typeEnd + 1 >= this.line.length()) {
+            return false;
+        }
+        String type = SqlUtils.toJdbcType(this.line.subSequence(this.position, typeEnd).toString().trim());
+        this.position = typeEnd + 2;
+
+        String text;
+        if (this.position < this.line.length() && this.line.charAt(this.position) == '\'') {
+            text = scanQuoted('\'');
+            if (text == null) {
+                return false;
+            }
+        } else {
+            int start = this.position;
+            while (this.position < this.line.length() && this.line.charAt(this.position) != ' ') {
+                this.position++;
+            }
+            text = this.line.subSequence(start, this.position).toString();
+        }
+        if (oldKey) {
+            Object value = SqlUtils.fromSqlValue(type, text);
+            if (changeEvent.getOldkeys() == null) {
+                changeEvent.setOldkeys(new ChangeEvent.OldKeys());
+                changeEvent.getOldkeys().setKeynames(new ArrayList<String>());
+                changeEvent.getOldkeys().setKeytypes(new ArrayList<String>());
+                changeEvent.getOldkeys().setKeyvalues(new ArrayList<>());
+            }
+            changeEvent.getOldkeys().getKeynames().add(name);
+            changeEvent.getOldkeys().getKeytypes().add(type);
+            changeEvent.getOldkeys().getKeyvalues().add(value);
+        } else {
+            // decoded only when the column value is accessed
+            changeEvent.addColumn(name, type, text);
+        }
+        return true;
+    }
+
+    /**
+     * @param terminator Character following an unquoted identifier.
+     * @return Returns the plain or double quoted identifier, or null if empty or not terminated.
+     */
+    private String scanIdentifier(char terminator) {
+        if (this.position < this.line.length() && this.line.charAt(this.position) == '"') {
+            return scanQuoted('"');
+        }
+        int start = this.position;
+        while (this.position < this.line.length() && this.line.charAt(this.position) != terminator) {
+            if (this.line.charAt(this.position) == ' ') {
+                return null;
+            }
+            this.position++;
+        }
+        return (this.position > start) ? this.line.subSequence(start, this.position).toString() : null;
+    }
+
+    /**
+     * @return Returns the unescaped content of the quoted text at the current position, or null if the closing quote
+     * is missing.
+     */
+    private String scanQuoted(char quote) {
+        int start = ++this.position;
+        boolean escaped = false;
+        while (this.position < this.line.length()) {
+            if (this.line.charAt(this.position) == quote) {
+                if (this.position + 1 < this.line.length() && this.line.charAt(this.position + 1) == quote) {
+                    escaped = true;
+                    this.position += 2;
+                    continue;
+                }
+                int end = this.position++;
+                return escaped ? unescape(start, end, quote) : this.line.subSequence(start, end).toString();
+            }
+            this.position++;
+        }
+        return null;
+    }
+
+    private String unescape(int start, int end, char quote) {
+        this.unescaped.setLength(0);
+        for (int i = start; i < end; i++) {
+            char c = this.line.charAt(i);
+            this.unescaped.append(c);
+            if (c == quote) {
+                // skip the second quote of the pair
+                i++;
+            }
+        }
+        return this.unescaped.toString();
+    }
+
+    private boolean skip(char c) {
+        if (this.position < this.line.length() && this.line.charAt(this.position) == c) {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean skip(String keyword) {
+        if (this.line.length() - this.position < keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (this.line.charAt(this.position + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        this.position += keyword.length();
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.pg.cdc.testdecoding;
+
+import logicaldecoding.parser.PgLogicalDecodingLexer;
+import logicaldecoding.parser.PgLogicalDecodingParser;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.SpillingTransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.TransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * PostgreSQL is shipped with pre-build with logical decoding output plugin called 'test_decoding' (https://www.postgresql.org/docs/10/static/test-decoding.html).
+ * <p>
+ * The {@link ToWal2JsonParser} allows to parse the test_decoding log messages into Wal2Json's plugin format: https://github.com/eulerto/wal2json
+ * <p>
+ * This allows to emulate the wal2json plugin format event if the later is not installed in PostgreSQL! This covers
+ * some public cloud use-case.
+ * <p>
+ * The lines are read by the {@link TestDecodingScanner}. Only the lines it doesn't recognize are parsed with the
+ * ANTLR grammar. The lexer and parser are created once and reused for every line. The line is first parsed with the
+ * faster SLL prediction, that bails out on the first syntax error, and is parsed again with the full LL prediction
+ * and the default error recovery only if SLL fails.
+ * <p>
+ * Not thread-safe: use one parser per thread.
+ *
+ * @author Christian Tzolov
+ */
+public class ToWal2JsonParser {
+
+    /**
+     * Prefix of the DML lines, the only lines with quoted text.
+     */
+    private static final String TABLE = "table ";
+
+    private final ToWal2JsonParserListener parserListener;
+
+    /**
+     * Null to parse every line with the ANTLR grammar.
+     */
+    private final TestDecodingScanner scanner;
+
+    /**
+     * Reused ANTLR pipeline, created on the first line the scanner doesn't recognize.
+     */
+    private PgLogicalDecodingLexer lexer;
+
+    private CommonTokenStream tokens;
+
+    private PgLogicalDecodingParser parser;
+
+    /**
+     * Keeps the transactions on-heap.
+     */
+    public ToWal2JsonParser() {
+        this(new SpillingTransactionBuffer(Integer.MAX_VALUE, null, 1));
+    }
+
+    /**
+     * @param transactionBuffer Buffer of the change events of the current transaction.
+     */
+    public ToWal2JsonParser(TransactionBuffer transactionBuffer) {
+        this(transactionBuffer, true);
+    }
+
+    ToWal2JsonParser(TransactionBuffer transactionBuffer, boolean scan) {
+        this.parserListener = new ToWal2JsonParserListener(transactionBuffer);
+        this.scanner = scan ? new TestDecodingScanner() : null;
+    }
+
+    /**
+     * @param logLine Log line in the Test-Decoding text format. The input can represent BEGIN/COMMIT of Tx or DML operation
+     * @return Returns complete transaction (as {@link Change} instance or null if transaction has not been committed yet.
+     */
+    public Change parseLogLine(String logLine) {
+        walk(logLine);
+        return parserListener.getCurrentChange();
+    }
+
+    /**
+     * Like {@link #parseLogLine(String)}, but streams a committed transaction as sub-batches read from the
+     * transaction buffer, instead of holding all its events in a single {@link Change}.
+     *
+     * @param logLine   Log line in the Test-Decoding text format.
+     * @param chunkSize Maximum number of change events in a sub-batch.
+     * @return Returns the sub-batches of the committed transaction or null if the transaction has not been
+     * committed yet.
+     */
+    public Iterator<Change> parseLogLine(String logLine, int chunkSize) {
+        walk(logLine);
+        return parserListener.getCurrentChunks(chunkSize);
+    }
+
+    /**
+     * Splits a newline-delimited batch of log lines. A quoted value or identifier of a DML line may span multiple
+     * lines, so the newlines within its quotes are kept.
+     *
+     * @param batch Log lines in the Test-Decoding text format, separated by newlines.
+     * @return Returns the non-empty log lines of the batch.
+     */
+    public static List<String> splitLogLines(String batch) {
+        List<String> lines = new ArrayList<>();
+        boolean dml = batch.startsWith(TABLE);
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < batch.length(); i++) {
+            char c = batch.charAt(i);
+            if (quote != 0) {
+                // an escaped '' or "" quote closes and reopens the quoted text
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (dml && (c == '\'' || c == '"')) {
+                quote = c;
+            } else if (c == '\n') {
+                if (i > start) {
+                    lines.add(batch.substring(start, i));
+                }
+                start = i + 1;
+                dml = batch.startsWith(TABLE, start);
+            }
+        }
+        if (batch.length() > start) {
+            lines.add(batch.substring(start));
+        }
+        return lines;
+    }
+
+    private void walk(String logLine) {
+        if (this.scanner != null && this.scanner.scan(logLine, this.parserListener)) {
+            return;
+        }
+        ParseTreeWalker.DEFAULT.walk(this.parserListener, parse(logLine));
+    }
+
+    private PgLogicalDecodingParser.LoglineContext parse(String logLine) {
+        if (this.parser == null) {
+            this.lexer = new PgLogicalDecodingLexer(null);
+            this.tokens = new CommonTokenStream(this.lexer);
+            this.parser = new PgLogicalDecodingParser(this.tokens);
+        }
+
+        this.lexer.setInputStream(CharStreams.fromString(logLine));
+        this.tokens.setTokenSource(this.lexer);
+        this.parser.setTokenStream(this.tokens);
+
+        // SLL is enough for the well-formed lines, bail out on the first error instead of recovering
+        this.parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        this.parser.setErrorHandler(new BailErrorStrategy());
+        this.parser.removeErrorListeners();
+        try {
+            return this.parser.logline();
+        } catch (ParseCancellationException e) {
+            // rewind and re-parse with the full LL prediction, reporting and recovering from the syntax errors
+            this.tokens.seek(0);
+            this.parser.reset();
+            this.parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            this.parser.setErrorHandler(new DefaultErrorStrategy());
+            this.parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+            return this.parser.logline();
+        }
+    }
+}
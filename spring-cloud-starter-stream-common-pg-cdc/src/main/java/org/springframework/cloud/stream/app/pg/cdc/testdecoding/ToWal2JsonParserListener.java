@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.testdecoding;
+
+import logicaldecoding.parser.PgLogicalDecodingBaseListener;
+import logicaldecoding.parser.PgLogicalDecodingParser;
+import org.springframework.cloud.stream.app.pg.cdc.SqlUtils;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.TransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Rebuilds the transactions from the test_decoding log lines. The change events of the current transaction are
+ * collected in a {@link TransactionBuffer}, so a large transaction doesn't have to fit in the heap.
+ * <p>
+ * The transaction is fed either by the ANTLR parse tree walk, or directly by the {@link TestDecodingScanner} through
+ * the beginTransaction, addChangeEvent and commitTransaction methods.
+ *
+ * @author Christian Tzolov
+ */
+public class ToWal2JsonParserListener extends PgLogicalDecodingBaseListener {
+
+    private final TransactionBuffer transactionBuffer;
+
+    private Change currentChange;
+    private ChangeEvent currentChangeEvent;
+
+    private String currentColumnName;
+    private String currentColumnValue;
+    private String currentColumnSqlType;
+
+    private String tableName;
+    private String schemaName;
+
+    private boolean isReady;
+
+    public ToWal2JsonParserListener(TransactionBuffer transactionBuffer) {
+        this.transactionBuffer = transactionBuffer;
+    }
+
+    @Override
+    public void enterTxStatement(PgLogicalDecodingParser.TxStatementContext ctx) {
+    }
+
+    @Override
+    public void enterBeginTxStatement(PgLogicalDecodingParser.BeginTxStatementContext ctx) {
+        beginTransaction(null);
+    }
+
+    @Override
+    public void enterCommitTxStatement(PgLogicalDecodingParser.CommitTxStatementContext ctx) {
+        isReady = true;
+    }
+
+    @Override
+    public void enterCommitTxId(PgLogicalDecodingParser.CommitTxIdContext ctx) {
+        currentChange.setXid(Integer.valueOf(ctx.getText()));
+    }
+
+    @Override
+    public void exitCommitTimestamp(PgLogicalDecodingParser.CommitTimestampContext ctx) {
+        currentChange.setTimestamp(ctx.getText());
+    }
+
+    @Override
+    public void enterInsertOp(PgLogicalDecodingParser.InsertOpContext ctx) {
+        enterDmlOperation(ChangeEvent.Kind.insert);
+    }
+
+    @Override
+    public void enterUpdateOp(PgLogicalDecodingParser.UpdateOpContext ctx) {
+        enterDmlOperation(ChangeEvent.Kind.update);
+    }
+
+    @Override
+    public void enterDeleteOp(PgLogicalDecodingParser.DeleteOpContext ctx) {
+        enterDmlOperation(ChangeEvent.Kind.delete);
+    }
+
+    private void enterDmlOperation(ChangeEvent.Kind kind) {
+        currentChangeEvent = new ChangeEvent();
+        currentChangeEvent.setKind(kind);
+        currentChangeEvent.setTable(tableName);
+        currentChangeEvent.setSchema(schemaName);
+    }
+
+    @Override
+    public void exitDmlStatement(PgLogicalDecodingParser.DmlStatementContext ctx) {
+        // the event is complete, buffer it
+        if (currentChangeEvent != null) {
+            addChangeEvent(currentChangeEvent);
+            currentChangeEvent = null;
+        }
+    }
+
+    public void enterSchemaname(PgLogicalDecodingParser.SchemanameContext ctx) {
+        schemaName = unquote(ctx.getText(), '"');
+    }
+
+    public void enterTablename(PgLogicalDecodingParser.TablenameContext ctx) {
+        tableName = unquote(ctx.getText(), '"');
+    }
+
+    @Override
+    public void enterOldKeyValuePair(PgLogicalDecodingParser.OldKeyValuePairContext ctx) {
+        if (currentChangeEvent.getOldkeys() == null) {
+            currentChangeEvent.setOldkeys(new ChangeEvent.OldKeys());
+            currentChangeEvent.getOldkeys().setKeytypes(new ArrayList<String>());
+            currentChangeEvent.getOldkeys().setKeyvalues(new ArrayList<>());
+            currentChangeEvent.getOldkeys().setKeynames(new ArrayList<String>());
+        }
+    }
+
+    @Override
+    public void exitNewKeyValuePair(PgLogicalDecodingParser.NewKeyValuePairContext ctx) {
+        // decoded only when the column value is accessed
+        currentChangeEvent.addColumn(currentColumnName, currentColumnSqlType, currentColumnValue);
+    }
+
+    @Override
+    public void exitOldKeyValuePair(PgLogicalDecodingParser.OldKeyValuePairContext ctx) {
+        currentChangeEvent.getOldkeys().getKeynames().add(currentColumnName);
+        currentChangeEvent.getOldkeys().getKeyvalues().add(SqlUtils.fromSqlValue(currentColumnSqlType, currentColumnValue));
+        currentChangeEvent.getOldkeys().getKeytypes().add(currentColumnSqlType);
+    }
+
+    @Override
+    public void enterColumnname(PgLogicalDecodingParser.ColumnnameContext ctx) {
+        currentColumnName = unquote(ctx.getText(), '"');
+    }
+
+    @Override
+    public void enterTypedef(PgLogicalDecodingParser.TypedefContext ctx) {
+        currentColumnSqlType = SqlUtils.toJdbcType(ctx.getText().trim());
+    }
+
+    @Override
+    public void enterValue(PgLogicalDecodingParser.ValueContext ctx) {
+        currentColumnValue = ctx.getText();
+    }
+
+    @Override
+    public void enterQuotedValue(PgLogicalDecodingParser.QuotedValueContext ctx) {
+        currentColumnValue = unquote(ctx.getText(), '\'');
+    }
+
+    /**
+     * @param text  Identifier or value as logged by test_decoding.
+     * @param quote Quote character, doubled inside the quoted text.
+     * @return Returns the unescaped content of the quoted text, or the text itself if it isn't quoted.
+     */
+    static String unquote(String text, char quote) {
+        int length = text.length();
+        if (length < 2 || text.charAt(0) != quote || text.charAt(length - 1) != quote) {
+            return text;
+        }
+        StringBuilder unquoted = new StringBuilder(length - 2);
+        for (int i = 1; i < length - 1; i++) {
+            char c = text.charAt(i);
+            unquoted.append(c);
+            if (c == quote) {
+                // skip the second quote of the pair
+                i++;
+            }
+        }
+        return unquoted.toString();
+    }
+
+    /**
+     * Starts a new transaction. Drops the events of a transaction that was never committed or not consumed.
+     *
+     * @param xid Transaction id, or null if not known yet.
+     */
+    public void beginTransaction(Integer xid) {
+        transactionBuffer.close();
+        currentChange = new Change();
+        currentChange.setXid(xid);
+        isReady = false;
+    }
+
+    /**
+     * @param changeEvent Complete change event of the current transaction.
+     */
+    public void addChangeEvent(ChangeEvent changeEvent) {
+        transactionBuffer.add(changeEvent);
+    }
+
+    /**
+     * Marks the current transaction as committed, ready to be emitted.
+     *
+     * @param xid       Transaction id, or null if the include-xids option is off.
+     * @param timestamp Commit timestamp, or null if the include-timestamp option is off.
+     */
+    public void commitTransaction(Integer xid, String timestamp) {
+        if (currentChange == null) {
+            currentChange = new Change();
+        }
+        if (xid != null) {
+            currentChange.setXid(xid);
+        }
+        currentChange.setTimestamp(timestamp);
+        isReady = true;
+    }
+
+    /**
+     * @return Returns the committed transaction with all its events or null if the transaction is not committed yet.
+     */
+    public Change getCurrentChange() {
+        Iterator<Change> chunks = getCurrentChunks(Integer.MAX_VALUE);
+        return (chunks != null) ? chunks.next() : null;
+    }
+
+    /**
+     * Streams the committed transaction as sub-batches, reading the events from the transaction buffer on demand.
+     * The transaction is emitted only once: the buffer is released when the last sub-batch is read, or latest on the
+     * next BEGIN.
+     *
+     * @param chunkSize Maximum number of change events in a sub-batch.
+     * @return Returns the sub-batches (at least one, possibly empty) of the committed transaction or null if the
+     * transaction is not committed yet.
+     */
+    public Iterator<Change> getCurrentChunks(final int chunkSize) {
+        if (!isReady) {
+            return null;
+        }
+        isReady = false;
+
+        final Change transaction = currentChange;
+        final Iterator<ChangeEvent> events = transactionBuffer.iterator();
+        final int bufferSize = transactionBuffer.size();
+
+        return new Iterator<Change>() {
+
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                return this.first || events.hasNext();
+            }
+
+            @Override
+            public Change next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                this.first = false;
+
+                List<ChangeEvent> chunkEvents = new ArrayList<>(Math.min(chunkSize, bufferSize));
+                while (chunkEvents.size() < chunkSize && events.hasNext()) {
+                    chunkEvents.add(events.next());
+                }
+                if (!events.hasNext()) {
+                    transactionBuffer.close();
+                }
+
+                Change chunk = new Change();
+                chunk.setXid(transaction.getXid());
+                chunk.setTimestamp(transaction.getTimestamp());
+                chunk.setChange(chunkEvents);
+                return chunk;
+            }
+        };
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.testdecoding;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assembles the test_decoding lines into whole transactions, keyed by transaction id, and parses the committed
+ * transactions on a thread pool. The parsed transaction is returned to the caller as a {@link Future}, so the caller
+ * sends it from its own thread and a parse failure reaches the caller too. A caller adding a batch of lines gets the
+ * futures of several transactions, that are parsed in parallel while it waits for them in commit order. A caller
+ * that waits for every transaction as soon as it is committed gains nothing from the pool, and frames the lines
+ * instead, to parse the committed transactions itself.
+ * <p>
+ * Only the framing of the lines is done on the calling thread. A transaction is opened by its BEGIN line, the
+ * following lines are added to the last opened transaction, and its COMMIT line hands it over to the pool. A BEGIN of
+ * a transaction that is already open (the server resends it after a reconnect) restarts it. A line received outside
+ * of a transaction, or a COMMIT of an unknown transaction, is dropped: a lost BEGIN or COMMIT costs a single
+ * transaction, instead of corrupting all the following ones.
+ * <p>
+ * The lines of an open transaction are kept on-heap up to maxInMemoryBytes, the further lines are spilled into a
+ * temp file that is read back by the parse. The transactions that received no line within the transaction timeout,
+ * or the oldest ones above the maximum number of open transactions, are evicted as orphans when a transaction begins.
+ * <p>
+ * The lines of a transaction must be added in order, so the input should be consumed by a single thread.
+ *
+ * @author Christian Tzolov
+ */
+public class TransactionAssembler<T> {
+
+    private static final Log LOG = LogFactory.getLog(TransactionAssembler.class);
+
+    private static final String BEGIN = "BEGIN";
+
+    private static final String COMMIT = "COMMIT";
+
+    private static final String SPILL_PREFIX = "pg-cdc-transaction-";
+
+    private static final String SPILL_SUFFIX = ".lines";
+
+    /**
+     * Parses the assembled transactions.
+     */
+    public interface Handler<T> {
+
+        /**
+         * Called on the pool threads.
+         *
+         * @param lines All lines of a transaction, from BEGIN to COMMIT. Can be iterated once.
+         * @return Returns the parsed transaction.
+         */
+        T parse(Iterable<String> lines);
+    }
+
+    private final Handler<T> handler;
+
+    private final int maxOpenTransactions;
+
+    private final long maxInMemoryBytes;
+
+    private final File spillDirectory;
+
+    private final long transactionTimeout;
+
+    /**
+     * Open transactions by transaction id (null if the include-xids option is off), in BEGIN order.
+     */
+    private final Map<Long, OpenTransaction> openTransactions = new LinkedHashMap<>();
+
+    private final ExecutorService parserPool;
+
+    /**
+     * Transaction receiving the lines, or null between transactions.
+     */
+    private OpenTransaction currentTransaction;
+
+    /**
+     * @param handler             Parses the transactions.
+     * @param threads             Number of parser threads.
+     * @param maxOpenTransactions Maximum number of open transactions, the oldest ones are evicted above.
+     * @param maxInMemoryBytes    Size (in bytes) of the lines of an open transaction kept on-heap.
+     * @param spillDirectory      Directory of the spilled lines. The default temp directory if null.
+     * @param transactionTimeout  Time (in milliseconds) without a line after which an open transaction is evicted.
+     */
+    public TransactionAssembler(Handler<T> handler, int threads, int maxOpenTransactions, long maxInMemoryBytes,
+                                File spillDirectory, long transactionTimeout) {
+        this.handler = handler;
+        this.maxOpenTransactions = maxOpenTransactions;
+        this.maxInMemoryBytes = maxInMemoryBytes;
+        this.spillDirectory = spillDirectory;
+        this.transactionTimeout = transactionTimeout;
+        this.parserPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pg-cdc-transaction-parser-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param line test_decoding log line.
+     * @return Returns the transaction parsed on the pool when the line commits it, or null.
+     */
+    public Future<T> add(String line) {
+        Callable<T> transaction = frame(line);
+        return (transaction != null) ? this.parserPool.submit(transaction) : null;
+    }
+
+    /**
+     * @param line test_decoding log line.
+     * @return Returns the parse of the transaction when the line commits it, to be called once, or null.
+     */
+    public synchronized Callable<T> frame(String line) {
+        long now = System.currentTimeMillis();
+
+        if (line.startsWith(BEGIN)) {
+            Long xid = parseXid(line, BEGIN.length());
+            OpenTransaction restarted = this.openTransactions.remove(xid);
+            if (restarted != null) {
+                restarted.discard();
+            }
+            evictOrphans(now);
+            this.currentTransaction = new OpenTransaction(xid);
+            this.currentTransaction.add(line, now);
+            this.openTransactions.put(xid, this.currentTransaction);
+            evictOldest();
+            return null;
+        }
+
+        if (line.startsWith(COMMIT)) {
+            Long xid = parseXid(line, COMMIT.length());
+            OpenTransaction transaction = (xid == null && this.currentTransaction != null) ?
+                    this.openTransactions.remove(this.currentTransaction.xid) : this.openTransactions.remove(xid);
+            if (transaction == this.currentTransaction) {
+                this.currentTransaction = null;
+            }
+            if (transaction == null) {
+                LOG.warn("Dropped the COMMIT of an unknown transaction: " + line);
+                return null;
+            }
+            transaction.add(line, now);
+            return transaction;
+        }
+
+        if (this.currentTransaction == null) {
+            LOG.warn("Dropped a line received outside of a transaction: " + line);
+            return null;
+        }
+        this.currentTransaction.add(line, now);
+        return null;
+    }
+
+    /**
+     * @return Returns the number of open transactions.
+     */
+    public synchronized int getOpenTransactions() {
+        return this.openTransactions.size();
+    }
+
+    /**
+     * Stops the parser threads and discards the open transactions.
+     */
+    public synchronized void close() {
+        this.parserPool.shutdownNow();
+        for (OpenTransaction transaction : this.openTransactions.values()) {
+            transaction.discard();
+        }
+        this.openTransactions.clear();
+        this.currentTransaction = null;
+    }
+
+    private void evictOrphans(long now) {
+        Iterator<OpenTransaction> iterator = this.openTransactions.values().iterator();
+        while (iterator.hasNext()) {
+            OpenTransaction transaction = iterator.next();
+            if (now - transaction.lastLine >= this.transactionTimeout) {
+                evict(transaction, "timed out");
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evictOldest() {
+        Iterator<OpenTransaction> iterator = this.openTransactions.values().iterator();
+        while (this.openTransactions.size() > this.maxOpenTransactions) {
+            evict(iterator.next(), "exceeded the maximum number of open transactions");
+            iterator.remove();
+        }
+    }
+
+    private void evict(OpenTransaction transaction, String reason) {
+        LOG.warn("Evicted the orphaned transaction " + transaction.xid + " with " + transaction.count
+                + " lines: " + reason);
+        transaction.discard();
+        if (transaction == this.currentTransaction) {
+            this.currentTransaction = null;
+        }
+    }
+
+    /**
+     * @return Returns the transaction id following the keyword, or null if the include-xids option is off.
+     */
+    private static Long parseXid(String line, int start) {
+        if (line.length() <= start || line.charAt(start) != ' ') {
+            return null;
+        }
+        int end = ++start;
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        // the xids are unsigned 32-bit integers
+        return (end > start) ? Long.valueOf(line.substring(start, end)) : null;
+    }
+
+    private class OpenTransaction implements Callable<T>, Iterable<String> {
+
+        private final Long xid;
+
+        private final List<String> lines = new ArrayList<>();
+
+        private long lastLine;
+
+        private long bytes;
+
+        private int count;
+
+        /**
+         * Lines past maxInMemoryBytes, in length-prefixed UTF-8. Null until the transaction is spilled.
+         */
+        private File spillFile;
+
+        private DataOutputStream spillOutput;
+
+        private DataInputStream spillInput;
+
+        private OpenTransaction(Long xid) {
+            this.xid = xid;
+        }
+
+        private void add(String line, long now) {
+            this.lastLine = now;
+            this.count++;
+            if (this.spillOutput == null && this.bytes + line.length() <= maxInMemoryBytes) {
+                // one byte per char for the usual Latin-1 content
+                this.bytes += line.length();
+                this.lines.add(line);
+                return;
+            }
+            try {
+                if (this.spillOutput == null) {
+                    this.spillFile = File.createTempFile(SPILL_PREFIX, SPILL_SUFFIX, spillDirectory);
+                    this.spillOutput = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(this.spillFile)));
+                }
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                this.spillOutput.writeInt(bytes.length);
+                this.spillOutput.write(bytes);
+            } catch (IOException e) {
+                openTransactions.remove(this.xid);
+                evict(this, "failed to spill");
+                throw new UncheckedIOException("Failed to spill the lines of transaction " + this.xid, e);
+            }
+        }
+
+        @Override
+        public T call() throws IOException {
+            try {
+                if (this.spillOutput != null) {
+                    this.spillOutput.close();
+                }
+                return handler.parse(this);
+            } finally {
+                discard();
+            }
+        }
+
+        /**
+         * Reads the on-heap lines, then the spilled ones.
+         */
+        @Override
+        public Iterator<String> iterator() {
+            final Iterator<String> heapLines = this.lines.iterator();
+            final int spilledLines = this.count - this.lines.size();
+            return new Iterator<String>() {
+
+                private int read;
+
+                @Override
+                public boolean hasNext() {
+                    return heapLines.hasNext() || this.read < spilledLines;
+                }
+
+                @Override
+                public String next() {
+                    if (heapLines.hasNext()) {
+                        return heapLines.next();
+                    }
+                    if (this.read >= spilledLines) {
+                        throw new NoSuchElementException();
+                    }
+                    try {
+                        if (spillInput == null) {
+                            spillInput = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+                        }
+                        byte[] bytes = new byte[spillInput.readInt()];
+                        spillInput.readFully(bytes);
+                        this.read++;
+                        return new String(bytes, StandardCharsets.UTF_8);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to read the spilled lines of transaction " + xid, e);
+                    }
+                }
+            };
+        }
+
+        private void discard() {
+            close(this.spillOutput);
+            close(this.spillInput);
+            if (this.spillFile != null && !this.spillFile.delete()) {
+                this.spillFile.deleteOnExit();
+            }
+            this.lines.clear();
+        }
+
+        private void close(Closeable stream) {
+            if (stream == null) {
+                return;
+            }
+            try {
+                stream.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close the spilled lines of transaction " + this.xid, e);
+            }
+        }
+    }
+}
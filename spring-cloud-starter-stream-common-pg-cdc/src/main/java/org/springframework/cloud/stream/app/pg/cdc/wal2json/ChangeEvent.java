@@ -16,6 +16,7 @@
 
 package org.springframework.cloud.stream.app.pg.cdc.wal2json;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.cloud.stream.app.pg.cdc.SqlUtils;
@@ -23,11 +24,18 @@ import org.springframework.util.Assert;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * The column values are either set as decoded values, or added as text with {@link #addColumn(String, String, String)}.
+ * A text value is decoded by its column type only when the column is first accessed, and the decoded value is kept.
+ * Consumers that read a few columns (e.g. the key) of a wide table skip the decoding of the other columns.
+ *
  * @author Christian Tzolov (christian.tzolov@gmail.com)
  */
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -72,7 +80,21 @@ public class ChangeEvent {
     private List<String> columnnames;
     private List<String> columntypes;
     private List<Object> columnvalues;
+    /**
+     * Text values of the columns added as text, null for the columns set as decoded values.
+     */
+    private List<String> columntexts;
     private OldKeys oldkeys;
+    /**
+     * Primary key column names. Provided by the wal2json format-version 2 records, and set on the events whose
+     * columns were filtered.
+     */
+    private List<String> pknames;
+    /**
+     * Names of the columns of an update whose values were not sent, e.g. the unchanged TOASTed values of the pgoutput
+     * plugin. A consumer replacing the whole row must keep the previous values of these columns.
+     */
+    private List<String> unchangedcolumns;
 
     public Kind getKind() {
         return kind;
@@ -114,12 +136,125 @@ public class ChangeEvent {
         this.columntypes = columntypes;
     }
 
+    /**
+     * @return Returns the column values. The text values are decoded as the list elements are accessed.
+     */
     public List<Object> getColumnvalues() {
-        return columnvalues;
+        if (columntexts == null || columnvalues == null) {
+            return columnvalues;
+        }
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int index) {
+                return getColumnvalue(index);
+            }
+
+            @Override
+            public Object set(int index, Object value) {
+                Object previous = getColumnvalue(index);
+                columnvalues.set(index, value);
+                columntexts.set(index, null);
+                return previous;
+            }
+
+            @Override
+            public int size() {
+                return columnvalues.size();
+            }
+        };
     }
 
     public void setColumnvalues(List<Object> columnvalues) {
         this.columnvalues = columnvalues;
+        this.columntexts = null;
+    }
+
+    /**
+     * @param index Column index.
+     * @return Returns the column value, decoded from its text on the first access.
+     */
+    public Object getColumnvalue(int index) {
+        Object value = columnvalues.get(index);
+        if (value == null && columntexts != null) {
+            String text = columntexts.get(index);
+            if (text != null) {
+                value = SqlUtils.fromSqlValue(columntypes.get(index), text);
+                columnvalues.set(index, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Adds a column whose value is decoded from the text only when first accessed.
+     *
+     * @param name Column name.
+     * @param type Column SQL type.
+     * @param text Text value of the column, as written by the test_decoding plugin.
+     */
+    public void addColumn(String name, String type, String text) {
+        if (columnnames == null) {
+            columnnames = new ArrayList<>();
+            columntypes = new ArrayList<>();
+            columnvalues = new ArrayList<>();
+        }
+        if (columntexts == null) {
+            columntexts = new ArrayList<>(Collections.<String>nCopies(columnvalues.size(), null));
+        }
+        columnnames.add(name);
+        columntypes.add(type);
+        columnvalues.add(null);
+        columntexts.add(text);
+    }
+
+    /**
+     * @return Returns the text values of the columns added as text, or null if all values were set decoded.
+     */
+    @JsonIgnore
+    public List<String> getColumntexts() {
+        return columntexts;
+    }
+
+    /**
+     * @param columntexts Text values of the columns added as text, null for the columns set as decoded values.
+     */
+    @JsonIgnore
+    public void setColumntexts(List<String> columntexts) {
+        this.columntexts = columntexts;
+    }
+
+    /**
+     * @param indices Indices of the columns to keep, in order.
+     * @return Returns a copy of the event holding only the given columns. The text values are copied undecoded.
+     */
+    public ChangeEvent selectColumns(List<Integer> indices) {
+        List<String> names = new ArrayList<>(indices.size());
+        List<String> types = (columntypes != null) ? new ArrayList<String>(indices.size()) : null;
+        List<Object> values = new ArrayList<>(indices.size());
+        List<String> texts = (columntexts != null) ? new ArrayList<String>(indices.size()) : null;
+        for (int index : indices) {
+            names.add(columnnames.get(index));
+            if (types != null) {
+                types.add(columntypes.get(index));
+            }
+            values.add(columnvalues.get(index));
+            if (texts != null) {
+                texts.add(columntexts.get(index));
+            }
+        }
+
+        ChangeEvent selected = new ChangeEvent();
+        selected.setKind(kind);
+        selected.setSchema(schema);
+        selected.setTable(table);
+        selected.setColumnnames(names);
+        selected.setColumntypes(types);
+        selected.setColumnvalues(values);
+        selected.setColumntexts(texts);
+        selected.setOldkeys(oldkeys);
+        selected.setPknames(pknames);
+        selected.setUnchangedcolumns(unchangedcolumns);
+        return selected;
     }
 
     public OldKeys getOldkeys() {
@@ -130,6 +265,22 @@ public class ChangeEvent {
         this.oldkeys = oldkeys;
     }
 
+    public List<String> getPknames() {
+        return pknames;
+    }
+
+    public void setPknames(List<String> pknames) {
+        this.pknames = pknames;
+    }
+
+    public List<String> getUnchangedcolumns() {
+        return unchangedcolumns;
+    }
+
+    public void setUnchangedcolumns(List<String> unchangedcolumns) {
+        this.unchangedcolumns = unchangedcolumns;
+    }
+
     @Override
     public String toString() {
         return "ChangeEvent{" +
@@ -138,7 +289,7 @@ public class ChangeEvent {
                 ", table='" + table + '\'' +
                 ", columnnames=" + columnnames +
                 ", columntypes=" + columntypes +
-                ", columnvalues=" + columnvalues +
+                ", columnvalues=" + getColumnvalues() +
                 '}';
     }
 
@@ -151,8 +302,14 @@ public class ChangeEvent {
         for (int i = 0; i < this.getColumnnames().size(); i++) {
             String fieldName = this.getColumnnames().get(i);
             String sqlType = this.getColumntypes().get(i);
-            Object originalValue = this.getColumnvalues().get(i);
-            Object fieldValue = SqlUtils.fromSqlValue(sqlType, "" + originalValue);
+            Object fieldValue;
+            if (this.columntexts != null && this.columntexts.get(i) != null) {
+                // decoded from the text once, not converted again from its string form
+                fieldValue = this.getColumnvalue(i);
+            } else {
+                Object originalValue = this.getColumnvalues().get(i);
+                fieldValue = SqlUtils.fromSqlValue(sqlType, "" + originalValue);
+            }
             map.put(fieldName, fieldValue);
         }
 
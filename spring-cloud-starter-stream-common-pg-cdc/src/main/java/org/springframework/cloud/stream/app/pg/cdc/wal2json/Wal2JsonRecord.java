@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.wal2json;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.cloud.stream.app.pg.cdc.SqlUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-tuple record of the wal2json 'format-version=2' output. Unlike the format-version 1 {@link Change} document,
+ * that holds the whole transaction, every BEGIN, COMMIT and DML operation is written as a separate record:
+ * <pre>
+ * {"action":"B","xid":882,"lsn":"0/1560858","timestamp":"2017-10-03 11:22:43.773734+02"}
+ * {"action":"I","xid":882,"lsn":"0/1560858","schema":"public","table":"xpto",
+ *      "columns":[{"name":"a","type":"integer","value":1}],"pk":[{"name":"a","type":"integer"}]}
+ * {"action":"C","xid":882,"lsn":"0/1560898","timestamp":"2017-10-03 11:22:43.773734+02"}
+ * </pre>
+ * The messages written with pg_logical_emit_message are MESSAGE records that carry the transactional flag, prefix
+ * and content of the message.
+ *
+ * @author Christian Tzolov
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Wal2JsonRecord {
+
+    public static final String BEGIN = "B";
+    public static final String COMMIT = "C";
+    public static final String INSERT = "I";
+    public static final String UPDATE = "U";
+    public static final String DELETE = "D";
+    public static final String MESSAGE = "M";
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Column {
+        private String name;
+        private String type;
+        private Object value;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public void setValue(Object value) {
+            this.value = value;
+        }
+    }
+
+    private String action;
+    private Integer xid;
+    private String lsn;
+    private String nextlsn;
+    private String timestamp;
+    private String schema;
+    private String table;
+    private List<Column> columns;
+    private List<Column> identity;
+    private List<Column> pk;
+    private Boolean transactional;
+    private String prefix;
+    private String content;
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public Integer getXid() {
+        return xid;
+    }
+
+    public void setXid(Integer xid) {
+        this.xid = xid;
+    }
+
+    public String getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(String lsn) {
+        this.lsn = lsn;
+    }
+
+    public String getNextlsn() {
+        return nextlsn;
+    }
+
+    public void setNextlsn(String nextlsn) {
+        this.nextlsn = nextlsn;
+    }
+
+    /**
+     * @return Returns the LSN of the transaction of a BEGIN or COMMIT record: its end LSN when the record carries the
+     * nextlsn, the record LSN otherwise.
+     */
+    @JsonIgnore
+    public String getTransactionLsn() {
+        return (this.nextlsn != null) ? this.nextlsn : this.lsn;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public void setSchema(String schema) {
+        this.schema = schema;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public void setTable(String table) {
+        this.table = table;
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    public void setColumns(List<Column> columns) {
+        this.columns = columns;
+    }
+
+    public List<Column> getIdentity() {
+        return identity;
+    }
+
+    public void setIdentity(List<Column> identity) {
+        this.identity = identity;
+    }
+
+    public List<Column> getPk() {
+        return pk;
+    }
+
+    public void setPk(List<Column> pk) {
+        this.pk = pk;
+    }
+
+    public Boolean getTransactional() {
+        return transactional;
+    }
+
+    public void setTransactional(Boolean transactional) {
+        this.transactional = transactional;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    /**
+     * @return Returns true for INSERT, UPDATE and DELETE records.
+     */
+    public boolean isDml() {
+        return INSERT.equals(action) || UPDATE.equals(action) || DELETE.equals(action);
+    }
+
+    /**
+     * Converts a DML record into the format-version 1 {@link ChangeEvent} representation. The new tuple columns
+     * are mapped to the column names, types and values, the replica identity columns to the old keys and the
+     * primary key columns to the primary key names.
+     *
+     * @return Returns the {@link ChangeEvent} equivalent of this record.
+     */
+    public ChangeEvent toChangeEvent() {
+        ChangeEvent changeEvent = new ChangeEvent();
+        changeEvent.setKind(toKind(action));
+        changeEvent.setSchema(schema);
+        changeEvent.setTable(table);
+
+        if (columns != null) {
+            List<String> names = new ArrayList<>(columns.size());
+            List<String> types = new ArrayList<>(columns.size());
+            List<Object> values = new ArrayList<>(columns.size());
+            for (Column column : columns) {
+                names.add(column.getName());
+                types.add(toSqlType(column.getType()));
+                values.add(column.getValue());
+            }
+            changeEvent.setColumnnames(names);
+            changeEvent.setColumntypes(types);
+            changeEvent.setColumnvalues(values);
+        }
+
+        if (identity != null) {
+            ChangeEvent.OldKeys oldKeys = new ChangeEvent.OldKeys();
+            oldKeys.setKeynames(new ArrayList<String>(identity.size()));
+            oldKeys.setKeytypes(new ArrayList<String>(identity.size()));
+            oldKeys.setKeyvalues(new ArrayList<>(identity.size()));
+            for (Column column : identity) {
+                oldKeys.getKeynames().add(column.getName());
+                oldKeys.getKeytypes().add(toSqlType(column.getType()));
+                oldKeys.getKeyvalues().add(column.getValue());
+            }
+            changeEvent.setOldkeys(oldKeys);
+        }
+
+        if (pk != null) {
+            List<String> pkNames = new ArrayList<>(pk.size());
+            for (Column column : pk) {
+                pkNames.add(column.getName());
+            }
+            changeEvent.setPknames(pkNames);
+        }
+
+        return changeEvent;
+    }
+
+    private static ChangeEvent.Kind toKind(String action) {
+        switch (action) {
+            case INSERT:
+                return ChangeEvent.Kind.insert;
+            case UPDATE:
+                return ChangeEvent.Kind.update;
+            case DELETE:
+                return ChangeEvent.Kind.delete;
+            default:
+                throw new IllegalArgumentException("Not a DML record action:" + action);
+        }
+    }
+
+    /**
+     * The format-version 2 types are full type names that may include a type modifier,
+     * e.g. 'character varying(30)' or 'timestamp(3) with time zone'.
+     */
+    private static String toSqlType(String type) {
+        if (type == null) {
+            return null;
+        }
+        int modifierStart = type.indexOf('(');
+        int modifierEnd = type.indexOf(')', modifierStart);
+        if (modifierStart > 0 && modifierEnd > modifierStart) {
+            type = (type.substring(0, modifierStart) + type.substring(modifierEnd + 1)).trim();
+        }
+        return SqlUtils.toJdbcType(type);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.buffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class SpillingTransactionBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepSmallTransactionsOnHeap() {
+        SpillingTransactionBuffer buffer = new SpillingTransactionBuffer(10, folder.getRoot(), 1024);
+        buffer.add(insert(1));
+        buffer.add(insert(2));
+
+        assertEquals(2, buffer.size());
+        assertFalse(buffer.isSpilled());
+        assertEquals(0, folder.getRoot().list().length);
+
+        Iterator<ChangeEvent> iterator = buffer.iterator();
+        assertEquals(asList(1, "name1"), iterator.next().getColumnvalues());
+        assertEquals(asList(2, "name2"), iterator.next().getColumnvalues());
+        assertFalse(iterator.hasNext());
+        buffer.close();
+    }
+
+    @Test
+    public void spillIntoSegments() {
+        SpillingTransactionBuffer buffer = new SpillingTransactionBuffer(2, folder.getRoot(), 256);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(insert(i));
+        }
+
+        assertEquals(100, buffer.size());
+        assertTrue(buffer.isSpilled());
+        assertTrue(buffer.getSegmentCount() > 1);
+        assertEquals(buffer.getSegmentCount(), folder.getRoot().list().length);
+
+        // can be iterated more than once
+        for (int pass = 0; pass < 2; pass++) {
+            int i = 0;
+            for (ChangeEvent event : buffer) {
+                assertEquals(ChangeEvent.Kind.insert, event.getKind());
+                assertEquals("public", event.getSchema());
+                assertEquals(asList(i, "name" + i), event.getColumnvalues());
+                i++;
+            }
+            assertEquals(100, i);
+        }
+
+        buffer.close();
+        assertEquals(0, buffer.size());
+        assertEquals(0, folder.getRoot().list().length);
+
+        // reusable after close
+        buffer.add(insert(7));
+        assertEquals(asList(7, "name7"), buffer.iterator().next().getColumnvalues());
+    }
+
+    @Test
+    public void spillLargeEventsAndKeepValueTypes() {
+        SpillingTransactionBuffer buffer = new SpillingTransactionBuffer(0, folder.getRoot(), 16);
+
+        char[] text = new char[100000];
+        Arrays.fill(text, 'x');
+
+        ChangeEvent update = new ChangeEvent();
+        update.setKind(ChangeEvent.Kind.update);
+        update.setTable("t");
+        update.setColumnnames(asList("a", "b", "c", "d", "e", "f", "g"));
+        update.setColumntypes(asList("int8", "float4", "float8", "numeric", "bool", "text", "text"));
+        update.setColumnvalues(asList((Object) 1L, 1.5f, 2.5d, new BigDecimal("3.14"), true, new String(text), null));
+        update.setOldkeys(new ChangeEvent.OldKeys());
+        update.getOldkeys().setKeynames(asList("a"));
+        update.getOldkeys().setKeytypes(asList("int8"));
+        update.getOldkeys().setKeyvalues(asList((Object) 1L));
+        update.setPknames(asList("a"));
+        buffer.add(update);
+
+        ChangeEvent event = buffer.iterator().next();
+        assertTrue(buffer.isSpilled());
+        assertEquals(ChangeEvent.Kind.update, event.getKind());
+        assertNull(event.getSchema());
+        assertEquals(update.getColumnvalues(), event.getColumnvalues());
+        assertEquals(asList((Object) 1L), event.getOldkeys().getKeyvalues());
+        assertEquals(asList("a"), event.getPknames());
+        buffer.close();
+    }
+
+    @Test
+    public void spillTextColumnsUndecoded() {
+        SpillingTransactionBuffer buffer = new SpillingTransactionBuffer(0, folder.getRoot(), 1024);
+
+        ChangeEvent insert = new ChangeEvent();
+        insert.setKind(ChangeEvent.Kind.insert);
+        insert.addColumn("id", "integer", "7");
+        insert.addColumn("price", "numeric", "12.50");
+        insert.addColumn("tags", "text[]", "'{a,b}'");
+        // decoded before spilling
+        assertEquals(7, insert.getColumnvalue(0));
+        buffer.add(insert);
+
+        ChangeEvent event = buffer.iterator().next();
+        assertTrue(buffer.isSpilled());
+        assertEquals(asList("7", "12.50", "'{a,b}'"), event.getColumntexts());
+        assertEquals(7, event.getColumnvalue(0));
+        assertEquals(new BigDecimal("12.50"), event.getColumnvalue(1));
+        buffer.close();
+    }
+
+    @Test
+    public void spillChunkedTransactionsOnly() {
+        SpillingTransactionBuffer chunked = SpillingTransactionBuffer.forChunkSize(10, 2, folder.getRoot(), 1024);
+        SpillingTransactionBuffer single = SpillingTransactionBuffer.forChunkSize(0, 2, folder.getRoot(), 1024);
+        for (int i = 0; i < 5; i++) {
+            chunked.add(insert(i));
+            single.add(insert(i));
+        }
+
+        assertTrue(chunked.isSpilled());
+        assertFalse(single.isSpilled());
+        chunked.close();
+        single.close();
+    }
+
+    private static ChangeEvent insert(int id) {
+        ChangeEvent event = new ChangeEvent();
+        event.setKind(ChangeEvent.Kind.insert);
+        event.setSchema("public");
+        event.setTable("users");
+        event.setColumnnames(asList("id", "name"));
+        event.setColumntypes(asList("integer", "varchar"));
+        event.setColumnvalues(asList((Object) id, "name" + id));
+        return event;
+    }
+}
@@ -23,6 +23,7 @@ import org.springframework.cloud.stream.app.pg.cdc.keyvalue.InMemroyPrimaryKeyCo
 import org.springframework.cloud.stream.app.pg.cdc.keyvalue.KeyValueAdapter;
 import org.springframework.cloud.stream.app.pg.cdc.keyvalue.KeyValueChangeEvent;
 import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Wal2JsonRecord;
 
 import java.io.File;
 import java.io.IOException;
@@ -31,6 +32,7 @@ import java.util.List;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * @author Christian Tzolov (christian.tzolov@gmail.com)
@@ -87,6 +89,45 @@ public class KeyValueAdapterTest {
 
     }
 
+    @Test
+    public void handleFormatVersion2Insert() throws Exception {
+        ChangeEvent insertEvent = readRecord("src/test/resources/test_v2_insert.json").toChangeEvent();
+
+        // the primary key column names from the record are used instead of the pre-configured indices
+        KeyValueChangeEvent kvChangeEvent = adapter.handle(insertEvent);
+
+        assertEquals("public_xpto", kvChangeEvent.getDataset());
+        assertEquals(ChangeEvent.Kind.insert, kvChangeEvent.getKind());
+        assertEquals("test1_1", kvChangeEvent.getKey());
+        assertEquals("{\"a\":1,\"b\":true,\"c\":\"test1\"}", kvChangeEvent.getValue());
+    }
+
+    @Test
+    public void handleFormatVersion2Update() throws Exception {
+        ChangeEvent updateEvent = readRecord("src/test/resources/test_v2_update.json").toChangeEvent();
+        assertEquals("test1_1", adapter.doGetKey(updateEvent));
+
+        updateEvent.setOldkeys(null);
+        assertEquals("test2_2", adapter.doGetKey(updateEvent));
+    }
+
+    @Test
+    public void rejectDeleteWithoutOldKeys() throws Exception {
+        ChangeEvent deleteEvent = new ChangeEvent();
+        deleteEvent.setKind(ChangeEvent.Kind.delete);
+        deleteEvent.setSchema("public");
+        deleteEvent.setTable("xpto");
+        deleteEvent.setPknames(asList("a"));
+
+        try {
+            adapter.doGetKey(deleteEvent);
+            fail("A delete without old keys must be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("No old keys in the delete event of public.xpto, the table has no replica identity",
+                    e.getMessage());
+        }
+    }
+
     @Test
     public void doGetDatasetName() throws Exception {
         ChangeEvent deleteEvent = read("src/test/resources/test_delete.json");
@@ -137,4 +178,8 @@ public class KeyValueAdapterTest {
     private ChangeEvent read(String path) throws IOException {
         return mapper.readValue(new File(path), ChangeEvent.class);
     }
+
+    private Wal2JsonRecord readRecord(String path) throws IOException {
+        return new com.fasterxml.jackson.databind.ObjectMapper().readValue(new File(path), Wal2JsonRecord.class);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.pg.cdc.testdecoding;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.SpillingTransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Christian Tzolov
+ */
+public class TestDecodingScannerTest {
+
+    private TestDecodingScanner scanner;
+
+    private ToWal2JsonParserListener listener;
+
+    @Before
+    public void setup() {
+        scanner = new TestDecodingScanner();
+        listener = new ToWal2JsonParserListener(new SpillingTransactionBuffer(Integer.MAX_VALUE, null, 1));
+    }
+
+    @Test
+    public void quotedValuesAndIdentifiers() {
+        ChangeEvent changeEvent = scanTransaction(
+                "table \"My Schema\".\"Order \"\"Items\"\"\": INSERT: \"Item Id\"[integer]:7 " +
+                        "note[text]:'it''s a '' quote' price[numeric]:12.50 gone[text]:null");
+
+        assertEquals("My Schema", changeEvent.getSchema());
+        assertEquals("Order \"Items\"", changeEvent.getTable());
+        assertEquals(Arrays.asList("Item Id", "note", "price", "gone"), changeEvent.getColumnnames());
+        assertEquals(Arrays.asList("integer", "text", "numeric", "text"), changeEvent.getColumntypes());
+        assertEquals(7, changeEvent.getColumnvalues().get(0));
+        assertEquals("it's a ' quote", changeEvent.getColumnvalues().get(1));
+        assertEquals(new BigDecimal("12.50"), changeEvent.getColumnvalues().get(2));
+        assertEquals("", changeEvent.getColumnvalues().get(3));
+    }
+
+    @Test
+    public void updateWithoutOldKey() {
+        ChangeEvent changeEvent = scanTransaction("table public.t: UPDATE: id[integer]:1 name[text]:'a b'");
+
+        assertEquals(ChangeEvent.Kind.update, changeEvent.getKind());
+        assertNull(changeEvent.getOldkeys());
+        assertEquals(Arrays.<Object>asList(1, "a b"), changeEvent.getColumnvalues());
+    }
+
+    @Test
+    public void deleteWithoutReplicaIdentity() {
+        ChangeEvent changeEvent = scanTransaction("table public.t: DELETE: (no-tuple-data)");
+
+        assertEquals(ChangeEvent.Kind.delete, changeEvent.getKind());
+        assertNull(changeEvent.getOldkeys());
+        assertNull(changeEvent.getColumnnames());
+    }
+
+    @Test
+    public void transactionWithoutXid() {
+        assertTrue(scanner.scan("BEGIN", listener));
+        assertTrue(scanner.scan("COMMIT (at 2017-10-03 11:22:43.773734+02)", listener));
+
+        Change change = listener.getCurrentChange();
+        assertNull(change.getXid());
+        assertEquals("2017-10-03 11:22:43.773734+02", change.getTimestamp());
+    }
+
+    @Test
+    public void decodeColumnValuesOnAccess() {
+        ChangeEvent changeEvent = scanTransaction(
+                "table public.t: INSERT: id[integer]:7 price[numeric]:12.50 tags[text[]]:'{a,b}'");
+
+        // the unsupported array type fails only if the column value is accessed
+        assertEquals(Arrays.asList("7", "12.50", "{a,b}"), changeEvent.getColumntexts());
+        assertEquals(7, changeEvent.getColumnvalue(0));
+        assertSame(changeEvent.getColumnvalue(1), changeEvent.getColumnvalues().get(1));
+        try {
+            changeEvent.getColumnvalue(2);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("text[]"));
+        }
+    }
+
+    @Test
+    public void rejectUnknownLines() {
+        assertFalse(scanner.scan("table public.t: TRUNCATE: (no-flags)", listener));
+        assertFalse(scanner.scan("table public.t: INSERT: id[integer]:'unterminated", listener));
+        assertFalse(scanner.scan("table public.t: INSERT: id[integer", listener));
+        assertFalse(scanner.scan("BEGIN 12x", listener));
+        assertFalse(scanner.scan("message: transactional: 0 prefix: x, sz: 1 content:y", listener));
+    }
+
+    private ChangeEvent scanTransaction(String dmlLine) {
+        assertTrue(scanner.scan("BEGIN 882", listener));
+        assertTrue(scanner.scan(dmlLine, listener));
+        assertTrue(scanner.scan("COMMIT 882", listener));
+
+        Change change = listener.getCurrentChange();
+        assertEquals(882, change.getXid().intValue());
+        assertEquals(1, change.getChange().size());
+        return change.getChange().get(0);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.pg.cdc.testdecoding;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Christian Tzolov
+ */
+public class TransactionAssemblerTest {
+
+    private static final String INSERT = "table public.t: INSERT: id[integer]:%d";
+
+    @Rule
+    public TemporaryFolder spillDirectory = new TemporaryFolder();
+
+    private TransactionAssembler<Change> assembler;
+
+    @After
+    public void close() {
+        assembler.close();
+    }
+
+    @Test
+    public void parseInCommitOrder() throws Exception {
+        assembler = createAssembler(16, 1024, 600000);
+        List<Future<Change>> transactions = new ArrayList<>();
+        for (int xid = 1; xid <= 20; xid++) {
+            assertNull(assembler.add("BEGIN " + xid));
+            for (int i = 0; i < 100 / xid; i++) {
+                assertNull(assembler.add(String.format(INSERT, i)));
+            }
+            transactions.add(assembler.add("COMMIT " + xid));
+        }
+
+        for (int xid = 1; xid <= 20; xid++) {
+            Change change = transactions.get(xid - 1).get(10, TimeUnit.SECONDS);
+            assertEquals(xid, change.getXid().intValue());
+            assertEquals(100 / xid, change.getChange().size());
+        }
+        assertEquals(0, assembler.getOpenTransactions());
+    }
+
+    @Test
+    public void frameOnCallingThread() throws Exception {
+        assembler = createAssembler(16, 1024, 600000);
+        assertNull(assembler.frame("BEGIN 1"));
+        assertNull(assembler.frame(String.format(INSERT, 1)));
+
+        Change change = assembler.frame("COMMIT 1").call();
+        assertEquals(1, change.getXid().intValue());
+        assertEquals(1, change.getChange().size());
+        assertEquals(0, assembler.getOpenTransactions());
+    }
+
+    @Test
+    public void lostCommit() throws Exception {
+        assembler = createAssembler(1, 1024, 600000);
+        assembler.add("BEGIN 1");
+        assembler.add(String.format(INSERT, 1));
+        // the COMMIT 1 is lost
+        assembler.add("BEGIN 2");
+        assembler.add(String.format(INSERT, 2));
+
+        Change change = assembler.add("COMMIT 2").get(10, TimeUnit.SECONDS);
+        assertEquals(2, change.getXid().intValue());
+        assertEquals(1, change.getChange().size());
+        assertEquals(2, change.getChange().get(0).getColumnvalues().get(0));
+        assertNull(assembler.add("COMMIT 1"));
+        assertEquals(0, assembler.getOpenTransactions());
+    }
+
+    @Test
+    public void lostBegin() throws Exception {
+        assembler = createAssembler(16, 1024, 600000);
+        assertNull(assembler.add(String.format(INSERT, 1)));
+        assertNull(assembler.add("COMMIT 1"));
+        assembler.add("BEGIN 2");
+
+        Change change = assembler.add("COMMIT 2").get(10, TimeUnit.SECONDS);
+        assertEquals(2, change.getXid().intValue());
+        assertEquals(0, change.getChange().size());
+    }
+
+    @Test
+    public void restartResentTransaction() throws Exception {
+        assembler = createAssembler(16, 1024, 600000);
+        assembler.add("BEGIN 1");
+        assembler.add(String.format(INSERT, 1));
+        assembler.add("BEGIN 1");
+        assembler.add(String.format(INSERT, 1));
+
+        assertEquals(1, assembler.add("COMMIT 1").get(10, TimeUnit.SECONDS).getChange().size());
+    }
+
+    @Test
+    public void evictTimedOutTransaction() throws Exception {
+        assembler = createAssembler(16, 1024, 0);
+        assembler.add("BEGIN 1");
+        assembler.add(String.format(INSERT, 1));
+        assembler.add("BEGIN 2");
+
+        assertEquals(1, assembler.getOpenTransactions());
+        assertNull(assembler.add("COMMIT 1"));
+    }
+
+    @Test
+    public void timeoutFromLastLine() throws Exception {
+        assembler = createAssembler(16, 1024, 200);
+        assembler.add("BEGIN 1");
+        // the transaction is older than the timeout, but keeps receiving lines
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(100);
+            assembler.add(String.format(INSERT, i));
+        }
+        assembler.add("BEGIN 2");
+        assembler.add("COMMIT 2");
+
+        assertEquals(4, assembler.add("COMMIT 1").get(10, TimeUnit.SECONDS).getChange().size());
+    }
+
+    @Test
+    public void spillLargeTransaction() throws Exception {
+        assembler = createAssembler(16, 100, 600000);
+        assembler.add("BEGIN 1");
+        for (int i = 0; i < 1000; i++) {
+            assembler.add(String.format(INSERT, i));
+        }
+        assertEquals(1, spillDirectory.getRoot().list().length);
+
+        Change change = assembler.add("COMMIT 1").get(10, TimeUnit.SECONDS);
+        assertEquals(1000, change.getChange().size());
+        assertEquals(999, change.getChange().get(999).getColumnvalues().get(0));
+        assertEquals(0, spillDirectory.getRoot().list().length);
+    }
+
+    @Test
+    public void unsignedTransactionId() {
+        assembler = createAssembler(16, 1024, 600000);
+        assembler.add("BEGIN 4294967295");
+        assembler.add(String.format(INSERT, 1));
+
+        assertNotNull(assembler.add("COMMIT 4294967295"));
+        assertEquals(0, assembler.getOpenTransactions());
+    }
+
+    private TransactionAssembler<Change> createAssembler(int maxOpenTransactions, long maxInMemoryBytes,
+                                                         long transactionTimeout) {
+        return new TransactionAssembler<>(new TransactionAssembler.Handler<Change>() {
+
+            @Override
+            public Change parse(Iterable<String> lines) {
+                ToWal2JsonParser parser = new ToWal2JsonParser();
+                Change change = null;
+                for (String line : lines) {
+                    change = parser.parseLogLine(line);
+                }
+                return change;
+            }
+        }, 4, maxOpenTransactions, maxInMemoryBytes, spillDirectory.getRoot(), transactionTimeout);
+    }
+}
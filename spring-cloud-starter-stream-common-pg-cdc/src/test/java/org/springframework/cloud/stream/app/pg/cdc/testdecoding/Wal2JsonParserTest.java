@@ -13,26 +13,50 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package org.springframework.cloud.stream.app.pg.cdc.decoding.adapter.processor.parser;
+package org.springframework.cloud.stream.app.pg.cdc.testdecoding;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.springframework.cloud.stream.app.pg.cdc.SqlUtils;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.SpillingTransactionBuffer;
 import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
 import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 /**
+ * Runs every fixture through the {@link TestDecodingScanner} and through the ANTLR grammar alone.
+ *
  * @author Christian Tzolov
  */
+@RunWith(Parameterized.class)
 public class Wal2JsonParserTest {
 
+    @Parameterized.Parameters(name = "scan={0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] { { true }, { false } });
+    }
+
+    @Parameterized.Parameter
+    public boolean scan;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private ToWal2JsonParser parser;
 
     @Before
     public void setup() {
-        parser = new ToWal2JsonParser();
+        parser = new ToWal2JsonParser(new SpillingTransactionBuffer(Integer.MAX_VALUE, null, 1), scan);
     }
 
     @Test
@@ -150,6 +174,44 @@ public class Wal2JsonParserTest {
         assertEquals(16, changeEvent.getColumntypes().size());
     }
 
+    @Test
+    public void testParseSpilledTransactionInChunks() {
+        parser = new ToWal2JsonParser(new SpillingTransactionBuffer(2, folder.getRoot(), 1024), scan);
+
+        assertNull(parser.parseLogLine("BEGIN 15228819", 2));
+        for (int i = 0; i < 5; i++) {
+            assertNull(parser.parseLogLine("table a.a: INSERT: id[integer]:" + i + " name[text]:'name " + i + "'", 2));
+        }
+        assertEquals(1, folder.getRoot().list().length);
+
+        Iterator<Change> chunks = parser.parseLogLine("COMMIT 15228819 (at 2016-07-08 19:58:13.532396+02)", 2);
+
+        int id = 0;
+        int chunkCount = 0;
+        while (chunks.hasNext()) {
+            Change chunk = chunks.next();
+            assertEquals(15228819, chunk.getXid().intValue());
+            assertEquals("2016-07-08 19:58:13.532396+02", chunk.getTimestamp());
+            assertTrue(chunk.getChange().size() <= 2);
+            for (ChangeEvent changeEvent : chunk.getChange()) {
+                assertEquals(id, changeEvent.getColumnvalues().get(0));
+                assertEquals("name " + id, changeEvent.getColumnvalues().get(1));
+                id++;
+            }
+            chunkCount++;
+        }
+        assertEquals(5, id);
+        assertEquals(3, chunkCount);
+        // the segment files are deleted once the transaction was read
+        assertEquals(0, folder.getRoot().list().length);
+
+        // an empty transaction is emitted as a single empty chunk
+        parser.parseLogLine("BEGIN 15228820", 2);
+        chunks = parser.parseLogLine("COMMIT 15228820", 2);
+        assertEquals(0, chunks.next().getChange().size());
+        assertFalse(chunks.hasNext());
+    }
+
     @Test
     public void testParseUpdate() {
         parser.parseLogLine("BEGIN 15228819");
@@ -280,6 +342,39 @@ public class Wal2JsonParserTest {
                 "jsonb");
     }
 
+    @Test
+    public void testParseEscapedQuotes() {
+        parser.parseLogLine("BEGIN 15228819");
+        parser.parseLogLine("table \"My Schema\".\"Order \"\"Items\"\"\": INSERT: \"Item Id\"[integer]:7 " +
+                "note[text]:'it''s a '' quote' empty[text]:''");
+
+        Change change = parser.parseLogLine("COMMIT 15228819");
+        assertEquals(1, change.getChange().size());
+
+        ChangeEvent changeEvent = change.getChange().get(0);
+        assertEquals("My Schema", changeEvent.getSchema());
+        assertEquals("Order \"Items\"", changeEvent.getTable());
+        assertEquals(Arrays.asList("Item Id", "note", "empty"), changeEvent.getColumnnames());
+        assertEquals(Arrays.<Object>asList(7, "it's a ' quote", ""), changeEvent.getColumnvalues());
+    }
+
+    @Test
+    public void testParseNewlineDelimitedBatch() {
+        String batch = "BEGIN 1\ntable public.t: INSERT: id[integer]:1 note[text]:'first\nsecond'\n" +
+                "message: transactional: 1 prefix: x, sz: 4 content:it's\n\nCOMMIT 1\nBEGIN 2\nCOMMIT 2\n";
+
+        List<String> lines = ToWal2JsonParser.splitLogLines(batch);
+        assertEquals(6, lines.size());
+        assertEquals("table public.t: INSERT: id[integer]:1 note[text]:'first\nsecond'", lines.get(1));
+        assertEquals("message: transactional: 1 prefix: x, sz: 4 content:it's", lines.get(2));
+
+        parser.parseLogLine(lines.get(0));
+        parser.parseLogLine(lines.get(1));
+        Change change = parser.parseLogLine(lines.get(3));
+        assertEquals(1, change.getXid().intValue());
+        assertEquals("first\nsecond", change.getChange().get(0).getColumnvalues().get(1));
+    }
+
     private void testDeleteWithSpecialType(String logLine, String expectedName, Object expectedValue, String sqlType) {
 
         parser.parseLogLine("BEGIN 15228819");
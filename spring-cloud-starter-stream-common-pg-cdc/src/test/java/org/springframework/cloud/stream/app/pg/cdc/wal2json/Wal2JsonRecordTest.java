@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.wal2json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class Wal2JsonRecordTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void insertToChangeEvent() throws Exception {
+        Wal2JsonRecord record = read("src/test/resources/test_v2_insert.json");
+        assertTrue(record.isDml());
+        assertEquals(Integer.valueOf(1011), record.getXid());
+        assertEquals("0/1677B98", record.getLsn());
+
+        ChangeEvent changeEvent = record.toChangeEvent();
+        assertEquals(ChangeEvent.Kind.insert, changeEvent.getKind());
+        assertEquals("public", changeEvent.getSchema());
+        assertEquals("xpto", changeEvent.getTable());
+        assertEquals(asList("a", "b", "c"), changeEvent.getColumnnames());
+        assertEquals(asList("integer", "boolean", "varchar"), changeEvent.getColumntypes());
+        assertEquals(asList(1, true, "test1"), changeEvent.getColumnvalues());
+        assertEquals(asList("c", "a"), changeEvent.getPknames());
+        assertNull(changeEvent.getOldkeys());
+
+        assertEquals("test1", changeEvent.columnValuesAsMap().get("c"));
+    }
+
+    @Test
+    public void updateToChangeEvent() throws Exception {
+        ChangeEvent changeEvent = read("src/test/resources/test_v2_update.json").toChangeEvent();
+
+        assertEquals(ChangeEvent.Kind.update, changeEvent.getKind());
+        assertEquals(asList("c", "a"), changeEvent.getOldkeys().getKeynames());
+        assertEquals(asList("varchar", "integer"), changeEvent.getOldkeys().getKeytypes());
+        assertEquals(asList("test1", 1), changeEvent.getOldkeys().getKeyvalues());
+    }
+
+    @Test
+    public void transactionRecords() throws Exception {
+        Wal2JsonRecord begin = mapper.readValue(
+                "{\"action\":\"B\",\"xid\":1011,\"lsn\":\"0/1677B98\",\"timestamp\":\"2017-10-03 11:22:43.773734+02\"}",
+                Wal2JsonRecord.class);
+
+        assertEquals(Wal2JsonRecord.BEGIN, begin.getAction());
+        assertEquals("2017-10-03 11:22:43.773734+02", begin.getTimestamp());
+        assertFalse(begin.isDml());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonDmlToChangeEvent() throws Exception {
+        mapper.readValue("{\"action\":\"C\",\"xid\":1011}", Wal2JsonRecord.class).toChangeEvent();
+    }
+
+    private Wal2JsonRecord read(String path) throws IOException {
+        return mapper.readValue(new File(path), Wal2JsonRecord.class);
+    }
+}
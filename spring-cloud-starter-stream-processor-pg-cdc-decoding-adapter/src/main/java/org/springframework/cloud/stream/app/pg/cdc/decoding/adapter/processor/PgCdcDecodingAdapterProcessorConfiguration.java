@@ -16,25 +16,338 @@
 
 package org.springframework.cloud.stream.app.pg.cdc.decoding.adapter.processor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
-import org.springframework.cloud.stream.app.pg.cdc.decoding.adapter.processor.parser.ToWal2JsonParser;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.SpillingTransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.testdecoding.ToWal2JsonParser;
+import org.springframework.cloud.stream.app.pg.cdc.testdecoding.TransactionAssembler;
 import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
 import org.springframework.cloud.stream.messaging.Processor;
-import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.integration.annotation.Splitter;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
+ * Converts the test_decoding lines into {@link Change} messages. The input is either a single line or a batch of
+ * lines (newline-delimited text or a list of lines), parsed by a shared parser that assembles the transactions across
+ * the messages, or a whole transaction framed by the source as a JSON array of lines
+ * (pg.cdc.test-decoding-output=transaction), parsed by a parser of its own. The framed transactions keep no state
+ * across the messages, so the processor can run with many instances and threads.
+ * <p>
+ * When the assembler threads are set, the lines are framed into transactions by transaction id, by a
+ * {@link TransactionAssembler}. The transactions committed within a batch of lines are parsed in parallel on the
+ * assembler threads, while the input thread waits for them and returns them in commit order. A transaction committed
+ * by a single line is parsed on the input thread. Either way the input message is acknowledged only once its
+ * transactions were sent, and a parse failure fails the input message.
+ *
  * @author Christian Tzolov
  */
 @EnableBinding(Processor.class)
 @EnableConfigurationProperties(PgCdcDecodingAdapterProcessorProperties.class)
-public class PgCdcDecodingAdapterProcessorConfiguration {
+public class PgCdcDecodingAdapterProcessorConfiguration implements DisposableBean {
+
+    /**
+     * Same transaction sub-batch headers as set by the PG CDC source.
+     */
+    public static final String XID_HEADER = "pg_cdc_xid";
+
+    public static final String CHUNK_SEQUENCE_HEADER = "pg_cdc_chunk_sequence";
+
+    public static final String LAST_CHUNK_HEADER = "pg_cdc_last_chunk";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final PgCdcDecodingAdapterProcessorProperties properties;
+
+    private final ToWal2JsonParser parser;
+
+    /**
+     * Null to parse the single lines on the input thread.
+     */
+    private final TransactionAssembler<Object> assembler;
+
+    public PgCdcDecodingAdapterProcessorConfiguration(PgCdcDecodingAdapterProcessorProperties properties) {
+        this.properties = properties;
+        this.parser = createParser();
+        this.assembler = (properties.getAssembler().getThreads() > 0) ? createAssembler() : null;
+    }
+
+    /**
+     * @param message Single line, newline-delimited batch of lines or list of lines, as String, byte[] or List payload.
+     *                A JSON array of lines is a framed transaction when it carries the transaction id header, and a
+     *                batch of lines otherwise (e.g. a List payload serialized by the binder).
+     * @return Returns null until a transaction is committed. Then either the whole transaction as a single
+     * {@link Change}, or the sub-batches of the transaction, streamed one by one from the transaction buffer. A batch
+     * of lines returns all the transactions committed within the batch, parsed on demand as they are sent.
+     */
+    @Splitter(inputChannel = Processor.INPUT, outputChannel = Processor.OUTPUT, applySequence = "false")
+    public Object convertToWal2JsonFormat(Message<?> message) {
+        Object input = message.getPayload();
+        if (input instanceof List) {
+            return convertLines(toLines((List<?>) input));
+        }
+        String text = (input instanceof byte[]) ?
+                new String((byte[]) input, StandardCharsets.UTF_8) : (String) input;
+        if (text.startsWith("[")) {
+            List<String> lines = readLines(text);
+            return message.getHeaders().containsKey(XID_HEADER) ?
+                    parseTransaction(lines) : convertLines(lines);
+        }
+        if (text.indexOf('\n') >= 0) {
+            return convertLines(ToWal2JsonParser.splitLogLines(text));
+        }
+        if (this.assembler != null) {
+            // the input waits for every committed transaction anyway, handing it over to the pool gains nothing
+            return parse(this.assembler.frame(text));
+        }
+        return parseLine(this.parser, text);
+    }
 
-    private ToWal2JsonParser parser = new ToWal2JsonParser();
+    private Object convertLines(List<String> lines) {
+        if (this.assembler != null) {
+            return assembleLines(lines.iterator());
+        }
+        return parseLines(lines.iterator());
+    }
+
+    private Iterator<Object> parseLines(final Iterator<String> lines) {
+        return flatten(new Iterator<Object>() {
+
+            @Override
+            public boolean hasNext() {
+                return lines.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return parseLine(parser, lines.next());
+            }
+        });
+    }
+
+    /**
+     * Frames the lines up to maxPendingTransactions committed transactions ahead of the output, so these are parsed
+     * in parallel while the input thread waits for the first one.
+     */
+    private Iterator<Object> assembleLines(final Iterator<String> lines) {
+        final int maxPendingTransactions = Math.max(1, this.properties.getAssembler().getMaxPendingTransactions());
+        final Deque<Future<Object>> pending = new ArrayDeque<>();
+        return flatten(new Iterator<Object>() {
+
+            @Override
+            public boolean hasNext() {
+                while (pending.size() < maxPendingTransactions && lines.hasNext()) {
+                    Future<Object> transaction = assembler.add(lines.next());
+                    if (transaction != null) {
+                        pending.add(transaction);
+                    }
+                }
+                return !pending.isEmpty();
+            }
 
-    @ServiceActivator(inputChannel = Processor.INPUT, outputChannel = Processor.OUTPUT)
-    public Change convertToWal2JsonFormat(String input) {
-        return parser.parseLogLine(input);
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return await(pending.poll());
+            }
+        });
     }
 
+    /**
+     * @return Returns the parsed transaction, or null if none was committed.
+     */
+    private static Object await(Future<Object> transaction) {
+        if (transaction == null) {
+            return null;
+        }
+        try {
+            return transaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing a test_decoding transaction", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to parse a test_decoding transaction", e.getCause());
+        }
+    }
+
+    /**
+     * @return Returns the parsed transaction, or null if none was committed.
+     */
+    private static Object parse(Callable<Object> transaction) {
+        if (transaction == null) {
+            return null;
+        }
+        try {
+            return transaction.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to parse a test_decoding transaction", e);
+        }
+    }
+
+    /**
+     * Flattens the parse results: null until a transaction is committed, then a {@link Change} or the iterator of its
+     * sub-batches. Produces the next result only once all the output of the previous one was sent, so the
+     * sub-batches of a transaction are read from the transaction buffer before the next transaction releases it.
+     */
+    private static Iterator<Object> flatten(final Iterator<Object> results) {
+        return new Iterator<Object>() {
+
+            private Iterator<?> chunks;
+
+            private Object next;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null) {
+                    if (this.chunks != null && this.chunks.hasNext()) {
+                        this.next = this.chunks.next();
+                    } else if (results.hasNext()) {
+                        Object result = results.next();
+                        if (result instanceof Iterator) {
+                            this.chunks = (Iterator<?>) result;
+                        } else {
+                            this.next = result;
+                        }
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object result = this.next;
+                this.next = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * @return Returns null until the transaction is committed, then either the whole transaction as a single
+     * {@link Change} or its sub-batch messages.
+     */
+    private Object parseLine(ToWal2JsonParser lineParser, String line) {
+        if (this.properties.getChunkSize() <= 0) {
+            return lineParser.parseLogLine(line);
+        }
+        return toChunkMessages(lineParser.parseLogLine(line, this.properties.getChunkSize()));
+    }
+
+    /**
+     * @param input JSON array of lines.
+     */
+    private List<String> readLines(String input) {
+        try {
+            return Arrays.asList(this.mapper.readValue(input, String[].class));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid JSON array of test_decoding lines: " + input, e);
+        }
+    }
+
+    /**
+     * @param lines All lines of a transaction, from BEGIN to COMMIT.
+     * @return Returns the transaction as a single {@link Change}, or its sub-batch messages.
+     * @throws IllegalArgumentException if a line before the last one commits a transaction.
+     */
+    private Object parseTransaction(Iterable<String> lines) {
+        ToWal2JsonParser transactionParser = createParser();
+        Iterator<String> iterator = lines.iterator();
+        String line = "";
+        while (iterator.hasNext()) {
+            line = iterator.next();
+            if (iterator.hasNext() && transactionParser.parseLogLine(line) != null) {
+                throw new IllegalArgumentException("The framed test_decoding transaction holds more than one " +
+                        "transaction, committed by: " + line);
+            }
+        }
+        return parseLine(transactionParser, line);
+    }
+
+    private static List<String> toLines(List<?> input) {
+        String[] lines = new String[input.size()];
+        for (int i = 0; i < lines.length; i++) {
+            Object line = input.get(i);
+            lines[i] = (line instanceof byte[]) ? new String((byte[]) line, StandardCharsets.UTF_8) : (String) line;
+        }
+        return Arrays.asList(lines);
+    }
+
+    private ToWal2JsonParser createParser() {
+        return new ToWal2JsonParser(SpillingTransactionBuffer.forChunkSize(this.properties.getChunkSize(),
+                this.properties.getMaxInMemoryEvents(), getSpillDirectory(), this.properties.getSegmentSize()));
+    }
+
+    private File getSpillDirectory() {
+        return StringUtils.hasText(this.properties.getSpillDirectory()) ?
+                new File(this.properties.getSpillDirectory()) : null;
+    }
+
+    private TransactionAssembler<Object> createAssembler() {
+        PgCdcDecodingAdapterProcessorProperties.Assembler assembler = this.properties.getAssembler();
+        return new TransactionAssembler<>(new TransactionAssembler.Handler<Object>() {
+
+            @Override
+            public Object parse(Iterable<String> lines) {
+                return parseTransaction(lines);
+            }
+        }, assembler.getThreads(), assembler.getMaxOpenTransactions(), assembler.getMaxInMemoryBytes(),
+                getSpillDirectory(), assembler.getTransactionTimeout());
+    }
+
+    private Iterator<Message<Change>> toChunkMessages(final Iterator<Change> chunks) {
+        if (chunks == null) {
+            return null;
+        }
+        return new Iterator<Message<Change>>() {
+
+            private int sequence;
+
+            @Override
+            public boolean hasNext() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public Message<Change> next() {
+                Change chunk = chunks.next();
+                return MessageBuilder.withPayload(chunk)
+                        .setHeader(XID_HEADER, chunk.getXid())
+                        .setHeader(CHUNK_SEQUENCE_HEADER, this.sequence++)
+                        .setHeader(LAST_CHUNK_HEADER, !chunks.hasNext())
+                        .build();
+            }
+        };
+    }
+
+    @Override
+    public void destroy() {
+        if (this.assembler != null) {
+            this.assembler.close();
+        }
+    }
 }
@@ -23,4 +23,140 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  */
 @ConfigurationProperties("pg.cdc.decoding.adapter")
 public class PgCdcDecodingAdapterProcessorProperties {
+
+    /**
+     * Maximum number of change events in a transaction sub-batch. Large transactions are emitted as a sequence of
+     * sub-batches, read from the (possibly spilled) transaction buffer. 0 emits every transaction as a single
+     * message, which has to fit in the heap.
+     */
+    private int chunkSize = 0;
+
+    /**
+     * Number of change events of a transaction kept on-heap, when the transactions are emitted in sub-batches. The
+     * further events are spilled into temporary segment files.
+     */
+    private int maxInMemoryEvents = 10000;
+
+    /**
+     * Directory of the spilled transaction segment files. Defaults to the java.io.tmpdir directory.
+     */
+    private String spillDirectory;
+
+    /**
+     * Size (in bytes) of a spilled transaction segment file.
+     */
+    private int segmentSize = 64 * 1024 * 1024;
+
+    private Assembler assembler = new Assembler();
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getMaxInMemoryEvents() {
+        return maxInMemoryEvents;
+    }
+
+    public void setMaxInMemoryEvents(int maxInMemoryEvents) {
+        this.maxInMemoryEvents = maxInMemoryEvents;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public Assembler getAssembler() {
+        return assembler;
+    }
+
+    public void setAssembler(Assembler assembler) {
+        this.assembler = assembler;
+    }
+
+    public static class Assembler {
+
+        /**
+         * Number of threads parsing the committed transactions of the batched input. When set, the lines are framed
+         * by transaction id and the single line input is parsed on the input thread. When set to 0, the lines are
+         * parsed on the input thread by a single shared parser.
+         */
+        private int threads = 0;
+
+        /**
+         * Maximum number of open transactions. The oldest transactions above are evicted as orphans.
+         */
+        private int maxOpenTransactions = 16;
+
+        /**
+         * Maximum number of committed transactions of a batch parsed ahead of the output.
+         */
+        private int maxPendingTransactions = 64;
+
+        /**
+         * Size (in bytes) of the lines of an open transaction kept on-heap. The further lines are spilled into a temp
+         * file of the spill directory.
+         */
+        private long maxInMemoryBytes = 1048576;
+
+        /**
+         * Time (in milliseconds) without a line after which a transaction that is not committed is evicted as orphan.
+         */
+        private long transactionTimeout = 600000;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getMaxOpenTransactions() {
+            return maxOpenTransactions;
+        }
+
+        public void setMaxOpenTransactions(int maxOpenTransactions) {
+            this.maxOpenTransactions = maxOpenTransactions;
+        }
+
+        public int getMaxPendingTransactions() {
+            return maxPendingTransactions;
+        }
+
+        public void setMaxPendingTransactions(int maxPendingTransactions) {
+            this.maxPendingTransactions = maxPendingTransactions;
+        }
+
+        public long getMaxInMemoryBytes() {
+            return maxInMemoryBytes;
+        }
+
+        public void setMaxInMemoryBytes(long maxInMemoryBytes) {
+            this.maxInMemoryBytes = maxInMemoryBytes;
+        }
+
+        public long getTransactionTimeout() {
+            return transactionTimeout;
+        }
+
+        public void setTransactionTimeout(long transactionTimeout) {
+            this.transactionTimeout = transactionTimeout;
+        }
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.decoding.adapter.processor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.messaging.Processor;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.concurrent.BlockingQueue;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Christian Tzolov
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+public abstract class PgCdcDecodingAdapterProcessorIntegrationTests {
+
+    private static final String INSERT = "table public.t: INSERT: id[integer]:%d";
+
+    @Autowired
+    protected Processor processor;
+
+    @Autowired
+    protected MessageCollector messageCollector;
+
+    @TestPropertySource(properties = {"pg.cdc.decoding.adapter.assembler.threads=2",
+            "pg.cdc.decoding.adapter.assembler.maxInMemoryBytes=64"})
+    public static class AssemblerTests extends PgCdcDecodingAdapterProcessorIntegrationTests {
+
+        @Test
+        public void sendSingleLinesFromInputThread() {
+            BlockingQueue<Message<?>> output = messageCollector.forChannel(processor.output());
+
+            processor.input().send(MessageBuilder.withPayload("BEGIN 1").build());
+            for (int i = 0; i < 10; i++) {
+                processor.input().send(MessageBuilder.withPayload(String.format(INSERT, i)).build());
+            }
+            assertNull(output.poll());
+
+            processor.input().send(MessageBuilder.withPayload("COMMIT 1").setHeader("foo", "bar").build());
+            // the transaction is sent before the input message returns
+            Message<?> received = output.poll();
+            Change change = (Change) received.getPayload();
+            assertEquals(1, change.getXid().intValue());
+            assertEquals(10, change.getChange().size());
+            assertEquals("bar", received.getHeaders().get("foo"));
+        }
+
+        @Test
+        public void sendBatchInCommitOrder() {
+            BlockingQueue<Message<?>> output = messageCollector.forChannel(processor.output());
+
+            StringBuilder batch = new StringBuilder();
+            for (int xid = 1; xid <= 10; xid++) {
+                batch.append("BEGIN ").append(xid).append('\n');
+                for (int i = 0; i < xid; i++) {
+                    batch.append(String.format(INSERT, i)).append('\n');
+                }
+                batch.append("COMMIT ").append(xid).append('\n');
+            }
+            processor.input().send(MessageBuilder.withPayload(batch.toString()).build());
+
+            for (int xid = 1; xid <= 10; xid++) {
+                Change change = (Change) output.poll().getPayload();
+                assertEquals(xid, change.getXid().intValue());
+                assertEquals(xid, change.getChange().size());
+            }
+            assertNull(output.poll());
+        }
+    }
+
+    public static class DefaultTests extends PgCdcDecodingAdapterProcessorIntegrationTests {
+
+        @Test
+        public void sendEveryTransactionOfListBatch() {
+            processor.input().send(MessageBuilder.withPayload(asList(
+                    "BEGIN 1", String.format(INSERT, 1), "COMMIT 1",
+                    "BEGIN 2", String.format(INSERT, 2), String.format(INSERT, 3), "COMMIT 2")).build());
+
+            assertTransactions();
+        }
+
+        @Test
+        public void sendEveryTransactionOfJsonArrayBatch() {
+            processor.input().send(MessageBuilder.withPayload(("[\"BEGIN 1\",\"" + String.format(INSERT, 1)
+                    + "\",\"COMMIT 1\",\"BEGIN 2\",\"" + String.format(INSERT, 2) + "\",\""
+                    + String.format(INSERT, 3) + "\",\"COMMIT 2\"]").getBytes()).build());
+
+            assertTransactions();
+        }
+
+        @Test
+        public void sendFramedTransaction() {
+            BlockingQueue<Message<?>> output = messageCollector.forChannel(processor.output());
+
+            processor.input().send(MessageBuilder.withPayload("[\"BEGIN 1\",\"" + String.format(INSERT, 1)
+                    + "\",\"COMMIT 1\"]").setHeader(PgCdcDecodingAdapterProcessorConfiguration.XID_HEADER, 1L)
+                    .build());
+
+            Change change = (Change) output.poll().getPayload();
+            assertEquals(1, change.getXid().intValue());
+            assertEquals(1, change.getChange().size());
+            assertNull(output.poll());
+        }
+
+        @Test(expected = MessagingException.class)
+        public void rejectFramedTransactionCommittedEarly() {
+            processor.input().send(MessageBuilder.withPayload("[\"BEGIN 1\",\"COMMIT 1\",\"BEGIN 2\",\"COMMIT 2\"]")
+                    .setHeader(PgCdcDecodingAdapterProcessorConfiguration.XID_HEADER, 1L).build());
+        }
+
+        private void assertTransactions() {
+            BlockingQueue<Message<?>> output = messageCollector.forChannel(processor.output());
+            for (int xid = 1; xid <= 2; xid++) {
+                Change change = (Change) output.poll().getPayload();
+                assertEquals(xid, change.getXid().intValue());
+                assertEquals(xid, change.getChange().size());
+            }
+            assertNull(output.poll());
+        }
+    }
+
+    @SpringBootApplication
+    public static class PgCdcDecodingAdapterProcessorApplication {
+
+    }
+}
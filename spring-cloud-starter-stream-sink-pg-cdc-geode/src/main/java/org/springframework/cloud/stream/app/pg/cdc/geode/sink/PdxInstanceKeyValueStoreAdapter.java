@@ -17,12 +17,18 @@
 package org.springframework.cloud.stream.app.pg.cdc.geode.sink;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.geode.pdx.JSONFormatter;
+import org.apache.geode.pdx.PdxInstance;
 import org.springframework.cloud.stream.app.pg.cdc.keyvalue.KeyValueAdapter;
 import org.springframework.cloud.stream.app.pg.cdc.keyvalue.PrimaryKeyColumnIndices;
 import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
 
+import java.io.IOException;
+import java.util.List;
+
 /**
  * @author Christian Tzolov
  */
@@ -48,4 +54,28 @@ public class PdxInstanceKeyValueStoreAdapter extends KeyValueAdapter {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * @param previous         Value stored before the update, or null.
+     * @param value            Value of the update, without the unchanged columns.
+     * @param unchangedColumns Columns whose values were not sent with the update.
+     * @return Returns the update value holding the previous values of the unchanged columns.
+     */
+    public PdxInstance keepUnchangedColumns(PdxInstance previous, PdxInstance value, List<String> unchangedColumns) {
+        if (previous == null) {
+            return value;
+        }
+        try {
+            ObjectNode merged = (ObjectNode) mapper.readTree(JSONFormatter.toJSON(value));
+            JsonNode previousNode = mapper.readTree(JSONFormatter.toJSON(previous));
+            for (String column : unchangedColumns) {
+                if (previousNode.has(column)) {
+                    merged.set(column, previousNode.get(column));
+                }
+            }
+            return JSONFormatter.fromJSON(mapper.writeValueAsString(merged));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -59,9 +59,17 @@ public class PgCdcGeodeSinkService {
                 region.remove(operation.getKey());
                 break;
             case insert:
-            case update:
                 region.put(operation.getKey(), (PdxInstance) operation.getValue());
                 break;
+            case update:
+                PdxInstance value = (PdxInstance) operation.getValue();
+                if (changeEvent.getUnchangedcolumns() != null) {
+                    // the unchanged TOASTed values were not sent, the put would erase them
+                    value = keyValueStoreAdapter.keepUnchangedColumns(region.get(operation.getKey()), value,
+                            changeEvent.getUnchangedcolumns());
+                }
+                region.put(operation.getKey(), value);
+                break;
             default:
                 throw new RuntimeException("Unsupported change event type:" + changeEvent.getKind());
         }
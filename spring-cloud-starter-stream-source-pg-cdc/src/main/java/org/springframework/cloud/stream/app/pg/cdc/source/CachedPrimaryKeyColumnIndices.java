@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.PGProperty;
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.KeyValueAdapter;
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.PgMetaDataPrimaryKeyColumnIndices;
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.PrimaryKeyColumnIndices;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the primary key column indices of the tables from the database metadata, over a connection of its own, and
+ * caches them by table. Shared by the {@link ChangeEventFilter} and the {@link ChangeEventSplitter}, for the events
+ * that don't carry their primary key column names.
+ *
+ * @author Christian Tzolov
+ */
+public class CachedPrimaryKeyColumnIndices implements PrimaryKeyColumnIndices {
+
+    private static final Log LOG = LogFactory.getLog(CachedPrimaryKeyColumnIndices.class);
+
+    private final PgCdcSourceProperties properties;
+
+    private final Map<String, List<Integer>> primaryKeyColumnIndices = new ConcurrentHashMap<>();
+
+    private Connection connection;
+
+    public CachedPrimaryKeyColumnIndices(PgCdcSourceProperties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public List<Integer> getPrimaryKeyColumnIndices(String catalog, String schema, String table) {
+        String dataset = schema + KeyValueAdapter.DELIMITER + table;
+        List<Integer> indices = this.primaryKeyColumnIndices.get(dataset);
+        if (indices == null) {
+            synchronized (this) {
+                try {
+                    indices = new PgMetaDataPrimaryKeyColumnIndices(connection().getMetaData())
+                            .getPrimaryKeyColumnIndices(catalog, schema, table);
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Failed to read the primary key of " + dataset, e);
+                }
+            }
+            this.primaryKeyColumnIndices.put(dataset, indices);
+        }
+        return indices;
+    }
+
+    private Connection connection() throws SQLException {
+        if (this.connection == null || this.connection.isClosed()) {
+            Properties props = new Properties();
+            PGProperty.USER.set(props, this.properties.getJdbcUser());
+            PGProperty.PASSWORD.set(props, this.properties.getJdbcPassword());
+            this.connection = DriverManager.getConnection(this.properties.getJdbcUrl(), props);
+        }
+        return this.connection;
+    }
+
+    /**
+     * Closes the connection used to read the primary key metadata.
+     */
+    public synchronized void close() {
+        if (this.connection != null) {
+            try {
+                this.connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Unable to close the metadata connection!", e);
+            }
+        }
+    }
+}
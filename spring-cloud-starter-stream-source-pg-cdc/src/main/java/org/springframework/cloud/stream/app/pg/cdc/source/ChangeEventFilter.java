@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.PrimaryKeyColumnIndices;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies the {@link PgCdcSourceProperties.Filter} rules to the decoded {@link Change} messages, before they are sent
+ * to the output.
+ * <p>
+ * The change events of the excluded tables and operations are dropped, and the excluded columns are removed from the
+ * remaining events. The primary key columns are always kept and their names are set on the projected events, so the
+ * keys are resolved by name rather than by the column indices of the table. The kept text values stay undecoded.
+ * The events of a slot group are further limited to the group's tables, when the output plugin doesn't filter them.
+ * The table patterns follow the wal2json 'add-tables' syntax, where '*' matches any schema or any table (e.g.
+ * *.audit or billing.*). A message left without events is dropped, unless it is the last sub-batch of a
+ * transaction. The messages of the other payload types, e.g. the raw wal2json JSON, are sent as-is.
+ *
+ * @author Christian Tzolov
+ */
+public class ChangeEventFilter {
+
+    private static final String ANY = "*";
+
+    private final List<String[]> includeTables;
+
+    private final List<String[]> excludeTables;
+
+    /**
+     * Tables of the slot group, streamed in addition to the include and exclude rules.
+     */
+    private final List<String[]> slotTables;
+
+    private final Set<ChangeEvent.Kind> operations;
+
+    /**
+     * Included columns by schema qualified table name.
+     */
+    private final Map<String, Set<String>> includeColumns;
+
+    /**
+     * Excluded columns by schema qualified table name.
+     */
+    private final Map<String, Set<String>> excludeColumns;
+
+    private final PrimaryKeyColumnIndices primaryKeyColumnIndices;
+
+    /**
+     * @param filter                  Filter rules.
+     * @param primaryKeyColumnIndices Primary key column indices of the projected events without primary key column
+     *                                names. Can be null if no column is filtered.
+     */
+    public ChangeEventFilter(PgCdcSourceProperties.Filter filter, PrimaryKeyColumnIndices primaryKeyColumnIndices) {
+        this(filter, null, primaryKeyColumnIndices);
+    }
+
+    /**
+     * @param filter                  Filter rules.
+     * @param slotTables              Comma separated tables of the slot group, or null to accept all tables.
+     * @param primaryKeyColumnIndices Primary key column indices of the projected events without primary key column
+     *                                names. Can be null if no column is filtered.
+     */
+    public ChangeEventFilter(PgCdcSourceProperties.Filter filter, String slotTables,
+                             PrimaryKeyColumnIndices primaryKeyColumnIndices) {
+        this.primaryKeyColumnIndices = primaryKeyColumnIndices;
+        this.slotTables = parseTables(slotTables);
+        this.includeTables = parseTables(filter.getIncludeTables());
+        this.excludeTables = parseTables(filter.getExcludeTables());
+        this.operations = filter.getOperations().isEmpty() ? EnumSet.allOf(ChangeEvent.Kind.class) :
+                EnumSet.copyOf(filter.getOperations());
+        this.includeColumns = parseColumns(filter.getIncludeColumns());
+        this.excludeColumns = parseColumns(filter.getExcludeColumns());
+    }
+
+    /**
+     * @param messages Messages to filter.
+     * @return Returns the filtered messages.
+     */
+    public List<Message<?>> filter(List<Message<?>> messages) {
+        List<Message<?>> result = new ArrayList<>(messages.size());
+        for (Message<?> message : messages) {
+            Message<?> filtered = filter(message);
+            if (filtered != null) {
+                result.add(filtered);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param message Message to filter.
+     * @return Returns the filtered message, or null if it must not be sent.
+     */
+    public Message<?> filter(Message<?> message) {
+        if (!(message.getPayload() instanceof Change)) {
+            return message;
+        }
+
+        Change change = (Change) message.getPayload();
+        if (change.getChange() == null || change.getChange().isEmpty()) {
+            return message;
+        }
+
+        boolean modified = false;
+        List<ChangeEvent> events = new ArrayList<>(change.getChange().size());
+        for (ChangeEvent changeEvent : change.getChange()) {
+            if (!accept(changeEvent)) {
+                modified = true;
+                continue;
+            }
+            ChangeEvent projected = project(changeEvent);
+            modified |= (projected != changeEvent);
+            events.add(projected);
+        }
+
+        if (!modified) {
+            return message;
+        }
+        if (events.isEmpty() && !Boolean.TRUE.equals(message.getHeaders().get(PgCdcHeaders.LAST_CHUNK))) {
+            return null;
+        }
+
+        Change filtered = new Change();
+        filtered.setXid(change.getXid());
+        filtered.setNextlsn(change.getNextlsn());
+        filtered.setTimestamp(change.getTimestamp());
+        filtered.setChange(events);
+        return MessageBuilder.withPayload(filtered).copyHeaders(message.getHeaders()).build();
+    }
+
+    private boolean accept(ChangeEvent changeEvent) {
+        if (changeEvent.getKind() != null && !this.operations.contains(changeEvent.getKind())) {
+            return false;
+        }
+        if (!this.slotTables.isEmpty() && !matches(this.slotTables, changeEvent)) {
+            return false;
+        }
+        if (!this.includeTables.isEmpty() && !matches(this.includeTables, changeEvent)) {
+            return false;
+        }
+        return !matches(this.excludeTables, changeEvent);
+    }
+
+    /**
+     * @return Returns the change event without the excluded columns, or the same instance if no column is excluded.
+     */
+    private ChangeEvent project(ChangeEvent changeEvent) {
+        if (changeEvent.getColumnnames() == null
+                || (this.includeColumns.isEmpty() && this.excludeColumns.isEmpty())) {
+            return changeEvent;
+        }
+
+        String table = changeEvent.getSchema() + "." + changeEvent.getTable();
+        Set<String> included = this.includeColumns.get(table);
+        Set<String> excluded = this.excludeColumns.get(table);
+        if (included == null && excluded == null) {
+            return changeEvent;
+        }
+
+        List<String> keyNames = getPrimaryKeyNames(changeEvent);
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < changeEvent.getColumnnames().size(); i++) {
+            String name = changeEvent.getColumnnames().get(i);
+            if (keyNames.contains(name) || ((included == null || included.contains(name))
+                    && (excluded == null || !excluded.contains(name)))) {
+                indices.add(i);
+            }
+        }
+        if (indices.size() == changeEvent.getColumnnames().size()) {
+            return changeEvent;
+        }
+
+        ChangeEvent projected = changeEvent.selectColumns(indices);
+        if (!keyNames.isEmpty()) {
+            projected.setPknames(keyNames);
+        }
+        return projected;
+    }
+
+    /**
+     * @return Returns the primary key column names carried by the event, or else read from the table metadata.
+     */
+    private List<String> getPrimaryKeyNames(ChangeEvent changeEvent) {
+        if (changeEvent.getPknames() != null && !changeEvent.getPknames().isEmpty()) {
+            return changeEvent.getPknames();
+        }
+        if (this.primaryKeyColumnIndices == null) {
+            throw new IllegalStateException("Unknown primary key of " + changeEvent.getSchema() + "."
+                    + changeEvent.getTable());
+        }
+        List<Integer> indices = this.primaryKeyColumnIndices.getPrimaryKeyColumnIndices(null,
+                changeEvent.getSchema(), changeEvent.getTable());
+        List<String> names = new ArrayList<>(indices.size());
+        for (int index : indices) {
+            names.add(changeEvent.getColumnnames().get(index));
+        }
+        return names;
+    }
+
+    private static boolean matches(List<String[]> patterns, ChangeEvent changeEvent) {
+        for (String[] pattern : patterns) {
+            if ((ANY.equals(pattern[0]) || pattern[0].equals(changeEvent.getSchema()))
+                    && (ANY.equals(pattern[1]) || pattern[1].equals(changeEvent.getTable()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a comma separated list of schema.table patterns.
+     */
+    private static List<String[]> parseTables(String tables) {
+        List<String[]> patterns = new ArrayList<>();
+        for (String table : StringUtils.commaDelimitedListToStringArray(tables)) {
+            table = table.trim();
+            if (table.isEmpty()) {
+                continue;
+            }
+            int dot = table.indexOf('.');
+            if (dot < 0) {
+                throw new IllegalArgumentException("The filter table must be schema qualified: " + table);
+            }
+            patterns.add(new String[]{table.substring(0, dot), table.substring(dot + 1)});
+        }
+        return patterns;
+    }
+
+    /**
+     * Parses a comma separated list of schema.table.column names into column name sets by schema.table.
+     */
+    private static Map<String, Set<String>> parseColumns(String columns) {
+        Map<String, Set<String>> columnsByTable = new HashMap<>();
+        for (String column : StringUtils.commaDelimitedListToStringArray(columns)) {
+            column = column.trim();
+            if (column.isEmpty()) {
+                continue;
+            }
+            int dot = column.lastIndexOf('.');
+            if (dot < 0) {
+                throw new IllegalArgumentException("The filter column must be table qualified: " + column);
+            }
+            String table = column.substring(0, dot);
+            Set<String> tableColumns = columnsByTable.get(table);
+            if (tableColumns == null) {
+                tableColumns = new HashSet<>();
+                columnsByTable.put(table, tableColumns);
+            }
+            tableColumns.add(column.substring(dot + 1));
+        }
+        return columnsByTable;
+    }
+}
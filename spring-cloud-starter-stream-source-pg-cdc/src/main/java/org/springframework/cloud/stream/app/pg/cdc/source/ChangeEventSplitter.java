@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.KeyValueAdapter;
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.PrimaryKeyColumnIndices;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits the decoded {@link Change} messages into one message per {@link ChangeEvent}, so the binder can partition
+ * the events by key and scaled out sinks still apply the changes of a row in order.
+ * <p>
+ * Every event message carries the dataset name, a stable hash of the event key and the LSN of its transaction as
+ * headers (see {@link PgCdcHeaders#DATASET}, {@link PgCdcHeaders#KEY_HASH} and {@link PgCdcHeaders#TRANSACTION_LSN}).
+ * The dataset name and key are computed like the sinks do, with the {@link KeyValueAdapter}: the update and delete
+ * keys are taken from the old keys, the insert keys from the primary key columns. When the event doesn't carry the
+ * primary key column names, the primary key column indices are read from the database metadata. All events
+ * of a table without primary key get the same key hash.
+ * <p>
+ * The transaction sub-batch headers are dropped, as the events of a transaction are spread over the partitions.
+ *
+ * @author Christian Tzolov
+ */
+public class ChangeEventSplitter {
+
+    private final KeyValueAdapter keyValueAdapter;
+
+    /**
+     * @param primaryKeyColumnIndices Primary key column indices of the events without primary key column names.
+     */
+    public ChangeEventSplitter(PrimaryKeyColumnIndices primaryKeyColumnIndices) {
+        this.keyValueAdapter = new KeyValueAdapter(primaryKeyColumnIndices);
+    }
+
+    /**
+     * @param messages Messages to split.
+     * @return Returns one message per change event. The messages of the other payload types are returned as-is.
+     */
+    public List<Message<?>> split(List<Message<?>> messages) {
+        List<Message<?>> result = new ArrayList<>();
+        for (Message<?> message : messages) {
+            if (!(message.getPayload() instanceof Change)) {
+                result.add(message);
+                continue;
+            }
+            Change change = (Change) message.getPayload();
+            if (change.getChange() == null) {
+                continue;
+            }
+            for (ChangeEvent changeEvent : change.getChange()) {
+                result.add(toMessage(message, change, changeEvent));
+            }
+        }
+        return result;
+    }
+
+    private Message<?> toMessage(Message<?> message, Change change, ChangeEvent changeEvent) {
+        Change eventChange = new Change();
+        eventChange.setXid(change.getXid());
+        eventChange.setNextlsn(change.getNextlsn());
+        eventChange.setTimestamp(change.getTimestamp());
+        eventChange.setChange(Collections.singletonList(changeEvent));
+
+        MessageBuilder<Change> builder = MessageBuilder.withPayload(eventChange)
+                .copyHeaders(message.getHeaders())
+                .removeHeaders(PgCdcHeaders.CHUNK_SEQUENCE, PgCdcHeaders.LAST_CHUNK)
+                .setHeader(PgCdcHeaders.DATASET, this.keyValueAdapter.getDatasetName(changeEvent))
+                .setHeader(PgCdcHeaders.KEY_HASH, this.keyValueAdapter.getKey(changeEvent).hashCode());
+        if (change.getNextlsn() != null) {
+            builder.setHeader(PgCdcHeaders.TRANSACTION_LSN, change.getNextlsn());
+        }
+        return builder.build();
+    }
+}
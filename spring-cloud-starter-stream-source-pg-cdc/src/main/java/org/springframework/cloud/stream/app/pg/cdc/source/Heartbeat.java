@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.StringUtils;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes a record to the WAL, so the confirmed LSN of the replication slots keeps moving while the
+ * streamed tables are idle. Otherwise the server retains all WAL written by the other tables and databases since the
+ * last streamed change.
+ * <p>
+ * By default the heartbeat is a non-transactional 'pg-cdc-heartbeat' logical decoding message, written with
+ * pg_logical_emit_message. It is decoded as a {@link LogicalMessage} addressed to the source: the producer confirms
+ * its LSN, which advances the flushed LSN, and never sends it to the output. A message is decoded by every slot of
+ * the database, so one heartbeat serves all slot groups.
+ * <p>
+ * When an actionQuery is set, it is executed instead, e.g. an update of a heartbeat table. Its changes are streamed
+ * like any other change, unless the table is excluded by the table filter.
+ *
+ * @author Christian Tzolov
+ */
+public class Heartbeat {
+
+    private static final Log LOG = LogFactory.getLog(Heartbeat.class);
+
+    public static final String PREFIX = LogicalMessage.SOURCE_PREFIX + "heartbeat";
+
+    private static final String EMIT_MESSAGE_QUERY = "SELECT pg_logical_emit_message(false, ?, ?)";
+
+    private final PgCdcSourceProperties properties;
+
+    private ScheduledExecutorService scheduler;
+
+    private Connection connection;
+
+    public Heartbeat(PgCdcSourceProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Starts writing the heartbeats every heartbeat interval.
+     */
+    public synchronized void start() {
+        if (this.scheduler != null) {
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pg-cdc-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = this.properties.getHeartbeat().getInterval();
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                beat();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops writing the heartbeats and closes the connection.
+     */
+    public synchronized void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        closeConnection();
+    }
+
+    private void beat() {
+        try {
+            String actionQuery = this.properties.getHeartbeat().getActionQuery();
+            if (StringUtils.hasText(actionQuery)) {
+                try (Statement statement = connection().createStatement()) {
+                    statement.execute(actionQuery);
+                }
+            } else {
+                try (PreparedStatement statement = connection().prepareStatement(EMIT_MESSAGE_QUERY)) {
+                    statement.setString(1, PREFIX);
+                    statement.setString(2, String.valueOf(System.currentTimeMillis()));
+                    statement.executeQuery().close();
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warn("Failed to write the heartbeat", e);
+            closeConnection();
+        }
+    }
+
+    private synchronized Connection connection() throws SQLException {
+        if (this.connection == null) {
+            Properties props = new Properties();
+            props.setProperty("user", this.properties.getJdbcUser());
+            props.setProperty("password", this.properties.getJdbcPassword());
+            this.connection = DriverManager.getConnection(this.properties.getJdbcUrl(), props);
+        }
+        return this.connection;
+    }
+
+    private synchronized void closeConnection() {
+        if (this.connection != null) {
+            try {
+                this.connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Unable to close the heartbeat connection!", e);
+            }
+            this.connection = null;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.SqlUtils;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Re-reads whole tables on demand, in primary key ordered chunks, while the replication stream keeps flowing.
+ * <p>
+ * A snapshot is requested by writing a signal to the WAL:
+ * <pre>
+ * SELECT pg_logical_emit_message(false, 'pg-cdc-snapshot', 'public.orders,public.items');
+ * </pre>
+ * Every chunk is read between a low and a high watermark, written to the WAL with pg_logical_emit_message just before
+ * and after the chunk query. When the low watermark is streamed back, every change of a chunk row that follows it in
+ * the stream, up to the high watermark, is newer than or as new as the row read by the query, and the row is dropped
+ * from the chunk. When the high watermark is streamed back, the remaining chunk rows are emitted as insert
+ * {@link ChangeEvent}s, in {@link Change} messages of at most chunkSize events, and the next chunk is read. The stream
+ * is never paused and the emitted rows never overwrite a newer streamed change.
+ * <p>
+ * The signal is confirmed as soon as it is consumed, so the slot keeps no WAL for the snapshot. When a progress file is
+ * set, the pending tables and the primary key the chunk in progress is read from are saved to it, once the rows of the
+ * previous chunk were sent. A snapshot interrupted by a restart resumes from the saved chunk, and one interrupted by a
+ * reconnect from the chunk in progress. The tables without primary key are skipped.
+ * <p>
+ * Used from the reader thread only.
+ *
+ * @author Christian Tzolov
+ */
+public class IncrementalSnapshot {
+
+    private static final Log LOG = LogFactory.getLog(IncrementalSnapshot.class);
+
+    public static final String SIGNAL_PREFIX = LogicalMessage.SOURCE_PREFIX + "snapshot";
+
+    public static final String WATERMARK_PREFIX = LogicalMessage.SOURCE_PREFIX + "watermark";
+
+    private static final String EMIT_MESSAGE_QUERY = "SELECT pg_logical_emit_message(false, ?, ?)";
+
+    private static final String LOW = "low:";
+
+    private static final String HIGH = "high:";
+
+    private static final String TABLES_PROPERTY = "tables";
+
+    private static final String KEY_PROPERTY = "key.";
+
+    /**
+     * The rows of a chunk, by primary key, that have not been changed since the chunk's low watermark.
+     */
+    static class Chunk {
+        private final String id;
+        private final TableMetadata metadata;
+        private final Map<List<String>, ChangeEvent> rows = new LinkedHashMap<>();
+        private final List<String> lastKey;
+        private final boolean last;
+        private boolean windowOpen;
+
+        Chunk(String id, TableMetadata metadata, List<ChangeEvent> rows, List<String> lastKey, boolean last) {
+            this.id = id;
+            this.metadata = metadata;
+            this.lastKey = lastKey;
+            this.last = last;
+            for (ChangeEvent row : rows) {
+                this.rows.put(key(row.getColumnnames(), row.getColumnvalues()), row);
+            }
+        }
+
+        void openWindow() {
+            this.windowOpen = true;
+        }
+
+        /**
+         * Drops the chunk rows whose old or new primary key matches a change streamed inside the watermark window.
+         */
+        void reconcile(ChangeEvent changeEvent) {
+            if (!this.windowOpen || !this.metadata.getTable().equals(changeEvent.getTable())
+                    || !this.metadata.getSchema().equals(changeEvent.getSchema())) {
+                return;
+            }
+            if (changeEvent.getColumnnames() != null) {
+                this.rows.remove(key(changeEvent.getColumnnames(), changeEvent.getColumnvalues()));
+            }
+            if (changeEvent.getOldkeys() != null) {
+                this.rows.remove(key(changeEvent.getOldkeys().getKeynames(), changeEvent.getOldkeys().getKeyvalues()));
+            }
+        }
+
+        Collection<ChangeEvent> getRows() {
+            return this.rows.values();
+        }
+
+        /**
+         * @return Returns the primary key values as text, or null if any primary key column is missing.
+         */
+        private List<String> key(List<String> names, List<Object> values) {
+            List<String> key = new ArrayList<>(this.metadata.getKeyColumnNames().size());
+            for (String keyColumn : this.metadata.getKeyColumnNames()) {
+                int index = names.indexOf(keyColumn);
+                if (index < 0) {
+                    return null;
+                }
+                key.add(String.valueOf(values.get(index)));
+            }
+            return key;
+        }
+    }
+
+    private final PgCdcSourceProperties properties;
+
+    /**
+     * Tables that may be snapshotted, or null for any table.
+     */
+    private final Set<String> tables;
+
+    /**
+     * File the progress is saved to, or null if the progress is not saved.
+     */
+    private final File progressFile;
+
+    private final Deque<String> pendingTables = new ArrayDeque<>();
+
+    private Connection connection;
+
+    /**
+     * Qualified name of the table in progress, or null.
+     */
+    private String tableName;
+
+    private TableMetadata table;
+
+    /**
+     * Primary key, as text, the next chunk of the table in progress is read from, or null from the first row.
+     */
+    private List<String> lastKey;
+
+    private Chunk chunk;
+
+    /**
+     * Set when the table in progress must be resumed from the last key by the next processed message.
+     */
+    private boolean resume;
+
+    /**
+     * Set when the progress changed. It is saved by the next processed message, once the rows emitted before were
+     * sent.
+     */
+    private boolean progressChanged;
+
+    /**
+     * @param properties   Source properties.
+     * @param tables       Comma separated list of the tables that may be snapshotted, or null for any table.
+     * @param progressFile File the progress is saved to and resumed from, or null if the progress is not saved.
+     */
+    public IncrementalSnapshot(PgCdcSourceProperties properties, String tables, File progressFile) {
+        this.properties = properties;
+        this.tables = (tables == null) ? null :
+                new HashSet<>(Arrays.asList(StringUtils.trimArrayElements(
+                        StringUtils.commaDelimitedListToStringArray(tables))));
+        this.progressFile = progressFile;
+        loadProgress();
+    }
+
+    /**
+     * Consumes the snapshot signals and watermarks, drops the chunk rows changed inside the watermark window and
+     * appends the remaining chunk rows after their high watermark.
+     *
+     * @param messages Messages decoded from a WAL message.
+     * @param lsn      LSN of the WAL message.
+     * @return Returns the messages to send.
+     */
+    public List<Message<?>> process(List<Message<?>> messages, LogSequenceNumber lsn) {
+        if (this.progressChanged) {
+            this.progressChanged = false;
+            saveProgress();
+        }
+        if (this.resume) {
+            this.resume = false;
+            nextChunk();
+        }
+        List<Message<?>> result = new ArrayList<>(messages.size());
+        for (Message<?> message : messages) {
+            Object payload = message.getPayload();
+            if (payload instanceof LogicalMessage) {
+                LogicalMessage logicalMessage = (LogicalMessage) payload;
+                if (SIGNAL_PREFIX.equals(logicalMessage.getPrefix())) {
+                    signal(logicalMessage.getContent());
+                    continue;
+                } else if (WATERMARK_PREFIX.equals(logicalMessage.getPrefix())) {
+                    watermark(logicalMessage.getContent(), lsn, result);
+                    continue;
+                }
+            } else if (payload instanceof Change && this.chunk != null) {
+                for (ChangeEvent changeEvent : ((Change) payload).getChange()) {
+                    this.chunk.reconcile(changeEvent);
+                }
+            }
+            result.add(message);
+        }
+        return result;
+    }
+
+    private void signal(String content) {
+        boolean accepted = false;
+        for (String table : StringUtils.trimArrayElements(StringUtils.commaDelimitedListToStringArray(content))) {
+            // a signal replayed after a restart doesn't restart the tables in progress
+            if ((this.tables == null || this.tables.contains(table)) && !table.equals(this.tableName)
+                    && !this.pendingTables.contains(table)) {
+                this.pendingTables.add(table);
+                accepted = true;
+            }
+        }
+        if (!accepted) {
+            return;
+        }
+
+        LOG.info("Incremental snapshot requested for: " + content);
+        this.progressChanged = true;
+        if (this.chunk == null) {
+            nextChunk();
+        }
+    }
+
+    private void watermark(String content, LogSequenceNumber lsn, List<Message<?>> result) {
+        if (this.chunk == null) {
+            return;
+        }
+        if ((LOW + this.chunk.id).equals(content)) {
+            this.chunk.openWindow();
+        } else if ((HIGH + this.chunk.id).equals(content)) {
+            result.addAll(toMessages(this.chunk.getRows(), lsn));
+            if (this.chunk.last) {
+                LOG.info("Incremental snapshot of " + this.table.getQualifiedName() + " completed");
+                this.tableName = null;
+                this.table = null;
+                this.lastKey = null;
+            } else {
+                this.lastKey = this.chunk.lastKey;
+            }
+            this.chunk = null;
+            nextChunk();
+        }
+    }
+
+    /**
+     * Reads the next chunk of the current or next pending table.
+     */
+    private void nextChunk() {
+        this.progressChanged = true;
+        while (this.chunk == null) {
+            if (this.tableName == null) {
+                this.tableName = this.pendingTables.poll();
+                this.lastKey = null;
+                if (this.tableName == null) {
+                    return;
+                }
+            }
+            if (this.table == null) {
+                try {
+                    this.table = TableMetadata.load(connection(), this.tableName);
+                } catch (SQLException e) {
+                    LOG.error("Unable to read the metadata of " + this.tableName + "! The incremental snapshot is " +
+                            "skipped.", e);
+                    this.tableName = null;
+                    continue;
+                }
+                if (this.table.getKeyColumnNames().isEmpty()) {
+                    LOG.warn("Table " + this.tableName + " has no primary key! The incremental snapshot is skipped.");
+                    this.tableName = null;
+                    this.table = null;
+                    continue;
+                }
+            }
+
+            try {
+                this.chunk = readChunk();
+            } catch (SQLException e) {
+                LOG.error("Incremental snapshot of " + this.table.getQualifiedName() + " failed! Signal the table " +
+                        "again to restart it.", e);
+                this.tableName = null;
+                this.table = null;
+            }
+        }
+    }
+
+    private Chunk readChunk() throws SQLException {
+        String id = UUID.randomUUID().toString();
+        int limit = Math.max(1, this.properties.getSnapshot().getIncrementalChunkRows());
+        String keyColumns = TableMetadata.quoteIdentifiers(this.table.getKeyColumnNames());
+
+        StringBuilder query = new StringBuilder("SELECT ")
+                .append(TableMetadata.quoteIdentifiers(this.table.getColumnNames()))
+                .append(" FROM ").append(this.table.getQuotedName());
+        if (this.lastKey != null) {
+            // the key is kept as text, to be saved with the progress, and cast back to the column types
+            List<String> parameters = new ArrayList<>(this.lastKey.size());
+            for (String keyColumnType : this.table.getKeyColumnTypes()) {
+                parameters.add("CAST(? AS " + TableMetadata.quoteIdentifier(keyColumnType) + ")");
+            }
+            query.append(" WHERE (").append(keyColumns).append(") > (")
+                    .append(StringUtils.collectionToCommaDelimitedString(parameters))
+                    .append(")");
+        }
+        query.append(" ORDER BY ").append(keyColumns).append(" LIMIT ").append(limit);
+
+        emitWatermark(LOW + id);
+
+        List<ChangeEvent> rows = new ArrayList<>();
+        List<String> chunkLastKey = null;
+        try (PreparedStatement statement = connection().prepareStatement(query.toString())) {
+            if (this.lastKey != null) {
+                for (int i = 0; i < this.lastKey.size(); i++) {
+                    statement.setString(i + 1, this.lastKey.get(i));
+                }
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(toChangeEvent(resultSet));
+                    chunkLastKey = new ArrayList<>(this.table.getKeyColumnNames().size());
+                    for (String keyColumn : this.table.getKeyColumnNames()) {
+                        // by position, the column labels are matched case insensitively
+                        chunkLastKey.add(resultSet.getString(this.table.getColumnNames().indexOf(keyColumn) + 1));
+                    }
+                }
+            }
+        }
+
+        emitWatermark(HIGH + id);
+
+        return new Chunk(id, this.table, rows, chunkLastKey, rows.size() < limit);
+    }
+
+    private ChangeEvent toChangeEvent(ResultSet resultSet) throws SQLException {
+        List<Object> values = new ArrayList<>(this.table.getColumnNames().size());
+        for (int i = 0; i < this.table.getColumnNames().size(); i++) {
+            values.add(SqlUtils.fromTextValue(this.table.getColumnTypes().get(i), resultSet.getString(i + 1)));
+        }
+
+        ChangeEvent changeEvent = new ChangeEvent();
+        changeEvent.setKind(ChangeEvent.Kind.insert);
+        changeEvent.setSchema(this.table.getSchema());
+        changeEvent.setTable(this.table.getTable());
+        changeEvent.setColumnnames(this.table.getColumnNames());
+        changeEvent.setColumntypes(this.table.getColumnTypes());
+        changeEvent.setColumnvalues(values);
+        return changeEvent;
+    }
+
+    private void emitWatermark(String content) throws SQLException {
+        try (PreparedStatement statement = connection().prepareStatement(EMIT_MESSAGE_QUERY)) {
+            statement.setString(1, WATERMARK_PREFIX);
+            statement.setString(2, content);
+            statement.executeQuery().close();
+        }
+    }
+
+    private List<Message<?>> toMessages(Collection<ChangeEvent> rows, LogSequenceNumber lsn) {
+        List<Message<?>> messages = new ArrayList<>();
+        List<ChangeEvent> events = new ArrayList<>();
+        for (ChangeEvent row : rows) {
+            events.add(row);
+            if (events.size() >= this.properties.getChunkSize()) {
+                messages.add(toMessage(events, lsn));
+                events = new ArrayList<>();
+            }
+        }
+        if (!events.isEmpty()) {
+            messages.add(toMessage(events, lsn));
+        }
+        return messages;
+    }
+
+    private static Message<?> toMessage(List<ChangeEvent> events, LogSequenceNumber lsn) {
+        Change change = new Change();
+        change.setChange(events);
+        MessageBuilder<Change> builder = MessageBuilder.withPayload(change)
+                .setHeader(PgCdcHeaders.SNAPSHOT, true);
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+        return builder.build();
+    }
+
+    private Connection connection() throws SQLException {
+        if (this.connection == null || this.connection.isClosed()) {
+            Properties props = new Properties();
+            props.setProperty("user", this.properties.getJdbcUser());
+            props.setProperty("password", this.properties.getJdbcPassword());
+            this.connection = DriverManager.getConnection(this.properties.getJdbcUrl(), props);
+        }
+        return this.connection;
+    }
+
+    /**
+     * Abandons the chunk in progress, when the stream is restarted. The watermarks of the chunk may not be resent, so
+     * the chunk is read again by the next processed message.
+     */
+    public void reset() {
+        if (this.chunk != null) {
+            this.chunk = null;
+            this.resume = true;
+        }
+    }
+
+    /**
+     * @return Returns the qualified names of the table in progress and of the pending tables.
+     */
+    List<String> getPendingTables() {
+        List<String> tables = new ArrayList<>(this.pendingTables.size() + 1);
+        if (this.tableName != null) {
+            tables.add(this.tableName);
+        }
+        tables.addAll(this.pendingTables);
+        return tables;
+    }
+
+    /**
+     * @return Returns the primary key, as text, the table in progress is resumed from, or null.
+     */
+    List<String> getLastKey() {
+        return this.lastKey;
+    }
+
+    /**
+     * Resumes the table in progress and the pending tables of the progress file, if any.
+     */
+    private void loadProgress() {
+        if (this.progressFile == null || !this.progressFile.exists()) {
+            return;
+        }
+        Properties progress = new Properties();
+        try (InputStream input = new FileInputStream(this.progressFile)) {
+            progress.load(input);
+        } catch (IOException e) {
+            LOG.error("Unable to read the incremental snapshot progress from " + this.progressFile + "! The " +
+                    "snapshot in progress is abandoned, signal the tables again to restart it.", e);
+            return;
+        }
+        String[] tables = StringUtils.commaDelimitedListToStringArray(progress.getProperty(TABLES_PROPERTY));
+        if (tables.length == 0) {
+            return;
+        }
+        this.pendingTables.addAll(Arrays.asList(tables));
+        this.tableName = this.pendingTables.poll();
+        if (progress.getProperty(KEY_PROPERTY + 0) != null) {
+            this.lastKey = new ArrayList<>();
+            for (int i = 0; progress.getProperty(KEY_PROPERTY + i) != null; i++) {
+                this.lastKey.add(progress.getProperty(KEY_PROPERTY + i));
+            }
+        }
+        this.resume = true;
+        LOG.info("Resuming the incremental snapshot of: " + getPendingTables());
+    }
+
+    /**
+     * Saves the pending tables and the key the table in progress is resumed from. The file is replaced atomically,
+     * so a crash leaves either the previous or the new progress.
+     */
+    private void saveProgress() {
+        if (this.progressFile == null) {
+            return;
+        }
+        try {
+            List<String> tables = getPendingTables();
+            if (tables.isEmpty()) {
+                Files.deleteIfExists(this.progressFile.toPath());
+                return;
+            }
+            Properties progress = new Properties();
+            progress.setProperty(TABLES_PROPERTY, StringUtils.collectionToCommaDelimitedString(tables));
+            if (this.lastKey != null) {
+                for (int i = 0; i < this.lastKey.size(); i++) {
+                    progress.setProperty(KEY_PROPERTY + i, this.lastKey.get(i));
+                }
+            }
+            File file = new File(this.progressFile.getPath() + ".tmp");
+            try (OutputStream output = new FileOutputStream(file)) {
+                progress.store(output, null);
+            }
+            Files.move(file.toPath(), this.progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to save the incremental snapshot progress to " + this.progressFile + "!", e);
+        }
+    }
+
+    /**
+     * Closes the connection used to read the chunks and write the watermarks.
+     */
+    public void close() {
+        if (this.connection != null) {
+            try {
+                this.connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Unable to close the incremental snapshot connection!", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.SqlUtils;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Reads the existing table contents as of the consistent point of a newly created replication slot.
+ * <p>
+ * The slot is created with the CREATE_REPLICATION_SLOT ... EXPORT_SNAPSHOT replication command. The exported snapshot
+ * is valid only until the replication connection runs its next command, so it is imported right away into a pool of
+ * REPEATABLE READ worker transactions, before the replication stream is started. The workers keep the snapshot for
+ * the whole copy, while the replication stream holds the changes committed after the consistent point.
+ * <p>
+ * Every table is split into primary key range chunks that are read in parallel with COPY ... TO STDOUT, and the rows
+ * are emitted as insert {@link ChangeEvent}s, in {@link Change} messages of at most chunkSize events. Only the tables
+ * with a single integer column primary key are split, the other tables are copied as a single chunk. The chunk
+ * boundaries are the existing keys found by walking the primary key index rowsPerChunk rows at a time, so sparse keys
+ * don't produce empty chunks and the number of chunks is bounded by the number of rows.
+ *
+ * @author Christian Tzolov
+ */
+public class InitialSnapshot {
+
+    private static final Log LOG = LogFactory.getLog(InitialSnapshot.class);
+
+    private static final String USER_TABLES_QUERY = "SELECT schemaname || '.' || tablename FROM pg_tables " +
+            "WHERE schemaname NOT IN ('pg_catalog', 'information_schema')";
+
+    private static final List<String> INTEGER_TYPES = Arrays.asList("int2", "int4", "int8");
+
+    /**
+     * A primary key range [from, to) of a table, or the whole table when the keyColumn is null. The last chunk of a
+     * table has no upper bound (to is null).
+     */
+    private static class Chunk {
+        private final TableMetadata metadata;
+        private final String keyColumn;
+        private final Long from;
+        private final Long to;
+
+        Chunk(TableMetadata metadata, String keyColumn, Long from, Long to) {
+            this.metadata = metadata;
+            this.keyColumn = keyColumn;
+            this.from = from;
+            this.to = to;
+        }
+
+        String copyCommand() {
+            String where = "";
+            if (this.keyColumn != null) {
+                String key = TableMetadata.quoteIdentifier(this.keyColumn);
+                where = " WHERE " + key + " >= " + this.from + ((this.to == null) ? "" : " AND " + key + " < " + this.to);
+            }
+            return "COPY (SELECT " + TableMetadata.quoteIdentifiers(this.metadata.getColumnNames())
+                    + " FROM " + this.metadata.getQuotedName() + where + ") TO STDOUT";
+        }
+    }
+
+    private final PgCdcSourceProperties properties;
+
+    private final List<String> tables;
+
+    private final LogSequenceNumber consistentPoint;
+
+    private final BlockingQueue<Connection> workers = new LinkedBlockingQueue<>();
+
+    private InitialSnapshot(PgCdcSourceProperties properties, List<String> tables, LogSequenceNumber consistentPoint) {
+        this.properties = properties;
+        this.tables = tables;
+        this.consistentPoint = consistentPoint;
+    }
+
+    /**
+     * Creates the replication slot with an exported snapshot and imports the snapshot into the worker transactions.
+     * Must be called before the replication stream is started on the same connection. No snapshot is taken if the
+     * slot can't be created, e.g. because it exists already.
+     *
+     * @param replicationConnection Replication connection to create the slot on.
+     * @param properties            Source properties.
+     * @param replicationSlot       Name of the replication slot to create.
+     * @param tables                Comma separated list of the tables to snapshot, or null for all user tables.
+     * @return Returns the snapshot ready to be copied.
+     * @throws SQLException if the worker transactions can't import the snapshot.
+     */
+    public static InitialSnapshot export(PGConnection replicationConnection, PgCdcSourceProperties properties,
+                                         String replicationSlot, String tables) throws SQLException {
+
+        Connection connection = (Connection) replicationConnection;
+        String command = "CREATE_REPLICATION_SLOT " + replicationSlot + " LOGICAL " + properties.getOutputPlugin();
+        if (connection.getMetaData().getDatabaseMajorVersion() >= 10) {
+            // exported by default before PostgreSQL 10
+            command = command + " EXPORT_SNAPSHOT";
+        }
+
+        List<String> snapshotTables =
+                Arrays.asList(StringUtils.trimArrayElements(StringUtils.commaDelimitedListToStringArray(tables)));
+
+        LogSequenceNumber consistentPoint;
+        String snapshotName;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(command)) {
+            resultSet.next();
+            consistentPoint = LogSequenceNumber.valueOf(resultSet.getString("consistent_point"));
+            snapshotName = resultSet.getString("snapshot_name");
+        } catch (SQLException e) {
+            LOG.warn("Unable to create replication slot! The initial snapshot is skipped.", e);
+            return new InitialSnapshot(properties, snapshotTables, null);
+        }
+
+        InitialSnapshot snapshot = new InitialSnapshot(properties, snapshotTables, consistentPoint);
+        try {
+            snapshot.importSnapshot(snapshotName);
+        } catch (SQLException e) {
+            snapshot.close();
+            throw e;
+        }
+
+        LOG.info("Exported snapshot " + snapshotName + " of slot " + replicationSlot + " at " + consistentPoint.asString());
+        return snapshot;
+    }
+
+    private void importSnapshot(String snapshotName) throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", this.properties.getJdbcUser());
+        props.setProperty("password", this.properties.getJdbcPassword());
+
+        for (int i = 0; i < Math.max(1, this.properties.getSnapshot().getParallelism()); i++) {
+            Connection worker = DriverManager.getConnection(this.properties.getJdbcUrl(), props);
+            this.workers.add(worker);
+            worker.setAutoCommit(false);
+            worker.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try (Statement statement = worker.createStatement()) {
+                statement.execute("SET TRANSACTION SNAPSHOT '" + snapshotName + "'");
+            }
+        }
+    }
+
+    /**
+     * @return Returns true if the slot was created with an exported snapshot that is ready to be copied.
+     */
+    public boolean isExported() {
+        return this.consistentPoint != null && !this.workers.isEmpty();
+    }
+
+    /**
+     * @return Returns the LSN from which the replication stream continues after the snapshot.
+     */
+    public LogSequenceNumber getConsistentPoint() {
+        return this.consistentPoint;
+    }
+
+    /**
+     * Copies the snapshot tables in parallel and closes the worker connections. Blocks until all chunks are copied.
+     *
+     * @param sender    Receives the snapshot messages. Called concurrently from the copy threads.
+     * @param keepAlive Called periodically while waiting for the copy threads, e.g. to keep the idle replication
+     *                  connection alive.
+     * @param interval  Interval (in milliseconds) between the keepAlive calls.
+     */
+    public void copy(final Consumer<Message<?>> sender, Runnable keepAlive, long interval) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("pg-cdc-snapshot-");
+        threadFactory.setDaemon(true);
+        ExecutorService executor = Executors.newFixedThreadPool(this.workers.size(), threadFactory);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final Chunk chunk : planChunks()) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        copyChunk(chunk, sender);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(interval, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        keepAlive.run();
+                    }
+                }
+            }
+            LOG.info("Snapshot completed with " + futures.size() + " chunks");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Snapshot interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Snapshot failed", e.getCause());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Snapshot failed", e);
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(interval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            close();
+        }
+    }
+
+    private List<Chunk> planChunks() throws SQLException, InterruptedException {
+        Connection connection = this.workers.take();
+        try {
+            List<String> snapshotTables = this.tables;
+            if (snapshotTables.isEmpty()) {
+                snapshotTables = new ArrayList<>();
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery(USER_TABLES_QUERY)) {
+                    while (resultSet.next()) {
+                        snapshotTables.add(resultSet.getString(1));
+                    }
+                }
+            }
+
+            List<Chunk> chunks = new ArrayList<>();
+            for (String table : snapshotTables) {
+                chunks.addAll(planChunks(connection, table));
+            }
+            return chunks;
+        } finally {
+            this.workers.add(connection);
+        }
+    }
+
+    private List<Chunk> planChunks(Connection connection, String qualifiedName) throws SQLException {
+        TableMetadata metadata = TableMetadata.load(connection, qualifiedName);
+
+        List<Chunk> chunks = new ArrayList<>();
+        if (metadata.getKeyColumnNames().size() == 1 && INTEGER_TYPES.contains(metadata.getKeyColumnTypes().get(0))) {
+            String keyColumn = metadata.getKeyColumnNames().get(0);
+            String key = TableMetadata.quoteIdentifier(keyColumn);
+            Long from;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(
+                         "SELECT min(" + key + ") FROM " + metadata.getQuotedName())) {
+                resultSet.next();
+                from = resultSet.getLong(1);
+                if (resultSet.wasNull()) {
+                    return chunks; // empty table
+                }
+            }
+
+            // the next boundary is the key rowsPerChunk rows past the previous one, read from the primary key index
+            try (PreparedStatement statement = connection.prepareStatement("SELECT " + key + " FROM "
+                    + metadata.getQuotedName() + " WHERE " + key + " >= ? ORDER BY " + key + " OFFSET ? LIMIT 1")) {
+                statement.setLong(2, Math.max(1, this.properties.getSnapshot().getRowsPerChunk()));
+                while (from != null) {
+                    statement.setLong(1, from);
+                    Long to = null;
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        if (resultSet.next()) {
+                            to = resultSet.getLong(1);
+                        }
+                    }
+                    chunks.add(new Chunk(metadata, keyColumn, from, to));
+                    from = to;
+                }
+            }
+        } else {
+            chunks.add(new Chunk(metadata, null, null, null));
+        }
+        return chunks;
+    }
+
+    private void copyChunk(Chunk chunk, Consumer<Message<?>> sender) {
+        Connection connection;
+        try {
+            connection = this.workers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+
+        try {
+            CopyOut copyOut = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(chunk.copyCommand());
+            List<ChangeEvent> events = new ArrayList<>();
+            byte[] row;
+            while ((row = copyOut.readFromCopy()) != null) {
+                events.add(toChangeEvent(chunk, row));
+                if (events.size() >= this.properties.getChunkSize()) {
+                    sender.accept(toMessage(events));
+                    events = new ArrayList<>();
+                }
+            }
+            if (!events.isEmpty()) {
+                sender.accept(toMessage(events));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to copy: " + chunk.copyCommand(), e);
+        } finally {
+            this.workers.add(connection);
+        }
+    }
+
+    private static ChangeEvent toChangeEvent(Chunk chunk, byte[] row) {
+        int length = row.length;
+        if (length > 0 && row[length - 1] == '\n') {
+            length--;
+        }
+        String[] fields = new String(row, 0, length, StandardCharsets.UTF_8).split("\t", -1);
+
+        List<Object> values = new ArrayList<>(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            values.add(SqlUtils.fromTextValue(chunk.metadata.getColumnTypes().get(i), unescape(fields[i])));
+        }
+
+        ChangeEvent changeEvent = new ChangeEvent();
+        changeEvent.setKind(ChangeEvent.Kind.insert);
+        changeEvent.setSchema(chunk.metadata.getSchema());
+        changeEvent.setTable(chunk.metadata.getTable());
+        changeEvent.setColumnnames(chunk.metadata.getColumnNames());
+        changeEvent.setColumntypes(chunk.metadata.getColumnTypes());
+        changeEvent.setColumnvalues(values);
+        return changeEvent;
+    }
+
+    private static Message<?> toMessage(List<ChangeEvent> events) {
+        Change change = new Change();
+        change.setChange(events);
+        return MessageBuilder.withPayload(change)
+                .setHeader(PgCdcHeaders.SNAPSHOT, true)
+                .build();
+    }
+
+    /**
+     * Decodes a field of the COPY text format.
+     */
+    static String unescape(String field) {
+        if ("\\N".equals(field)) {
+            return null;
+        }
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '\\' || i + 1 == field.length()) {
+                sb.append(c);
+                continue;
+            }
+            char escaped = field.charAt(++i);
+            switch (escaped) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'v':
+                    sb.append('\u000B');
+                    break;
+                default:
+                    sb.append(escaped);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void close() {
+        Connection connection;
+        while ((connection = this.workers.poll()) != null) {
+            try {
+                connection.rollback();
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Unable to close the snapshot connection!", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+/**
+ * A message written to the WAL with pg_logical_emit_message(transactional, prefix, content) and addressed to the
+ * source itself, e.g. a snapshot signal or watermark. The decoders emit only the messages whose prefix starts with
+ * {@link #SOURCE_PREFIX}, and the source consumes them instead of sending them to the output.
+ *
+ * @author Christian Tzolov
+ */
+public class LogicalMessage {
+
+    public static final String SOURCE_PREFIX = "pg-cdc-";
+
+    private final boolean transactional;
+
+    private final String prefix;
+
+    private final String content;
+
+    public LogicalMessage(boolean transactional, String prefix, String content) {
+        this.transactional = transactional;
+        this.prefix = prefix;
+        this.content = content;
+    }
+
+    /**
+     * @param prefix Prefix of a logical decoding message.
+     * @return Returns true if the message is addressed to the source.
+     */
+    public static boolean isSourceMessage(String prefix) {
+        return prefix != null && prefix.startsWith(SOURCE_PREFIX);
+    }
+
+    public boolean isTransactional() {
+        return this.transactional;
+    }
+
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public String getContent() {
+        return this.content;
+    }
+
+    @Override
+    public String toString() {
+        return "LogicalMessage{prefix='" + this.prefix + "', content='" + this.content + "'}";
+    }
+}
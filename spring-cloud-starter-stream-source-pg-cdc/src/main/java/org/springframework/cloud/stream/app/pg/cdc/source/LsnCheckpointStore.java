@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.postgresql.replication.LogSequenceNumber;
+
+/**
+ * Durable store of the LSN up to which all messages of a replication slot were delivered to the output.
+ * <p>
+ * The server persists the slot position only at checkpoint, so after a crash it may replay the changes since an
+ * earlier LSN. The source resumes from the stored LSN instead and skips the replayed WAL messages at or below it.
+ *
+ * @author Christian Tzolov
+ */
+public interface LsnCheckpointStore {
+
+    /**
+     * @return Returns the last saved LSN or {@link LogSequenceNumber#INVALID_LSN} if none is saved.
+     */
+    LogSequenceNumber load();
+
+    /**
+     * Saves the delivered LSN. Called from the reader thread every time the flushed LSN advances. Saving the
+     * {@link LogSequenceNumber#INVALID_LSN} clears the checkpoint, e.g. when the replication slot is recreated.
+     *
+     * @param lsn LSN up to which all messages were delivered.
+     */
+    void save(LogSequenceNumber lsn);
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.postgresql.replication.LogSequenceNumber;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the LSNs of the messages that have been handed to the output but not yet confirmed as delivered.
+ * <p>
+ * The flushable LSN is the highest tracked LSN for which the message and all the messages with lower LSNs have
+ * been confirmed. Reporting only the flushable LSN back to PostgreSQL gives at-least-once delivery: on restart the
+ * server resends everything past it, including the messages that were in-flight during a crash.
+ * <p>
+ * Messages are tracked from the reader thread and may be confirmed from any thread.
+ *
+ * @author Christian Tzolov
+ */
+public class LsnTracker {
+
+    /**
+     * In-flight LSN to the number of its unconfirmed messages. Several messages may share the same LSN.
+     */
+    private final ConcurrentSkipListMap<Long, AtomicInteger> inFlight = new ConcurrentSkipListMap<>();
+
+    private volatile long flushableLsn = LogSequenceNumber.INVALID_LSN.asLong();
+
+    /**
+     * Registers a message with the given LSN as in-flight. Synchronized with {@link #advance()}, which could otherwise
+     * release a confirmed LSN between the lookup and the increment, and the message would be counted on the released
+     * entry.
+     *
+     * @param lsn LSN of the message handed to the output.
+     */
+    public synchronized void track(LogSequenceNumber lsn) {
+        AtomicInteger pending = this.inFlight.get(lsn.asLong());
+        if (pending == null) {
+            pending = new AtomicInteger();
+            this.inFlight.put(lsn.asLong(), pending);
+        }
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Confirms the delivery of a previously tracked message.
+     *
+     * @param lsn LSN of the delivered message.
+     */
+    public void confirm(LogSequenceNumber lsn) {
+        AtomicInteger pending = this.inFlight.get(lsn.asLong());
+        if (pending != null) {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases the confirmed head of the in-flight LSNs and advances the flushable LSN past it.
+     *
+     * @return Returns the highest LSN up to which all tracked messages are confirmed.
+     */
+    public synchronized LogSequenceNumber advance() {
+        Map.Entry<Long, AtomicInteger> head;
+        while ((head = this.inFlight.firstEntry()) != null && head.getValue().get() <= 0) {
+            this.inFlight.remove(head.getKey(), head.getValue());
+            this.flushableLsn = head.getKey();
+        }
+        return LogSequenceNumber.valueOf(this.flushableLsn);
+    }
+
+    /**
+     * Drops all in-flight LSNs, when the stream is resumed from the flushable LSN and everything past it is resent.
+     */
+    public synchronized void clear() {
+        this.inFlight.clear();
+    }
+
+    /**
+     * @return Returns the last flushable LSN computed by {@link #advance()}.
+     */
+    public LogSequenceNumber getFlushableLsn() {
+        return LogSequenceNumber.valueOf(this.flushableLsn);
+    }
+
+    /**
+     * @return Returns the number of in-flight LSNs.
+     */
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.postgresql.replication.LogSequenceNumber;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the checkpoint LSN in a small memory-mapped file. A save is two long writes to the mapped page and a
+ * {@link MappedByteBuffer#force()}, without any system call to write or rename a file.
+ * <p>
+ * The file holds the LSN followed by its bitwise complement. A torn write, e.g. by a crash in the middle of a save,
+ * leaves a mismatching pair and is loaded as no checkpoint, so the source falls back to the server side slot
+ * position.
+ *
+ * @author Christian Tzolov
+ */
+public class MappedFileLsnCheckpointStore implements LsnCheckpointStore, Closeable {
+
+    private static final int LSN_OFFSET = 0;
+
+    private static final int CHECK_OFFSET = 8;
+
+    private static final int SIZE = 16;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    public MappedFileLsnCheckpointStore(File file) throws IOException {
+        this.file = file;
+        if (file.getParentFile() != null) {
+            Files.createDirectories(file.getParentFile().toPath());
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+    }
+
+    @Override
+    public synchronized LogSequenceNumber load() {
+        long lsn = this.buffer.getLong(LSN_OFFSET);
+        long check = this.buffer.getLong(CHECK_OFFSET);
+        if (check != ~lsn || lsn == LogSequenceNumber.INVALID_LSN.asLong()) {
+            return LogSequenceNumber.INVALID_LSN;
+        }
+        return LogSequenceNumber.valueOf(lsn);
+    }
+
+    @Override
+    public synchronized void save(LogSequenceNumber lsn) {
+        this.buffer.putLong(LSN_OFFSET, lsn.asLong());
+        this.buffer.putLong(CHECK_OFFSET, ~lsn.asLong());
+        this.buffer.force();
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
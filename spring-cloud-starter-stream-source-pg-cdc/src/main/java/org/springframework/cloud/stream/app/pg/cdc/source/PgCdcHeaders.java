@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+/**
+ * Names of the message headers set by the PG CDC source.
+ *
+ * @author Christian Tzolov
+ */
+public abstract class PgCdcHeaders {
+
+    private static final String PREFIX = "pg_cdc_";
+
+    /**
+     * LSN of the WAL message (as string, e.g. 0/16B3748).
+     */
+    public static final String LSN = PREFIX + "lsn";
+
+    /**
+     * LSN of the first WAL message in a batch.
+     */
+    public static final String FIRST_LSN = PREFIX + "first_lsn";
+
+    /**
+     * LSN of the last WAL message in a batch.
+     */
+    public static final String LAST_LSN = PREFIX + "last_lsn";
+
+    /**
+     * Number of WAL messages in a batch.
+     */
+    public static final String BATCH_SIZE = PREFIX + "batch_size";
+
+    /**
+     * Transaction id.
+     */
+    public static final String XID = PREFIX + "xid";
+
+    /**
+     * Sequence number (starting from 0) of a transaction sub-batch, when the transaction is streamed in chunks.
+     */
+    public static final String CHUNK_SEQUENCE = PREFIX + "chunk_sequence";
+
+    /**
+     * True for the final sub-batch of a transaction streamed in chunks.
+     */
+    public static final String LAST_CHUNK = PREFIX + "last_chunk";
+
+    /**
+     * True for the rows read by the initial and incremental snapshots.
+     */
+    public static final String SNAPSHOT = PREFIX + "snapshot";
+
+    /**
+     * Target dataset name (schema_table) of a single change event message.
+     */
+    public static final String DATASET = PREFIX + "dataset";
+
+    /**
+     * Stable hash (Integer) of the key of a single change event message, to partition by.
+     */
+    public static final String KEY_HASH = PREFIX + "key_hash";
+
+    /**
+     * LSN of the transaction of a single change event message, the same for all its events and increasing in commit
+     * order. It is the end LSN of the transaction (past its commit record) with wal2json and test_decoding, and the
+     * LSN of the commit record with pgoutput, whose Begin message doesn't carry the end LSN. Only comparable between
+     * the messages of the same output plugin.
+     */
+    public static final String TRANSACTION_LSN = PREFIX + "transaction_lsn";
+
+}
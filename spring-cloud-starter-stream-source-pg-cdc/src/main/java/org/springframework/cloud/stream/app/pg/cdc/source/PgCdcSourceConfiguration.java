@@ -16,6 +16,7 @@
 
 package org.springframework.cloud.stream.app.pg.cdc.source;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.postgresql.PGConnection;
@@ -24,19 +25,31 @@ import org.postgresql.replication.LogSequenceNumber;
 import org.postgresql.replication.PGReplicationStream;
 import org.postgresql.replication.fluent.logical.ChainedLogicalStreamBuilder;
 import org.postgresql.util.PSQLException;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.SpillingTransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.PrimaryKeyColumnIndices;
 import org.springframework.cloud.stream.messaging.Source;
 import org.springframework.context.annotation.Bean;
-import org.springframework.integration.annotation.InboundChannelAdapter;
-import org.springframework.integration.annotation.Poller;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A module that reads data from an RDBMS using JDBC and creates a payload with the data.
@@ -49,78 +62,330 @@ public class PgCdcSourceConfiguration {
 
     private static final Log LOG = LogFactory.getLog(PgCdcSourceConfiguration.class);
 
-    @Autowired
-    private PGReplicationStream replicationStream;
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    public ReplicationStreamMessageProducer replicationStreamMessageProducer(PGReplicationStream replicationStream,
+                                                                             PgCdcSourceProperties properties,
+                                                                             LsnTracker lsnTracker,
+                                                                             ReplicationMessageDecoder decoder,
+                                                                             ObjectProvider<InitialSnapshot> snapshot,
+                                                                             ObjectProvider<IncrementalSnapshot> incrementalSnapshot,
+                                                                             ObjectProvider<ChangeEventSplitter> splitter,
+                                                                             CachedPrimaryKeyColumnIndices primaryKeyColumnIndices,
+                                                                             ObjectProvider<MeterRegistry> meterRegistry,
+                                                                             ObjectProvider<LsnCheckpointStore> checkpointStore,
+                                                                             ReplicationStreamConnector connector,
+                                                                             Source source) {
+        ReplicationStreamMessageProducer producer =
+                new ReplicationStreamMessageProducer(replicationStream, properties, lsnTracker, decoder);
+        producer.setInitialSnapshot(snapshot.getIfAvailable());
+        producer.setIncrementalSnapshot(incrementalSnapshot.getIfAvailable());
+        producer.setChangeEventFilter(createChangeEventFilter(properties, primaryKeyColumnIndices));
+        producer.setChangeEventSplitter(splitter.getIfAvailable());
+        producer.setCheckpointStore(checkpointStore.getIfAvailable());
+        producer.setConnector(connector);
+        producer.setMetrics(createMetrics(meterRegistry.getIfAvailable(), properties, properties.getReplicationSlot()));
+        producer.setHeartbeat(createHeartbeat(properties));
+        producer.setOutputChannel(source.output());
+        return producer;
+    }
 
-    @InboundChannelAdapter(value = Source.OUTPUT, poller = @Poller(fixedDelay = "0", maxMessagesPerPoll = "-1"))
-    public String getReplicationMessage() {
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    public ReplicationMessageDecoder replicationMessageDecoder(PgCdcSourceProperties properties) {
+        return createReplicationMessageDecoder(properties);
+    }
 
-        String walJson = null;
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    public LsnTracker lsnTracker() {
+        return new LsnTracker();
+    }
 
-        try {
-            ByteBuffer byteBuffer = replicationStream.readPending();
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    public ReplicationStreamConnector replicationStreamConnector(PgCdcSourceProperties properties) {
+        return new ReplicationStreamConnector(properties, properties.getReplicationSlot(),
+                properties.outputPluginOptionsAsProperties());
+    }
+
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    public PGReplicationStream replicationStream(ChainedLogicalStreamBuilder builder) throws SQLException {
+        return builder.start();
+    }
 
-            if (byteBuffer != null) {
-                int offset = byteBuffer.arrayOffset();
-                byte[] source = byteBuffer.array();
-                int length = source.length - offset;
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    @ConditionalOnProperty(prefix = "pg.cdc.snapshot", name = "enabled", havingValue = "true")
+    public InitialSnapshot initialSnapshot(PGConnection replicationConnection,
+                                           PgCdcSourceProperties properties) throws SQLException {
+        dropReplicationSlot(replicationConnection, properties, properties.getReplicationSlot());
+        return InitialSnapshot.export(replicationConnection, properties, properties.getReplicationSlot(),
+                properties.getSnapshot().getTables());
+    }
 
-                walJson = new String(source, offset, length);
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    @ConditionalOnProperty(prefix = "pg.cdc.snapshot", name = "incremental", havingValue = "true")
+    public IncrementalSnapshot incrementalSnapshot(PgCdcSourceProperties properties) {
+        return createIncrementalSnapshot(properties, properties.getReplicationSlot(), null);
+    }
 
-                replicationStream.setAppliedLSN(replicationStream.getLastReceiveLSN());
-                replicationStream.setFlushedLSN(replicationStream.getLastReceiveLSN());
-            }
-        } catch (SQLException e) {
-            LOG.error("Error while streaming data", e);
-        }
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    @ConditionalOnProperty(prefix = "pg.cdc", name = "per-event", havingValue = "true")
+    public ChangeEventSplitter changeEventSplitter(CachedPrimaryKeyColumnIndices primaryKeyColumnIndices) {
+        return new ChangeEventSplitter(primaryKeyColumnIndices);
+    }
 
-        return walJson;
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    public CachedPrimaryKeyColumnIndices primaryKeyColumnIndices(PgCdcSourceProperties properties) {
+        return new CachedPrimaryKeyColumnIndices(properties);
     }
 
     @Bean
-    public PGReplicationStream replicationStream(ChainedLogicalStreamBuilder builder) throws SQLException {
-        return builder.start();
+    @Conditional(SingleSlotCondition.class)
+    @ConditionalOnProperty(prefix = "pg.cdc", name = "checkpoint-directory")
+    @ConditionalOnMissingBean(LsnCheckpointStore.class)
+    public MappedFileLsnCheckpointStore lsnCheckpointStore(PgCdcSourceProperties properties) throws IOException {
+        return createCheckpointStore(properties, properties.getReplicationSlot());
     }
 
     @Bean
+    @Conditional(SingleSlotCondition.class)
     public ChainedLogicalStreamBuilder logicalStreamBuilder(PGConnection replicationConnection,
-                                                            PgCdcSourceProperties properties) throws SQLException {
+                                                            PgCdcSourceProperties properties,
+                                                            ObjectProvider<InitialSnapshot> snapshot,
+                                                            ObjectProvider<LsnCheckpointStore> checkpointStore)
+            throws SQLException {
+
+        // the snapshot, if enabled, has created the slot already
+        boolean slotCreated;
+        if (snapshot.getIfAvailable() == null) {
+            dropReplicationSlot(replicationConnection, properties, properties.getReplicationSlot());
+            slotCreated = createReplicationSlot(replicationConnection, properties, properties.getReplicationSlot());
+        } else {
+            slotCreated = snapshot.getIfAvailable().isExported();
+        }
+
+        ChainedLogicalStreamBuilder builder = createLogicalStreamBuilder(replicationConnection, properties,
+                properties.getReplicationSlot(), properties.outputPluginOptionsAsProperties());
+
+        // set Start position offset
+        LogSequenceNumber startPosition = resolveStartPosition(checkpointStore.getIfAvailable(), slotCreated,
+                (properties.getStartPosition() != null) ?
+                        LogSequenceNumber.valueOf(properties.getStartPosition()) : LogSequenceNumber.INVALID_LSN);
+        if (!LogSequenceNumber.INVALID_LSN.equals(startPosition)) {
+            builder.withStartPosition(startPosition);
+        }
+
+        return builder;
+    }
+
+    @Bean
+    @Conditional(SingleSlotCondition.class)
+    public PGConnection replicationConnection(PgCdcSourceProperties properties) throws SQLException {
+        return createReplicationConnection(properties).unwrap(PGConnection.class);
+    }
+
+    @Bean
+    @Conditional(SlotGroupsCondition.class)
+    public SlotGroupReplicationProducers slotGroupReplicationProducers(PgCdcSourceProperties properties,
+                                                                       ObjectProvider<MeterRegistry> meterRegistry,
+                                                                       Source source) {
+        SlotGroupReplicationProducers producers = new SlotGroupReplicationProducers(properties, source.output());
+        producers.setMeterRegistry(meterRegistry.getIfAvailable());
+        return producers;
+    }
+
+    static MappedFileLsnCheckpointStore createCheckpointStore(PgCdcSourceProperties properties,
+                                                              String replicationSlot) throws IOException {
+        return new MappedFileLsnCheckpointStore(new File(properties.getCheckpointDirectory(), replicationSlot + ".lsn"));
+    }
+
+    /**
+     * Resumes from the checkpoint LSN, if it is past the configured start position. The checkpoint of a newly created
+     * slot belongs to the previous slot and is cleared instead.
+     *
+     * @return Returns the LSN to start streaming from, or {@link LogSequenceNumber#INVALID_LSN} for the slot position.
+     */
+    static LogSequenceNumber resolveStartPosition(LsnCheckpointStore checkpointStore, boolean slotCreated,
+                                                  LogSequenceNumber startPosition) {
+        if (checkpointStore == null) {
+            return startPosition;
+        }
+        if (slotCreated) {
+            checkpointStore.save(LogSequenceNumber.INVALID_LSN);
+            return startPosition;
+        }
+        LogSequenceNumber checkpoint = checkpointStore.load();
+        if (checkpoint.asLong() > startPosition.asLong()) {
+            LOG.info("Resuming from the checkpoint LSN: " + checkpoint.asString());
+            return checkpoint;
+        }
+        return startPosition;
+    }
+
+    /**
+     * @return Returns the meters of the replication slot, or null if no meter registry is available.
+     */
+    static PgCdcSourceMetrics createMetrics(MeterRegistry meterRegistry, PgCdcSourceProperties properties,
+                                            String replicationSlot) {
+        return (meterRegistry != null) ? new PgCdcSourceMetrics(meterRegistry, properties, replicationSlot) : null;
+    }
+
+    /**
+     * @return Returns the heartbeat, or null if the heartbeat interval is 0.
+     */
+    static Heartbeat createHeartbeat(PgCdcSourceProperties properties) {
+        return (properties.getHeartbeat().getInterval() > 0) ? new Heartbeat(properties) : null;
+    }
+
+    /**
+     * @return Returns the filter of the decoded change events, or null if no filter rule is set.
+     */
+    static ChangeEventFilter createChangeEventFilter(PgCdcSourceProperties properties,
+                                                     PrimaryKeyColumnIndices primaryKeyColumnIndices) {
+        return createChangeEventFilter(properties, null, primaryKeyColumnIndices);
+    }
+
+    /**
+     * The wal2json plugin streams only the tables of the slot group, pushed down as 'add-tables'. The events of the
+     * other plugins are filtered by the source instead.
+     *
+     * @param slotTables Tables of the slot group, or null if all tables are streamed.
+     */
+    static ChangeEventFilter createChangeEventFilter(PgCdcSourceProperties properties, String slotTables,
+                                                     PrimaryKeyColumnIndices primaryKeyColumnIndices) {
+        PgCdcSourceProperties.Filter filter = properties.getFilter();
+        if (slotTables != null && PgCdcSourceProperties.OUTPUT_PLUGIN_WAL2JSON.equals(properties.getOutputPlugin())) {
+            slotTables = null;
+        }
+        if (slotTables != null && properties.isTestDecoding()
+                && properties.getTestDecodingOutput() == PgCdcSourceProperties.TestDecodingOutput.transaction) {
+            throw new IllegalStateException("The slot group tables are not applied to the test_decoding " +
+                    "transactions emitted as-is! Use the test-decoding-output=change option.");
+        }
+        if (!filter.isEnabled() && slotTables == null) {
+            return null;
+        }
+        boolean decodedTestDecoding = properties.isTestDecoding()
+                && properties.getTestDecodingOutput() == PgCdcSourceProperties.TestDecodingOutput.change;
+        if (!properties.isPgOutput() && !decodedTestDecoding && !properties.isFormatVersion2()
+                && !properties.isWriteInChunks() && (!filter.getOperations().isEmpty()
+                || filter.getIncludeColumns() != null || filter.getExcludeColumns() != null)) {
+            LOG.warn("The operation and column filters are not applied to the transactions emitted as-is! " +
+                    "Use the wal2json format-version=2 or write-in-chunks option.");
+        }
+        return new ChangeEventFilter(filter, slotTables, primaryKeyColumnIndices);
+    }
+
+    /**
+     * @return Returns the incremental snapshot, saving its progress next to the LSN checkpoint of the slot, if any.
+     */
+    static IncrementalSnapshot createIncrementalSnapshot(PgCdcSourceProperties properties, String replicationSlot,
+                                                         String tables) {
+        if (!properties.isPgOutput() && !properties.isFormatVersion2()) {
+            throw new IllegalStateException("Incremental snapshots require the pgoutput plugin or the wal2json " +
+                    "format-version=2 option!");
+        }
+        File progressFile = (properties.getCheckpointDirectory() != null) ?
+                new File(properties.getCheckpointDirectory(), replicationSlot + ".snapshot") : null;
+        return new IncrementalSnapshot(properties, tables, progressFile);
+    }
+
+    static ReplicationMessageDecoder createReplicationMessageDecoder(PgCdcSourceProperties properties) {
+        if (properties.isPgOutput()) {
+            if (properties.getBatch().isEnabled()) {
+                LOG.warn("Batching is not applicable to the pgoutput plugin and will be ignored!");
+            }
+            return new PgOutputDecoder(properties.getChunkSize());
+        }
+        if (properties.isTestDecoding()) {
+            if (properties.getBatch().isEnabled()) {
+                LOG.warn("Batching is not applicable to the test_decoding plugin and will be ignored!");
+            }
+            if (properties.getTestDecodingOutput() == PgCdcSourceProperties.TestDecodingOutput.transaction) {
+                return new TestDecodingTransactionDecoder(properties.getPayloadType());
+            }
+            PgCdcSourceProperties.Spill spill = properties.getSpill();
+            File spillDirectory = StringUtils.hasText(spill.getDirectory()) ? new File(spill.getDirectory()) : null;
+            return new TestDecodingDecoder(properties.getChunkSize(), SpillingTransactionBuffer.forChunkSize(
+                    properties.getChunkSize(), spill.getMaxInMemoryEvents(), spillDirectory, spill.getSegmentSize()));
+        }
+        if (properties.isFormatVersion2()) {
+            if (properties.getBatch().isEnabled()) {
+                LOG.warn("Batching is not applicable to the wal2json format-version 2 records and will be ignored!");
+            }
+            return new Wal2JsonV2Decoder();
+        }
+        if (properties.isWriteInChunks()) {
+            if (properties.getBatch().isEnabled()) {
+                LOG.warn("Batching is not applicable to transactions streamed in chunks and will be ignored!");
+            }
+            return new Wal2JsonChunkDecoder(properties.getChunkSize());
+        }
+        if (properties.isPerEvent()) {
+            if (properties.getBatch().isEnabled()) {
+                LOG.warn("Batching is not applicable to the per-event messages and will be ignored!");
+            }
+            return new Wal2JsonDecoder();
+        }
+        return new RawReplicationMessageDecoder(properties.getPayloadType());
+    }
+
+    static ChainedLogicalStreamBuilder createLogicalStreamBuilder(PGConnection replicationConnection,
+                                                                  PgCdcSourceProperties properties,
+                                                                  String replicationSlot,
+                                                                  Properties outputPluginOptions)
+            throws SQLException {
 
+        if (properties.isPgOutput()) {
+            Assert.hasText(outputPluginOptions.getProperty(PgCdcSourceProperties.PGOUTPUT_PUBLICATION_NAMES),
+                    "The pgoutput plugin requires the 'publication_names' output plugin option");
+        }
+
+        return replicationConnection.getReplicationAPI()
+                .replicationStream()
+                .logical()
+                .withSlotName(replicationSlot)
+                .withSlotOptions(outputPluginOptions)
+                .withStatusInterval(properties.getFeedbackInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    static void dropReplicationSlot(PGConnection replicationConnection, PgCdcSourceProperties properties,
+                                    String replicationSlot) {
         if (properties.isRecreateReplicationSlot()) {
             try {
-                replicationConnection.getReplicationAPI().dropReplicationSlot(properties.getReplicationSlot());
+                replicationConnection.getReplicationAPI().dropReplicationSlot(replicationSlot);
             } catch (Exception e) {
                 LOG.warn("Unable to drop replication slot!", e);
             }
         }
+    }
 
+    /**
+     * @return Returns true if the slot was created, false if it exists already.
+     */
+    static boolean createReplicationSlot(PGConnection replicationConnection, PgCdcSourceProperties properties,
+                                         String replicationSlot) throws SQLException {
         try {
             replicationConnection.getReplicationAPI()
                     .createReplicationSlot()
                     .logical()
-                    .withSlotName(properties.getReplicationSlot())
+                    .withSlotName(replicationSlot)
                     .withOutputPlugin(properties.getOutputPlugin())
                     .make();
+            return true;
         } catch (PSQLException e) {
             LOG.warn("Unable to create replication slot!", e);
+            return false;
         }
-
-        ChainedLogicalStreamBuilder builder = replicationConnection.getReplicationAPI()
-                .replicationStream()
-                .logical()
-                .withSlotName(properties.getReplicationSlot())
-                .withSlotOptions(properties.outputPluginOptionsAsProperties());
-
-        // set Start position offset
-        if (properties.getStartPosition() != null) {
-            builder.withStartPosition(LogSequenceNumber.valueOf(properties.getStartPosition()));
-        }
-
-        return builder;
     }
 
-    @Bean
-    public PGConnection replicationConnection(PgCdcSourceProperties properties) throws SQLException {
+    static Connection createReplicationConnection(PgCdcSourceProperties properties) throws SQLException {
 
         LOG.info("Output Plugin Options:" + properties.getOutputPluginOptions());
 
@@ -133,10 +398,37 @@ public class PgCdcSourceConfiguration {
         PGProperty.REPLICATION.set(props, "database");
         PGProperty.PREFER_QUERY_MODE.set(props, "simple");
 
-        Connection con = DriverManager.getConnection(properties.getJdbcUrl(), props);
-        PGConnection replicationConnection = con.unwrap(PGConnection.class);
+        return DriverManager.getConnection(properties.getJdbcUrl(), props);
+    }
+
+    /**
+     * Matches when no slot groups are configured and the source streams from the single replicationSlot.
+     */
+    static class SingleSlotCondition extends SpringBootCondition {
 
-        return replicationConnection;
+        @Override
+        public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return hasSlotGroups(context) ?
+                    ConditionOutcome.noMatch("pg.cdc.slot-groups are configured") :
+                    ConditionOutcome.match("no pg.cdc.slot-groups are configured");
+        }
+    }
+
+    /**
+     * Matches when at least one slot group is configured.
+     */
+    static class SlotGroupsCondition extends SpringBootCondition {
+
+        @Override
+        public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return hasSlotGroups(context) ?
+                    ConditionOutcome.match("pg.cdc.slot-groups are configured") :
+                    ConditionOutcome.noMatch("no pg.cdc.slot-groups are configured");
+        }
     }
 
+    private static boolean hasSlotGroups(ConditionContext context) {
+        return !new RelaxedPropertyResolver(context.getEnvironment(), "pg.cdc.")
+                .getSubProperties("slot-groups").isEmpty();
+    }
 }
\ No newline at end of file
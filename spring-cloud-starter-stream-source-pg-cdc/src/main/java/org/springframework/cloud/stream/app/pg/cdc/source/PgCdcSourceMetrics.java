@@ -0,0 +1,443 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.PGProperty;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.messaging.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of a {@link ReplicationStreamMessageProducer}, tagged with the name of its replication slot:
+ * <ul>
+ * <li>pg.cdc.messages: messages sent to the output</li>
+ * <li>pg.cdc.received.bytes: WAL message bytes received from the server</li>
+ * <li>pg.cdc.reads: WAL message reads, tagged with result=message or result=empty. The empty-poll ratio of the
+ * 'adaptive' read mode is reads{result=empty} / reads.</li>
+ * <li>pg.cdc.lsn.received, pg.cdc.lsn.flushed, pg.cdc.lsn.server: last received, last flushed and current server
+ * WAL LSN</li>
+ * <li>pg.cdc.lag.received, pg.cdc.lag.flushed: bytes between the server WAL LSN and the received or flushed LSN</li>
+ * <li>pg.cdc.wal.retained: bytes of WAL retained by the server for the replication slot, i.e. between the server WAL
+ * LSN and the slot's restart LSN</li>
+ * <li>pg.cdc.commit.latency: histogram of the time between the transaction commit and the send of its messages</li>
+ * <li>pg.cdc.stream.up: 1 while the replication stream is connected, 0 while it is reconnecting</li>
+ * <li>pg.cdc.reconnects: successful reconnects of the replication stream</li>
+ * </ul>
+ * The server WAL LSN and the slot's restart LSN are polled over a separate JDBC connection, every serverLsnInterval
+ * milliseconds. The commit
+ * latency is measured for the decoded {@link Change} messages, and for the wal2json transactions emitted as-is, whose
+ * "timestamp" is found by a scan of their leading bytes, without parsing them. A batch of transactions is measured by
+ * its first transaction. It includes any clock skew between the database and the source hosts.
+ * <p>
+ * The update methods are called from the reader thread.
+ *
+ * @author Christian Tzolov
+ */
+public class PgCdcSourceMetrics {
+
+    private static final Log LOG = LogFactory.getLog(PgCdcSourceMetrics.class);
+
+    private static final String PREFIX = "pg.cdc.";
+
+    /**
+     * Parses the wal2json and pgoutput commit timestamps, e.g. 2017-10-03 11:22:43.773734+02.
+     */
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .appendOffset("+HH:mm", "+00")
+            .toFormatter();
+
+    /**
+     * Upper bound of the offset of the "timestamp" field in a wal2json transaction emitted as-is. The field follows
+     * the "xid" in the document header, the change events are not searched.
+     */
+    private static final int MAX_TIMESTAMP_OFFSET = 256;
+
+    private static final String TIMESTAMP_FIELD = "\"timestamp\"";
+
+    private final PgCdcSourceProperties properties;
+
+    private final String replicationSlot;
+
+    private final Counter messages;
+
+    private final Counter receivedBytes;
+
+    private final Counter messageReads;
+
+    private final Counter emptyReads;
+
+    private final Timer commitLatency;
+
+    private final Counter reconnects;
+
+    private volatile boolean streamUp = true;
+
+    private volatile long receivedLsn = LogSequenceNumber.INVALID_LSN.asLong();
+
+    private volatile long flushedLsn = LogSequenceNumber.INVALID_LSN.asLong();
+
+    private volatile long serverLsn = LogSequenceNumber.INVALID_LSN.asLong();
+
+    private volatile long restartLsn = LogSequenceNumber.INVALID_LSN.asLong();
+
+    /**
+     * Last parsed commit timestamp and its epoch milliseconds. The messages of a transaction share the timestamp.
+     */
+    private String lastTimestamp;
+
+    private long lastCommitTimeMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    private Connection connection;
+
+    public PgCdcSourceMetrics(MeterRegistry registry, PgCdcSourceProperties properties, String replicationSlot) {
+        this.properties = properties;
+        this.replicationSlot = replicationSlot;
+
+        Tags tags = Tags.of("slot", replicationSlot);
+        this.messages = Counter.builder(PREFIX + "messages")
+                .description("Messages sent to the output")
+                .tags(tags).register(registry);
+        this.receivedBytes = Counter.builder(PREFIX + "received.bytes")
+                .description("WAL message bytes received from the server")
+                .baseUnit("bytes").tags(tags).register(registry);
+        this.messageReads = Counter.builder(PREFIX + "reads")
+                .description("WAL message reads")
+                .tags(tags).tag("result", "message").register(registry);
+        this.emptyReads = Counter.builder(PREFIX + "reads")
+                .description("WAL message reads")
+                .tags(tags).tag("result", "empty").register(registry);
+        this.commitLatency = Timer.builder(PREFIX + "commit.latency")
+                .description("Time between the transaction commit and the send of its messages")
+                .publishPercentileHistogram()
+                .tags(tags).register(registry);
+        this.reconnects = Counter.builder(PREFIX + "reconnects")
+                .description("Successful reconnects of the replication stream")
+                .tags(tags).register(registry);
+
+        gauge(registry, "stream.up", "Whether the replication stream is connected", tags,
+                new ToDoubleFunction<PgCdcSourceMetrics>() {
+                    @Override
+                    public double applyAsDouble(PgCdcSourceMetrics metrics) {
+                        return metrics.streamUp ? 1 : 0;
+                    }
+                });
+        gauge(registry, "lsn.received", "Last received WAL LSN", tags, new ToDoubleFunction<PgCdcSourceMetrics>() {
+            @Override
+            public double applyAsDouble(PgCdcSourceMetrics metrics) {
+                return lsn(metrics.receivedLsn);
+            }
+        });
+        gauge(registry, "lsn.flushed", "Last flushed WAL LSN", tags, new ToDoubleFunction<PgCdcSourceMetrics>() {
+            @Override
+            public double applyAsDouble(PgCdcSourceMetrics metrics) {
+                return lsn(metrics.flushedLsn);
+            }
+        });
+        gauge(registry, "lsn.server", "Current server WAL LSN", tags, new ToDoubleFunction<PgCdcSourceMetrics>() {
+            @Override
+            public double applyAsDouble(PgCdcSourceMetrics metrics) {
+                return lsn(metrics.serverLsn);
+            }
+        });
+        gauge(registry, "lag.received", "Bytes between the server WAL LSN and the received LSN", tags,
+                new ToDoubleFunction<PgCdcSourceMetrics>() {
+                    @Override
+                    public double applyAsDouble(PgCdcSourceMetrics metrics) {
+                        return lag(metrics.serverLsn, metrics.receivedLsn);
+                    }
+                });
+        gauge(registry, "lag.flushed", "Bytes between the server WAL LSN and the flushed LSN", tags,
+                new ToDoubleFunction<PgCdcSourceMetrics>() {
+                    @Override
+                    public double applyAsDouble(PgCdcSourceMetrics metrics) {
+                        return lag(metrics.serverLsn, metrics.flushedLsn);
+                    }
+                });
+        gauge(registry, "wal.retained", "Bytes of WAL retained by the server for the replication slot", tags,
+                new ToDoubleFunction<PgCdcSourceMetrics>() {
+                    @Override
+                    public double applyAsDouble(PgCdcSourceMetrics metrics) {
+                        return lag(metrics.serverLsn, metrics.restartLsn);
+                    }
+                });
+    }
+
+    private void gauge(MeterRegistry registry, String name, String description, Tags tags,
+                       ToDoubleFunction<PgCdcSourceMetrics> function) {
+        Gauge.builder(PREFIX + name, this, function).description(description).tags(tags).register(registry);
+    }
+
+    /**
+     * Starts polling the server WAL LSN and the slot's restart LSN, unless the serverLsnInterval is 0.
+     */
+    public synchronized void start() {
+        long interval = this.properties.getMetrics().getServerLsnInterval();
+        if (interval <= 0 || this.scheduler != null) {
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pg-cdc-metrics-" + replicationSlot);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                pollServerLsn();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling the server WAL LSN and closes the connection.
+     */
+    public synchronized void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        closeConnection();
+    }
+
+    /**
+     * @param bytes Size of the WAL message read, or -1 if no message was pending.
+     * @param lsn   LSN of the WAL message read.
+     */
+    public void read(int bytes, LogSequenceNumber lsn) {
+        if (bytes < 0) {
+            this.emptyReads.increment();
+            return;
+        }
+        this.messageReads.increment();
+        this.receivedBytes.increment(bytes);
+        if (lsn != null) {
+            this.receivedLsn = lsn.asLong();
+        }
+    }
+
+    /**
+     * @param message Message sent to the output.
+     */
+    public void sent(Message<?> message) {
+        this.messages.increment();
+
+        if (Boolean.TRUE.equals(message.getHeaders().get(PgCdcHeaders.SNAPSHOT))) {
+            return;
+        }
+        String timestamp = null;
+        if (message.getPayload() instanceof Change) {
+            timestamp = ((Change) message.getPayload()).getTimestamp();
+        } else if (message.getPayload() instanceof byte[]) {
+            timestamp = rawTimestamp((byte[]) message.getPayload());
+        } else if (message.getPayload() instanceof String) {
+            timestamp = rawTimestamp((String) message.getPayload());
+        }
+        if (timestamp != null) {
+            long commitTimeMillis = commitTimeMillis(timestamp);
+            if (commitTimeMillis > 0) {
+                this.commitLatency.record(Math.max(0, System.currentTimeMillis() - commitTimeMillis),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * @param lsn LSN reported as flushed to the server.
+     */
+    public void flushed(LogSequenceNumber lsn) {
+        this.flushedLsn = lsn.asLong();
+    }
+
+    /**
+     * Marks the replication stream as failed.
+     */
+    public void disconnected() {
+        this.streamUp = false;
+    }
+
+    /**
+     * Marks the replication stream as reconnected.
+     */
+    public void connected() {
+        this.streamUp = true;
+        this.reconnects.increment();
+    }
+
+    /**
+     * @return Returns the epoch milliseconds of the commit timestamp, or -1 if it is missing or can't be parsed.
+     */
+    long commitTimeMillis(String timestamp) {
+        if (timestamp == null) {
+            return -1;
+        }
+        if (!timestamp.equals(this.lastTimestamp)) {
+            try {
+                this.lastCommitTimeMillis = OffsetDateTime.parse(timestamp, TIMESTAMP_FORMATTER)
+                        .toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                this.lastCommitTimeMillis = -1;
+            }
+            this.lastTimestamp = timestamp;
+        }
+        return this.lastCommitTimeMillis;
+    }
+
+    /**
+     * @param bytes wal2json transaction document, or JSON array of documents, emitted as-is.
+     * @return Returns the value of the first "timestamp" field within the document header, or null if there is none.
+     */
+    static String rawTimestamp(byte[] bytes) {
+        int last = Math.min(bytes.length, MAX_TIMESTAMP_OFFSET) - TIMESTAMP_FIELD.length();
+        outer:
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < TIMESTAMP_FIELD.length(); j++) {
+                if (bytes[i + j] != TIMESTAMP_FIELD.charAt(j)) {
+                    continue outer;
+                }
+            }
+            // skip the colon and the white space up to the opening quote of the value
+            int start = i + TIMESTAMP_FIELD.length();
+            while (start < bytes.length && bytes[start] != '"') {
+                if (bytes[start] != ':' && !Character.isWhitespace(bytes[start])) {
+                    return null;
+                }
+                start++;
+            }
+            int end = start + 1;
+            while (end < bytes.length && bytes[end] != '"') {
+                end++;
+            }
+            return (end < bytes.length) ? new String(bytes, start + 1, end - start - 1, StandardCharsets.US_ASCII) :
+                    null;
+        }
+        return null;
+    }
+
+    /**
+     * @param text wal2json transaction document, or JSON array of documents, emitted as-is.
+     * @return Returns the value of the first "timestamp" field within the document header, or null if there is none.
+     */
+    static String rawTimestamp(String text) {
+        int last = Math.min(text.length(), MAX_TIMESTAMP_OFFSET) - TIMESTAMP_FIELD.length();
+        for (int i = 0; i <= last; i++) {
+            if (!text.startsWith(TIMESTAMP_FIELD, i)) {
+                continue;
+            }
+            int start = i + TIMESTAMP_FIELD.length();
+            while (start < text.length() && text.charAt(start) != '"') {
+                if (text.charAt(start) != ':' && !Character.isWhitespace(text.charAt(start))) {
+                    return null;
+                }
+                start++;
+            }
+            int end = text.indexOf('"', start + 1);
+            return (start < text.length() && end > 0) ? text.substring(start + 1, end) : null;
+        }
+        return null;
+    }
+
+    private void pollServerLsn() {
+        try {
+            Connection connection = connection();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(
+                         (connection.getMetaData().getDatabaseMajorVersion() >= 10) ?
+                                 "SELECT pg_current_wal_lsn()" : "SELECT pg_current_xlog_location()")) {
+                if (resultSet.next()) {
+                    this.serverLsn = LogSequenceNumber.valueOf(resultSet.getString(1)).asLong();
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT restart_lsn FROM pg_replication_slots WHERE slot_name = ?")) {
+                statement.setString(1, this.replicationSlot);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    this.restartLsn = (resultSet.next() && resultSet.getString(1) != null) ?
+                            LogSequenceNumber.valueOf(resultSet.getString(1)).asLong() :
+                            LogSequenceNumber.INVALID_LSN.asLong();
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warn("Failed to read the server WAL LSN", e);
+            closeConnection();
+        }
+    }
+
+    private synchronized Connection connection() throws SQLException {
+        if (this.connection == null) {
+            Properties props = new Properties();
+            PGProperty.USER.set(props, this.properties.getJdbcUser());
+            PGProperty.PASSWORD.set(props, this.properties.getJdbcPassword());
+            this.connection = DriverManager.getConnection(this.properties.getJdbcUrl(), props);
+        }
+        return this.connection;
+    }
+
+    private synchronized void closeConnection() {
+        if (this.connection != null) {
+            try {
+                this.connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Unable to close the metrics connection!", e);
+            }
+            this.connection = null;
+        }
+    }
+
+    private static double lsn(long lsn) {
+        return (lsn == LogSequenceNumber.INVALID_LSN.asLong()) ? Double.NaN : lsn;
+    }
+
+    private static double lag(long serverLsn, long lsn) {
+        if (serverLsn == LogSequenceNumber.INVALID_LSN.asLong() || lsn == LogSequenceNumber.INVALID_LSN.asLong()) {
+            return Double.NaN;
+        }
+        return Math.max(0, serverLsn - lsn);
+    }
+}
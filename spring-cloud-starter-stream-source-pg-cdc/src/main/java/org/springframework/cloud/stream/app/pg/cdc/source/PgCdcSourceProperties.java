@@ -17,10 +17,14 @@
 package org.springframework.cloud.stream.app.pg.cdc.source;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
 import org.springframework.validation.annotation.Validated;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -36,6 +40,65 @@ public class PgCdcSourceProperties {
 
     public static final String OUTPUT_PLUGIN_WAL2JSON = "wal2json";
 
+    public static final String OUTPUT_PLUGIN_PGOUTPUT = "pgoutput";
+
+    public static final String OUTPUT_PLUGIN_TEST_DECODING = "test_decoding";
+
+    public static final String PGOUTPUT_PUBLICATION_NAMES = "publication_names";
+
+    public static final String WAL2JSON_WRITE_IN_CHUNKS = "write-in-chunks";
+
+    public static final String WAL2JSON_FORMAT_VERSION = "format-version";
+
+    public static final String WAL2JSON_INCLUDE_PK = "include-pk";
+
+    public static final String WAL2JSON_ADD_TABLES = "add-tables";
+
+    public static final String WAL2JSON_FILTER_TABLES = "filter-tables";
+
+    /**
+     * Defines how the replication stream reader waits for new WAL messages.
+     */
+    public enum ReadMode {
+        /**
+         * Block on the replication stream socket until a message arrives.
+         */
+        blocking,
+        /**
+         * Poll for pending messages and park the reader thread with a growing back-off while the stream is idle.
+         */
+        adaptive
+    }
+
+    /**
+     * Defines the payload type of the emitted WAL messages.
+     */
+    public enum PayloadType {
+        /**
+         * UTF-8 decoded {@link String} payload.
+         */
+        string,
+        /**
+         * Raw UTF-8 encoded byte[] payload.
+         */
+        bytes
+    }
+
+    /**
+     * Defines how the lines of the test_decoding plugin are emitted.
+     */
+    public enum TestDecodingOutput {
+        /**
+         * Decode every transaction into {@link org.springframework.cloud.stream.app.pg.cdc.wal2json.Change}
+         * sub-batches.
+         */
+        change,
+        /**
+         * Emit the undecoded lines of every transaction as a single JSON array message, keyed by the transaction id.
+         */
+        transaction
+    }
+
     /**
      * In the context of logical replication, a slot represents a stream of changes that can be replayed to a client
      * in the order they were made on the origin server. Each slot streams a sequence of changes from a single database.
@@ -78,7 +141,8 @@ public class PgCdcSourceProperties {
 
     /**
      * Name of the output plugin configured in DB. The output plugin transform the data from the write-ahead log's
-     * internal representation into the format the consumer of a replication slot desires.
+     * internal representation into the format the consumer of a replication slot desires. Supports 'wal2json' and
+     * the built-in 'pgoutput' and 'test_decoding' plugins.
      */
     @NotNull
     private String outputPlugin = OUTPUT_PLUGIN_WAL2JSON;
@@ -90,6 +154,107 @@ public class PgCdcSourceProperties {
      */
     private Map<String, String> outputPluginOptions = new HashMap<>();
 
+    /**
+     * How the dedicated reader thread waits for new WAL messages. The 'blocking' mode waits on the replication
+     * stream socket. The 'adaptive' mode polls for pending messages and backs off while the stream is idle.
+     */
+    @NotNull
+    private ReadMode readMode = ReadMode.adaptive;
+
+    /**
+     * Upper bound (in milliseconds) of the idle back-off applied by the 'adaptive' read mode.
+     */
+    private long maxIdleBackoff = 100;
+
+    /**
+     * Payload type of the emitted WAL messages. The 'string' type decodes the message as UTF-8 text. The 'bytes'
+     * type emits the raw UTF-8 bytes with an 'application/json' content type, avoiding the charset decoding copy.
+     */
+    @NotNull
+    private PayloadType payloadType = PayloadType.string;
+
+    /**
+     * Interval (in milliseconds) for reporting the applied and flushed LSN back to the server. Only the LSN up to
+     * which all emitted messages were confirmed by the output binder is reported.
+     */
+    private int feedbackInterval = 1000;
+
+    /**
+     * Maximum number of change events in a transaction sub-batch, when the wal2json 'write-in-chunks' option is
+     * enabled or the pgoutput or test_decoding plugin is used. Large transactions are emitted as a sequence of
+     * sub-batches instead of a single message.
+     */
+    private int chunkSize = 1000;
+
+    /**
+     * Emit every change event as a separate message, with the dataset, key hash and transaction LSN headers, so the
+     * binder can partition the events by key (e.g. partitionKeyExpression=headers['pg_cdc_key_hash']).
+     */
+    private boolean perEvent = false;
+
+    /**
+     * Output of the test_decoding plugin. 'change' decodes every transaction in the source. 'transaction' emits all
+     * lines of a transaction, from BEGIN to COMMIT, as a single JSON array message keyed by the transaction id, so
+     * the decoding-adapter processor keeps no state across messages and can be scaled out.
+     */
+    @NotNull
+    private TestDecodingOutput testDecodingOutput = TestDecodingOutput.change;
+
+    /**
+     * Directory of the local LSN checkpoint files, one per replication slot. When set, the LSN up to which all
+     * messages were delivered is saved on every feedback, the stream resumes from it after a restart and the
+     * replayed WAL messages at or below it are skipped. The progress of an incremental snapshot is saved next to it.
+     */
+    private String checkpointDirectory;
+
+    /**
+     * Micro-batching of the emitted WAL messages.
+     */
+    private final Batch batch = new Batch();
+
+    /**
+     * Initial snapshot of the existing table contents, taken when the replication slot is created, and incremental
+     * snapshots requested while streaming.
+     */
+    private final Snapshot snapshot = new Snapshot();
+
+    /**
+     * Table, operation and column filters of the streamed changes.
+     */
+    private final Filter filter = new Filter();
+
+    /**
+     * Micrometer meters of the replication stream. Registered when a MeterRegistry is available.
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * Reconnect of the replication stream after a connection failure.
+     */
+    private final Reconnect reconnect = new Reconnect();
+
+    /**
+     * Hand-over of the WAL messages from the reader thread to a publisher thread.
+     */
+    private final Pipeline pipeline = new Pipeline();
+
+    /**
+     * Heartbeat records written to the WAL, so the replication slot advances while the streamed tables are idle.
+     */
+    private final Heartbeat heartbeat = new Heartbeat();
+
+    /**
+     * Spilling of the large test_decoding transactions into temporary segment files.
+     */
+    private final Spill spill = new Spill();
+
+    /**
+     * Replication slot groups. When set, every group streams its own tables from its own replication slot, over a
+     * dedicated connection and reader thread, instead of the single replicationSlot.
+     */
+    @Valid
+    private List<SlotGroup> slotGroups = new ArrayList<>();
+
     private static final Map<String, String> DEFAULT_WAL2JSON_OUTPUT_PLUGIN_OPTIONS = new HashMap<String, String>() {{
         //Include the transaction ID to the change events
         put("include-xids", "true");
@@ -103,8 +268,22 @@ public class PgCdcSourceProperties {
         put("include-schemas", "true");
         // Include the column types
         put("include-types", "true");
-        //
-        put("write-in-chunks", "false");
+        // Write the whole transaction as a single message. When enabled the transactions are streamed in chunks.
+        put(WAL2JSON_WRITE_IN_CHUNKS, "false");
+    }};
+
+    private static final Map<String, String> DEFAULT_PGOUTPUT_OUTPUT_PLUGIN_OPTIONS = new HashMap<String, String>() {{
+        // The logical replication protocol version
+        put("proto_version", "1");
+    }};
+
+    private static final Map<String, String> DEFAULT_TEST_DECODING_OUTPUT_PLUGIN_OPTIONS = new HashMap<String, String>() {{
+        // Include the transaction ID to the BEGIN and COMMIT lines
+        put("include-xids", "true");
+        // Include the commit timestamp to the COMMIT lines
+        put("include-timestamp", "true");
+        // Skip the BEGIN/COMMIT lines of the transactions without changes
+        put("skip-empty-xacts", "true");
     }};
 
     public String getReplicationSlot() {
@@ -172,15 +351,171 @@ public class PgCdcSourceProperties {
         this.outputPluginOptions = outputPluginOptions;
     }
 
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    public void setReadMode(ReadMode readMode) {
+        this.readMode = readMode;
+    }
+
+    public long getMaxIdleBackoff() {
+        return maxIdleBackoff;
+    }
+
+    public void setMaxIdleBackoff(long maxIdleBackoff) {
+        this.maxIdleBackoff = maxIdleBackoff;
+    }
+
+    public PayloadType getPayloadType() {
+        return payloadType;
+    }
+
+    public void setPayloadType(PayloadType payloadType) {
+        this.payloadType = payloadType;
+    }
+
+    public int getFeedbackInterval() {
+        return feedbackInterval;
+    }
+
+    public void setFeedbackInterval(int feedbackInterval) {
+        this.feedbackInterval = feedbackInterval;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public boolean isPerEvent() {
+        return perEvent;
+    }
+
+    public void setPerEvent(boolean perEvent) {
+        this.perEvent = perEvent;
+    }
+
+    public TestDecodingOutput getTestDecodingOutput() {
+        return testDecodingOutput;
+    }
+
+    public void setTestDecodingOutput(TestDecodingOutput testDecodingOutput) {
+        this.testDecodingOutput = testDecodingOutput;
+    }
+
+    public String getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    public void setCheckpointDirectory(String checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Reconnect getReconnect() {
+        return reconnect;
+    }
+
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    public Heartbeat getHeartbeat() {
+        return heartbeat;
+    }
+
+    public Spill getSpill() {
+        return spill;
+    }
+
+    public List<SlotGroup> getSlotGroups() {
+        return slotGroups;
+    }
+
+    public void setSlotGroups(List<SlotGroup> slotGroups) {
+        this.slotGroups = slotGroups;
+    }
+
     public Map<String, String> outputPluginOptionsWithDefaults() {
         if (OUTPUT_PLUGIN_WAL2JSON.equals(getOutputPlugin())) {
             HashMap<String, String> wal2jsonOptions = new HashMap<>(DEFAULT_WAL2JSON_OUTPUT_PLUGIN_OPTIONS);
+            if ("2".equals(getOutputPluginOptions().get(WAL2JSON_FORMAT_VERSION))) {
+                // The primary key columns are needed to compute the INSERT keys. Available with format-version 2 only.
+                wal2jsonOptions.put(WAL2JSON_INCLUDE_PK, "true");
+            }
+            // push the table filters down, so the filtered tables are not even decoded by the server
+            if (getFilter().getIncludeTables() != null) {
+                wal2jsonOptions.put(WAL2JSON_ADD_TABLES, getFilter().getIncludeTables());
+            }
+            if (getFilter().getExcludeTables() != null) {
+                wal2jsonOptions.put(WAL2JSON_FILTER_TABLES, getFilter().getExcludeTables());
+            }
             wal2jsonOptions.putAll(getOutputPluginOptions());
             return wal2jsonOptions;
         }
+        if (OUTPUT_PLUGIN_PGOUTPUT.equals(getOutputPlugin())) {
+            HashMap<String, String> pgoutputOptions = new HashMap<>(DEFAULT_PGOUTPUT_OUTPUT_PLUGIN_OPTIONS);
+            pgoutputOptions.putAll(getOutputPluginOptions());
+            return pgoutputOptions;
+        }
+        if (OUTPUT_PLUGIN_TEST_DECODING.equals(getOutputPlugin())) {
+            HashMap<String, String> testDecodingOptions = new HashMap<>(DEFAULT_TEST_DECODING_OUTPUT_PLUGIN_OPTIONS);
+            testDecodingOptions.putAll(getOutputPluginOptions());
+            return testDecodingOptions;
+        }
         return getOutputPluginOptions();
     }
 
+    /**
+     * @return Returns true if the built-in pgoutput binary plugin is configured.
+     */
+    public boolean isPgOutput() {
+        return OUTPUT_PLUGIN_PGOUTPUT.equals(getOutputPlugin());
+    }
+
+    /**
+     * @return Returns true if the built-in test_decoding text plugin is configured.
+     */
+    public boolean isTestDecoding() {
+        return OUTPUT_PLUGIN_TEST_DECODING.equals(getOutputPlugin());
+    }
+
+    /**
+     * @return Returns true if the wal2json plugin is configured to write a separate record per tuple
+     * (format-version 2) instead of one document per transaction.
+     */
+    public boolean isFormatVersion2() {
+        return OUTPUT_PLUGIN_WAL2JSON.equals(getOutputPlugin())
+                && "2".equals(outputPluginOptionsWithDefaults().get(WAL2JSON_FORMAT_VERSION));
+    }
+
+    /**
+     * @return Returns true if the wal2json plugin is configured to stream the transactions in chunks.
+     */
+    public boolean isWriteInChunks() {
+        return OUTPUT_PLUGIN_WAL2JSON.equals(getOutputPlugin())
+                && Boolean.valueOf(outputPluginOptionsWithDefaults().get(WAL2JSON_WRITE_IN_CHUNKS));
+    }
+
     /**
      * Helper method to convert the output plugin options into {@link Properties} instance.
      *
@@ -192,4 +527,455 @@ public class PgCdcSourceProperties {
         return outputPluginOptionsProperties;
     }
 
-}
\ No newline at end of file
+    /**
+     * Combines the outputPluginOptions with the slot group specific options and table filter.
+     *
+     * @param slotGroup Slot group to compute the output plugin options for.
+     * @return Returns new {@link Properties} that contains the output plugin options of the slot group.
+     */
+    public Properties outputPluginOptionsAsProperties(SlotGroup slotGroup) {
+        Properties outputPluginOptionsProperties = outputPluginOptionsAsProperties();
+        if (slotGroup.getTables() != null && OUTPUT_PLUGIN_WAL2JSON.equals(getOutputPlugin())) {
+            outputPluginOptionsProperties.put(WAL2JSON_ADD_TABLES, slotGroup.getTables());
+        }
+        outputPluginOptionsProperties.putAll(slotGroup.getOutputPluginOptions());
+        return outputPluginOptionsProperties;
+    }
+
+    public static class SlotGroup {
+
+        /**
+         * Name of the group's replication slot.
+         */
+        @NotNull
+        private String replicationSlot;
+
+        /**
+         * Comma separated list of the schema qualified tables streamed by the group (e.g. public.orders,public.items).
+         * Applied as the wal2json 'add-tables' filter. The events of the pgoutput and test_decoding plugins are
+         * filtered by the source, for pgoutput set the group's publication_names output plugin option too, so the
+         * other tables are not decoded at all.
+         */
+        private String tables;
+
+        /**
+         * Output plugin options of the group. Override the common output plugin options.
+         */
+        private Map<String, String> outputPluginOptions = new HashMap<>();
+
+        public String getReplicationSlot() {
+            return replicationSlot;
+        }
+
+        public void setReplicationSlot(String replicationSlot) {
+            this.replicationSlot = replicationSlot;
+        }
+
+        public String getTables() {
+            return tables;
+        }
+
+        public void setTables(String tables) {
+            this.tables = tables;
+        }
+
+        public Map<String, String> getOutputPluginOptions() {
+            return outputPluginOptions;
+        }
+
+        public void setOutputPluginOptions(Map<String, String> outputPluginOptions) {
+            this.outputPluginOptions = outputPluginOptions;
+        }
+    }
+
+    public static class Batch {
+
+        /**
+         * Maximum number of WAL messages (e.g. wal2json transactions) drained into one outbound message. Batching is
+         * disabled when set to 1.
+         */
+        private int maxMessages = 1;
+
+        /**
+         * Maximum size (in bytes) of a batch. The batch is emitted as soon as it reaches this size.
+         */
+        private int maxBytes = 1024 * 1024;
+
+        /**
+         * Maximum time (in milliseconds) to wait for more WAL messages before emitting an incomplete batch.
+         */
+        private long maxLinger = 10;
+
+        public int getMaxMessages() {
+            return maxMessages;
+        }
+
+        public void setMaxMessages(int maxMessages) {
+            this.maxMessages = maxMessages;
+        }
+
+        public int getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public long getMaxLinger() {
+            return maxLinger;
+        }
+
+        public void setMaxLinger(long maxLinger) {
+            this.maxLinger = maxLinger;
+        }
+
+        public boolean isEnabled() {
+            return this.maxMessages > 1;
+        }
+    }
+
+    public static class Spill {
+
+        /**
+         * Number of change events of a test_decoding transaction kept on-heap until it commits. The further events
+         * are spilled into temporary segment files.
+         */
+        private int maxInMemoryEvents = 10000;
+
+        /**
+         * Directory of the spilled transaction segment files. Defaults to the java.io.tmpdir directory.
+         */
+        private String directory;
+
+        /**
+         * Size (in bytes) of a spilled transaction segment file.
+         */
+        private int segmentSize = 64 * 1024 * 1024;
+
+        public int getMaxInMemoryEvents() {
+            return maxInMemoryEvents;
+        }
+
+        public void setMaxInMemoryEvents(int maxInMemoryEvents) {
+            this.maxInMemoryEvents = maxInMemoryEvents;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+    }
+
+    public static class Pipeline {
+
+        /**
+         * Read the WAL messages and send them to the output on separate threads, connected by a ring buffer. A slow
+         * output send doesn't stall the socket reads and vice versa.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of WAL message slots of the ring buffer. Must be a power of two. The reader holds the reads while
+         * all slots are filled.
+         */
+        private int slots = 1024;
+
+        /**
+         * Initial size (in bytes) of a ring buffer slot. Slots grow to fit larger WAL messages.
+         */
+        private int slotBytes = 8192;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getSlots() {
+            return slots;
+        }
+
+        public void setSlots(int slots) {
+            this.slots = slots;
+        }
+
+        public int getSlotBytes() {
+            return slotBytes;
+        }
+
+        public void setSlotBytes(int slotBytes) {
+            this.slotBytes = slotBytes;
+        }
+    }
+
+    public static class Reconnect {
+
+        /**
+         * Reconnect and resume the replication stream from the last confirmed LSN when the connection fails.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Initial delay (in milliseconds) before reconnecting. Doubled after every failed attempt and randomized by
+         * up to half, so several sources don't reconnect in lockstep.
+         */
+        private long initialBackoff = 500;
+
+        /**
+         * Upper bound (in milliseconds) of the delay between the reconnect attempts.
+         */
+        private long maxBackoff = 30000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getInitialBackoff() {
+            return initialBackoff;
+        }
+
+        public void setInitialBackoff(long initialBackoff) {
+            this.initialBackoff = initialBackoff;
+        }
+
+        public long getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        public void setMaxBackoff(long maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+    }
+
+    public static class Heartbeat {
+
+        /**
+         * Interval (in milliseconds) between the heartbeats. No heartbeat is written when set to 0. The heartbeat
+         * messages require the wal2json or test_decoding plugin, or the pgoutput 'messages' option.
+         */
+        private long interval = 0;
+
+        /**
+         * Statement executed as heartbeat instead of writing a 'pg-cdc-heartbeat' logical decoding message, e.g. an
+         * update of a heartbeat table. Exclude the table with the table filter to keep its changes from the output.
+         */
+        private String actionQuery;
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public void setInterval(long interval) {
+            this.interval = interval;
+        }
+
+        public String getActionQuery() {
+            return actionQuery;
+        }
+
+        public void setActionQuery(String actionQuery) {
+            this.actionQuery = actionQuery;
+        }
+    }
+
+    public static class Metrics {
+
+        /**
+         * Interval (in milliseconds) for polling the current server WAL LSN, used to compute the replication lag.
+         * The server LSN is not polled when set to 0.
+         */
+        private long serverLsnInterval = 10000;
+
+        public long getServerLsnInterval() {
+            return serverLsnInterval;
+        }
+
+        public void setServerLsnInterval(long serverLsnInterval) {
+            this.serverLsnInterval = serverLsnInterval;
+        }
+    }
+
+    public static class Filter {
+
+        /**
+         * Comma separated list of the schema qualified tables to stream (e.g. public.orders,*.audit,billing.*). All
+         * tables are streamed when empty. Pushed down to the wal2json 'add-tables' option.
+         */
+        private String includeTables;
+
+        /**
+         * Comma separated list of the schema qualified tables to skip. Pushed down to the wal2json 'filter-tables'
+         * option.
+         */
+        private String excludeTables;
+
+        /**
+         * Kinds of the change events to emit. All kinds are emitted when empty.
+         */
+        private List<ChangeEvent.Kind> operations = new ArrayList<>();
+
+        /**
+         * Comma separated list of the table qualified columns to emit (e.g. public.users.id,public.users.name). The
+         * tables with included columns emit only those and their primary key columns.
+         */
+        private String includeColumns;
+
+        /**
+         * Comma separated list of the table qualified columns to drop from the change events (e.g.
+         * public.users.password). The primary key columns are never dropped.
+         */
+        private String excludeColumns;
+
+        public String getIncludeTables() {
+            return includeTables;
+        }
+
+        public void setIncludeTables(String includeTables) {
+            this.includeTables = includeTables;
+        }
+
+        public String getExcludeTables() {
+            return excludeTables;
+        }
+
+        public void setExcludeTables(String excludeTables) {
+            this.excludeTables = excludeTables;
+        }
+
+        public List<ChangeEvent.Kind> getOperations() {
+            return operations;
+        }
+
+        public void setOperations(List<ChangeEvent.Kind> operations) {
+            this.operations = operations;
+        }
+
+        public String getIncludeColumns() {
+            return includeColumns;
+        }
+
+        public void setIncludeColumns(String includeColumns) {
+            this.includeColumns = includeColumns;
+        }
+
+        public String getExcludeColumns() {
+            return excludeColumns;
+        }
+
+        public void setExcludeColumns(String excludeColumns) {
+            this.excludeColumns = excludeColumns;
+        }
+
+        /**
+         * @return Returns true if any rule is set, that must be applied to the decoded change events.
+         */
+        public boolean isEnabled() {
+            return includeTables != null || excludeTables != null || !operations.isEmpty()
+                    || includeColumns != null || excludeColumns != null;
+        }
+    }
+
+    public static class Snapshot {
+
+        /**
+         * When enabled, a newly created replication slot exports a snapshot and the existing rows of the snapshot
+         * tables are emitted as insert events before streaming the changes from the slot's consistent point.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Comma separated list of the schema qualified tables to snapshot (e.g. public.orders,public.items). All
+         * user tables are read when empty. Slot groups snapshot their own tables.
+         */
+        private String tables;
+
+        /**
+         * Number of connections copying the table chunks in parallel.
+         */
+        private int parallelism = 4;
+
+        /**
+         * Number of rows copied by a single chunk. Only the tables with a single integer column primary key are
+         * split into chunks, the other tables are copied as a single chunk.
+         */
+        private long rowsPerChunk = 100000;
+
+        /**
+         * When enabled, the tables listed in a 'pg-cdc-snapshot' logical decoding message are re-read while the
+         * changes keep streaming. Requires the wal2json 'format-version=2' or the pgoutput 'messages' option.
+         */
+        private boolean incremental = false;
+
+        /**
+         * Maximum number of rows read by a single incremental snapshot chunk. The chunk rows are held in memory
+         * until the chunk's high watermark is received.
+         */
+        private int incrementalChunkRows = 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getTables() {
+            return tables;
+        }
+
+        public void setTables(String tables) {
+            this.tables = tables;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public long getRowsPerChunk() {
+            return rowsPerChunk;
+        }
+
+        public void setRowsPerChunk(long rowsPerChunk) {
+            this.rowsPerChunk = rowsPerChunk;
+        }
+
+        public boolean isIncremental() {
+            return incremental;
+        }
+
+        public void setIncremental(boolean incremental) {
+            this.incremental = incremental;
+        }
+
+        public int getIncrementalChunkRows() {
+            return incrementalChunkRows;
+        }
+
+        public void setIncrementalChunkRows(int incrementalChunkRows) {
+            this.incrementalChunkRows = incrementalChunkRows;
+        }
+    }
+}
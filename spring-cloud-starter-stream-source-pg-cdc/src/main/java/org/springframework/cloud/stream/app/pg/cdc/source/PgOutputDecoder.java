@@ -0,0 +1,462 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.SqlUtils;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the binary messages of the built-in 'pgoutput' logical replication plugin (protocol version 1) into the
+ * same {@link Change} and {@link ChangeEvent} model produced by the wal2json plugin.
+ * <p>
+ * The Relation messages, sent by the server before the first change of a table (and after every schema change), are
+ * cached by relation OID and used to resolve the schema, table, column names and types of the subsequent Insert,
+ * Update and Delete messages. The replica identity columns of the relation are set as the primary key names of the
+ * events. The tuples are read straight from the WAL message buffer. The column values are received in their text
+ * representation and converted to Boolean and Number values for the matching types, like wal2json does. The
+ * unchanged TOASTed values of an update are not sent by the server in the new tuple. They are taken from the old
+ * tuple when it holds them (REPLICA IDENTITY FULL), otherwise they are omitted from the event and their column names
+ * are set as its unchanged columns, so the consumers replacing whole rows keep the previous values.
+ * <p>
+ * The change events between Begin and Commit are emitted as a {@link Change} when the transaction commits, or as
+ * a sequence of sub-batches of at most chunkSize events for larger transactions. Truncate messages have no
+ * {@link ChangeEvent} equivalent and are skipped.
+ * <p>
+ * With the 'messages' option (PostgreSQL 14 or later) the server sends the pg_logical_emit_message messages too, and
+ * the ones addressed to the source are emitted as {@link LogicalMessage}s.
+ *
+ * @author Christian Tzolov
+ */
+public class PgOutputDecoder implements ReplicationMessageDecoder {
+
+    private static final Log LOG = LogFactory.getLog(PgOutputDecoder.class);
+
+    /**
+     * Seconds between the Unix epoch and the PostgreSQL epoch (2000-01-01 00:00:00 UTC).
+     */
+    private static final long POSTGRES_EPOCH_SECONDS = 946684800L;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSSx").withZone(ZoneOffset.UTC);
+
+    /**
+     * Names of the built-in types by OID. The server sends a Type message only for the non built-in types.
+     */
+    private static final Map<Integer, String> BUILTIN_TYPE_NAMES = new HashMap<Integer, String>() {{
+        put(16, "bool");
+        put(17, "bytea");
+        put(18, "char");
+        put(19, "name");
+        put(20, "int8");
+        put(21, "int2");
+        put(23, "int4");
+        put(25, "text");
+        put(26, "oid");
+        put(114, "json");
+        put(600, "point");
+        put(700, "float4");
+        put(701, "float8");
+        put(790, "money");
+        put(1042, "bpchar");
+        put(1043, "varchar");
+        put(1082, "date");
+        put(1083, "time");
+        put(1114, "timestamp");
+        put(1184, "timestamptz");
+        put(1266, "timetz");
+        put(1560, "bit");
+        put(1562, "varbit");
+        put(1700, "numeric");
+        put(2950, "uuid");
+        put(3614, "tsvector");
+        put(3802, "jsonb");
+    }};
+
+    /**
+     * Marks a TOASTed column value that has not changed and is not sent by the server.
+     */
+    private static final Object UNCHANGED_TOAST = new Object();
+
+    private static class Column {
+        private final String name;
+        private final String type;
+        private final boolean key;
+
+        Column(String name, String type, boolean key) {
+            this.name = name;
+            this.type = type;
+            this.key = key;
+        }
+    }
+
+    private static class Relation {
+        private final String schema;
+        private final String table;
+        private final List<Column> columns;
+
+        Relation(String schema, String table, List<Column> columns) {
+            this.schema = schema;
+            this.table = table;
+            this.columns = columns;
+        }
+    }
+
+    private final int chunkSize;
+
+    private final Map<Integer, Relation> relations = new HashMap<>();
+
+    private final Map<Integer, String> typeNames = new HashMap<>();
+
+    /**
+     * Holds the xid, commit LSN and timestamp of the transaction in progress, or null between transactions.
+     */
+    private Change header;
+
+    private List<ChangeEvent> events;
+
+    private int sequence;
+
+    public PgOutputDecoder(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public List<Message<?>> decode(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        ByteBuffer in = byteBuffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        char messageType = (char) in.get();
+        switch (messageType) {
+            case 'B':
+                beginTransaction(in);
+                return Collections.emptyList();
+            case 'C':
+                return Collections.<Message<?>>singletonList(completeTransaction(lsn));
+            case 'R':
+                readRelation(in);
+                return Collections.emptyList();
+            case 'Y':
+                readType(in);
+                return Collections.emptyList();
+            case 'I':
+            case 'U':
+            case 'D':
+                return addChangeEvent(messageType, in, lsn);
+            case 'T':
+                LOG.debug("Skip the pgoutput Truncate message");
+                return Collections.emptyList();
+            case 'O':
+                return Collections.emptyList();
+            case 'M':
+                return decodeMessage(in, lsn);
+            default:
+                LOG.debug("Skip unsupported pgoutput message type: " + messageType);
+                return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Drops the transaction in progress. The relations are kept, the server sends them again before their first use
+     * on the new stream anyway.
+     */
+    @Override
+    public void reset() {
+        this.header = null;
+        this.events = null;
+    }
+
+    private void beginTransaction(ByteBuffer in) {
+        long finalLsn = in.getLong();
+        long commitTime = in.getLong();
+        int xid = in.getInt();
+
+        this.header = new Change();
+        this.header.setXid(xid);
+        this.header.setNextlsn(LogSequenceNumber.valueOf(finalLsn).asString());
+        this.header.setTimestamp(toTimestamp(commitTime));
+        this.events = new ArrayList<>();
+        this.sequence = 0;
+    }
+
+    private Message<?> completeTransaction(LogSequenceNumber lsn) {
+        assertInTransaction();
+        Message<?> lastChunk = emitChunk(lsn, true);
+        this.header = null;
+        this.events = null;
+        return lastChunk;
+    }
+
+    private List<Message<?>> decodeMessage(ByteBuffer in, LogSequenceNumber lsn) {
+        boolean transactional = (in.get() & 1) != 0;
+        in.getLong(); // message LSN
+        String prefix = readString(in);
+        if (!LogicalMessage.isSourceMessage(prefix)) {
+            return Collections.emptyList();
+        }
+        String content = readString(in, in.getInt());
+
+        MessageBuilder<LogicalMessage> builder =
+                MessageBuilder.withPayload(new LogicalMessage(transactional, prefix, content));
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+        return Collections.<Message<?>>singletonList(builder.build());
+    }
+
+    private void readRelation(ByteBuffer in) {
+        int relationId = in.getInt();
+        String schema = readString(in);
+        String table = readString(in);
+        in.get(); // replica identity setting
+        int columnCount = in.getShort();
+
+        List<Column> columns = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            boolean key = (in.get() & 1) != 0;
+            String name = readString(in);
+            int typeOid = in.getInt();
+            in.getInt(); // type modifier
+            columns.add(new Column(name, typeName(typeOid), key));
+        }
+
+        this.relations.put(relationId, new Relation(schema, table, columns));
+    }
+
+    private void readType(ByteBuffer in) {
+        int typeOid = in.getInt();
+        readString(in); // namespace
+        this.typeNames.put(typeOid, readString(in));
+    }
+
+    private List<Message<?>> addChangeEvent(char messageType, ByteBuffer in, LogSequenceNumber lsn) {
+        assertInTransaction();
+
+        int relationId = in.getInt();
+        Relation relation = this.relations.get(relationId);
+        if (relation == null) {
+            throw new IllegalStateException("Received a pgoutput change for unknown relation: " + relationId);
+        }
+
+        ChangeEvent changeEvent = new ChangeEvent();
+        changeEvent.setSchema(relation.schema);
+        changeEvent.setTable(relation.table);
+
+        Object[] oldTuple = null;
+        Object[] newTuple = null;
+        byte tupleType = in.get();
+        if (tupleType == 'K' || tupleType == 'O') {
+            oldTuple = readTuple(in, relation);
+            if (messageType == 'U') {
+                tupleType = in.get();
+            }
+        }
+        if (tupleType == 'N') {
+            newTuple = readTuple(in, relation);
+        }
+
+        switch (messageType) {
+            case 'I':
+                changeEvent.setKind(ChangeEvent.Kind.insert);
+                break;
+            case 'U':
+                changeEvent.setKind(ChangeEvent.Kind.update);
+                break;
+            default:
+                changeEvent.setKind(ChangeEvent.Kind.delete);
+        }
+
+        if (newTuple != null) {
+            setColumns(changeEvent, relation, newTuple, oldTuple);
+        }
+        if (changeEvent.getKind() != ChangeEvent.Kind.insert) {
+            // the old key is sent only if it has changed, otherwise the update key is in the new tuple
+            setOldKeys(changeEvent, relation, oldTuple != null ? oldTuple : newTuple);
+        }
+
+        this.events.add(changeEvent);
+
+        if (this.events.size() >= this.chunkSize) {
+            return Collections.<Message<?>>singletonList(emitChunk(lsn, false));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param oldTuple Old tuple of an update, or null. Holds the unchanged TOASTed values for REPLICA IDENTITY FULL.
+     */
+    private static void setColumns(ChangeEvent changeEvent, Relation relation, Object[] tuple, Object[] oldTuple) {
+        List<String> names = new ArrayList<>(tuple.length);
+        List<String> types = new ArrayList<>(tuple.length);
+        List<Object> values = new ArrayList<>(tuple.length);
+        List<String> keyNames = new ArrayList<>();
+        List<String> unchangedNames = new ArrayList<>();
+        for (int i = 0; i < tuple.length; i++) {
+            Column column = relation.columns.get(i);
+            Object value = tuple[i];
+            if (value == UNCHANGED_TOAST && oldTuple != null) {
+                value = oldTuple[i];
+            }
+            if (value == UNCHANGED_TOAST) {
+                unchangedNames.add(column.name);
+                continue;
+            }
+            names.add(column.name);
+            types.add(column.type);
+            values.add(value);
+            if (column.key) {
+                keyNames.add(column.name);
+            }
+        }
+        changeEvent.setColumnnames(names);
+        changeEvent.setColumntypes(types);
+        changeEvent.setColumnvalues(values);
+        if (!keyNames.isEmpty()) {
+            // the replica identity columns, the primary key by default
+            changeEvent.setPknames(keyNames);
+        }
+        if (!unchangedNames.isEmpty()) {
+            changeEvent.setUnchangedcolumns(unchangedNames);
+        }
+    }
+
+    private static void setOldKeys(ChangeEvent changeEvent, Relation relation, Object[] tuple) {
+        ChangeEvent.OldKeys oldKeys = new ChangeEvent.OldKeys();
+        oldKeys.setKeynames(new ArrayList<String>());
+        oldKeys.setKeytypes(new ArrayList<String>());
+        oldKeys.setKeyvalues(new ArrayList<>());
+        for (int i = 0; i < tuple.length; i++) {
+            Column column = relation.columns.get(i);
+            if (column.key && tuple[i] != UNCHANGED_TOAST) {
+                oldKeys.getKeynames().add(column.name);
+                oldKeys.getKeytypes().add(column.type);
+                oldKeys.getKeyvalues().add(tuple[i]);
+            }
+        }
+        changeEvent.setOldkeys(oldKeys);
+    }
+
+    private static Object[] readTuple(ByteBuffer in, Relation relation) {
+        int columnCount = in.getShort();
+        if (columnCount != relation.columns.size()) {
+            throw new IllegalStateException("Tuple column count " + columnCount + " doesn't match the relation "
+                    + relation.schema + "." + relation.table);
+        }
+
+        Object[] tuple = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            char kind = (char) in.get();
+            switch (kind) {
+                case 'n':
+                    tuple[i] = null;
+                    break;
+                case 'u':
+                    tuple[i] = UNCHANGED_TOAST;
+                    break;
+                case 't':
+                    int length = in.getInt();
+                    tuple[i] = SqlUtils.fromTextValue(relation.columns.get(i).type, readString(in, length));
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported pgoutput tuple data kind: " + kind);
+            }
+        }
+        return tuple;
+    }
+
+    private Message<?> emitChunk(LogSequenceNumber lsn, boolean lastChunk) {
+        Change change = new Change();
+        change.setXid(this.header.getXid());
+        change.setNextlsn(this.header.getNextlsn());
+        change.setTimestamp(this.header.getTimestamp());
+        change.setChange(this.events);
+
+        MessageBuilder<Change> builder = MessageBuilder.withPayload(change)
+                .setHeader(PgCdcHeaders.CHUNK_SEQUENCE, this.sequence++)
+                .setHeader(PgCdcHeaders.LAST_CHUNK, lastChunk)
+                .setHeader(PgCdcHeaders.XID, change.getXid());
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+
+        this.events = new ArrayList<>();
+        return builder.build();
+    }
+
+    private void assertInTransaction() {
+        if (this.header == null) {
+            throw new IllegalStateException("Received a pgoutput change outside of a transaction");
+        }
+    }
+
+    private String typeName(int typeOid) {
+        String name = BUILTIN_TYPE_NAMES.get(typeOid);
+        if (name == null) {
+            name = this.typeNames.get(typeOid);
+        }
+        return (name != null) ? name : String.valueOf(typeOid);
+    }
+
+    private static String toTimestamp(long postgresEpochMicros) {
+        long seconds = Math.floorDiv(postgresEpochMicros, 1000000L);
+        long micros = Math.floorMod(postgresEpochMicros, 1000000L);
+        return TIMESTAMP_FORMATTER.format(Instant.ofEpochSecond(POSTGRES_EPOCH_SECONDS + seconds, micros * 1000));
+    }
+
+    /**
+     * Reads a null-terminated string.
+     */
+    private static String readString(ByteBuffer in) {
+        int start = in.position();
+        int end = start;
+        while (in.get(end) != 0) {
+            end++;
+        }
+        String value = readString(in, end - start);
+        in.get(); // terminator
+        return value;
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
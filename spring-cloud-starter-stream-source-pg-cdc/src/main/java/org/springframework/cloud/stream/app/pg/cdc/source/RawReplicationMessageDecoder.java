@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits every WAL message as-is, either as UTF-8 {@link String} or as raw byte[] payload. The logical message
+ * documents addressed to the source (e.g. heartbeats) are emitted as {@link LogicalMessage}s instead.
+ *
+ * @author Christian Tzolov
+ */
+public class RawReplicationMessageDecoder implements ReplicationMessageDecoder {
+
+    private final PgCdcSourceProperties.PayloadType payloadType;
+
+    public RawReplicationMessageDecoder(PgCdcSourceProperties.PayloadType payloadType) {
+        this.payloadType = payloadType;
+    }
+
+    @Override
+    public List<Message<?>> decode(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        Message<?> logicalMessage = Wal2JsonDecoder.toSourceMessage(byteBuffer, lsn);
+        if (logicalMessage != null) {
+            return Collections.<Message<?>>singletonList(logicalMessage);
+        }
+
+        MessageBuilder<?> builder = (this.payloadType == PgCdcSourceProperties.PayloadType.bytes) ?
+                jsonBytesMessageBuilder(toBytes(byteBuffer)) : MessageBuilder.withPayload(toUtf8String(byteBuffer));
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+        return Collections.<Message<?>>singletonList(builder.build());
+    }
+
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
+
+    /**
+     * @param batch Batch of WAL messages to emit as a single JSON array message.
+     * @return Returns the batch message.
+     */
+    public Message<?> toMessage(WalMessageBatch batch) {
+        MessageBuilder<?> builder = (this.payloadType == PgCdcSourceProperties.PayloadType.bytes) ?
+                jsonBytesMessageBuilder(batch.toBytes()) : MessageBuilder.withPayload(batch.toUtf8String());
+        builder.setHeader(PgCdcHeaders.BATCH_SIZE, batch.size());
+        if (batch.getLastLsn() != null) {
+            builder.setHeader(PgCdcHeaders.FIRST_LSN, batch.getFirstLsn().asString())
+                    .setHeader(PgCdcHeaders.LAST_LSN, batch.getLastLsn().asString())
+                    .setHeader(PgCdcHeaders.LSN, batch.getLastLsn().asString());
+        }
+        return builder.build();
+    }
+
+    static MessageBuilder<?> jsonBytesMessageBuilder(byte[] bytes) {
+        return MessageBuilder.withPayload(bytes)
+                .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON_VALUE);
+    }
+
+    /**
+     * The driver returns the WAL payload as a slice of the received CopyData buffer. The backing array is returned
+     * as-is if the slice covers it entirely, otherwise only the [position, limit) region is copied out.
+     */
+    static byte[] toBytes(ByteBuffer byteBuffer) {
+        if (byteBuffer.hasArray() && byteBuffer.arrayOffset() == 0 && byteBuffer.position() == 0
+                && byteBuffer.remaining() == byteBuffer.array().length) {
+            return byteBuffer.array();
+        }
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    static String toUtf8String(ByteBuffer byteBuffer) {
+        if (byteBuffer.hasArray()) {
+            return new String(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                    byteBuffer.remaining(), StandardCharsets.UTF_8);
+        }
+        return new String(toBytes(byteBuffer), StandardCharsets.UTF_8);
+    }
+}
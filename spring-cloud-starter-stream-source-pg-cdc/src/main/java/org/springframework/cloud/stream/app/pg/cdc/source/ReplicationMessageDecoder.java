@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Converts the WAL messages, as produced by the slot's output plugin, into the messages emitted by the source.
+ * <p>
+ * Implementations are called from the reader thread only and may keep state across the WAL messages of the same
+ * transaction.
+ *
+ * @author Christian Tzolov
+ */
+public interface ReplicationMessageDecoder {
+
+    /**
+     * @param byteBuffer WAL message as returned by the replication stream. The buffer is valid only during the call.
+     * @param lsn        LSN of the WAL message. Might be null.
+     * @return Returns the messages to emit for this WAL message. Returns an empty list if the WAL message doesn't
+     * complete an emittable unit yet.
+     */
+    List<Message<?>> decode(ByteBuffer byteBuffer, LogSequenceNumber lsn);
+
+    /**
+     * Like {@link #decode(ByteBuffer, LogSequenceNumber)}, but the messages may be produced one at a time as they
+     * are iterated, so a large transaction doesn't have to be held as a whole. The iterator must be exhausted before
+     * the next WAL message is decoded.
+     *
+     * @param byteBuffer WAL message as returned by the replication stream. The buffer is valid only during the call.
+     * @param lsn        LSN of the WAL message. Might be null.
+     * @return Returns the messages to emit for this WAL message.
+     */
+    default Iterator<Message<?>> decodeLazily(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        return decode(byteBuffer, lsn).iterator();
+    }
+
+    /**
+     * @return Returns true if every WAL message is decoded on its own, without any state kept from the previous
+     * messages. Only the WAL messages of such decoders can be skipped when the server replays them.
+     */
+    default boolean isStateless() {
+        return false;
+    }
+
+    /**
+     * Drops the state of the transaction in progress. Called when the stream is restarted and the server resends the
+     * transaction from its start.
+     */
+    default void reset() {
+    }
+}
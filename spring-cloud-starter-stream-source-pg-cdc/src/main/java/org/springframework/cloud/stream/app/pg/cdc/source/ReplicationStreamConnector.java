@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.replication.LogSequenceNumber;
+import org.postgresql.replication.PGReplicationStream;
+import org.postgresql.replication.fluent.logical.ChainedLogicalStreamBuilder;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Opens the replication stream of an existing slot over a new replication connection. Used to resume the stream
+ * after the connection failed, e.g. after a PostgreSQL restart or failover. The slot is never dropped or recreated.
+ *
+ * @author Christian Tzolov
+ */
+public class ReplicationStreamConnector {
+
+    private static final Log LOG = LogFactory.getLog(ReplicationStreamConnector.class);
+
+    private final PgCdcSourceProperties properties;
+
+    private final String replicationSlot;
+
+    private final Properties outputPluginOptions;
+
+    private Connection connection;
+
+    public ReplicationStreamConnector(PgCdcSourceProperties properties, String replicationSlot,
+                                      Properties outputPluginOptions) {
+        this.properties = properties;
+        this.replicationSlot = replicationSlot;
+        this.outputPluginOptions = outputPluginOptions;
+    }
+
+    /**
+     * Closes the connection of the previous stream, if any, and starts a new stream.
+     *
+     * @param startLsn LSN to resume from, or {@link LogSequenceNumber#INVALID_LSN} for the slot position.
+     * @return Returns the new replication stream.
+     */
+    public synchronized PGReplicationStream connect(LogSequenceNumber startLsn) throws SQLException {
+        close();
+
+        Connection connection = PgCdcSourceConfiguration.createReplicationConnection(this.properties);
+        try {
+            ChainedLogicalStreamBuilder builder = PgCdcSourceConfiguration.createLogicalStreamBuilder(
+                    connection.unwrap(PGConnection.class), this.properties, this.replicationSlot,
+                    this.outputPluginOptions);
+            if (!LogSequenceNumber.INVALID_LSN.equals(startLsn)) {
+                builder.withStartPosition(startLsn);
+            }
+            PGReplicationStream replicationStream = builder.start();
+            this.connection = connection;
+            return replicationStream;
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the connection of the last stream started by this connector.
+     */
+    public synchronized void close() {
+        if (this.connection != null) {
+            closeQuietly(this.connection);
+            this.connection = null;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.debug("Unable to close the replication connection", e);
+        }
+    }
+}
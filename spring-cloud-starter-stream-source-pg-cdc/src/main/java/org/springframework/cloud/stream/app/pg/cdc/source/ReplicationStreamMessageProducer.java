@@ -0,0 +1,808 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.replication.LogSequenceNumber;
+import org.postgresql.replication.PGReplicationStream;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.integration.endpoint.MessageProducerSupport;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Reads the PostgreSQL replication stream on a dedicated thread, converts the received WAL messages with the
+ * configured {@link ReplicationMessageDecoder} and sends the result to the output channel.
+ * <p>
+ * In {@link PgCdcSourceProperties.ReadMode#blocking} mode the reader waits on {@link PGReplicationStream#read()},
+ * and stop closes the stream to wake it up.
+ * In {@link PgCdcSourceProperties.ReadMode#adaptive} mode it polls {@link PGReplicationStream#readPending()} and
+ * parks the thread with an exponentially growing back-off while the stream is idle, so an idle database doesn't
+ * cost a busy-spinning core.
+ * <p>
+ * The flushed LSN is not acknowledged per message. Every sent message is tracked by the {@link LsnTracker} and only
+ * the LSN up to which all messages were confirmed by the output is reported to the server, at most once per
+ * feedbackInterval.
+ * <p>
+ * When batching is enabled and the WAL messages are emitted as-is, the pending WAL messages are drained into one
+ * outbound JSON array message, bounded by the batch maxMessages, maxBytes and maxLinger limits. Only the last LSN of
+ * the batch is tracked.
+ * <p>
+ * When an {@link InitialSnapshot} is set, the snapshot rows are emitted before the first streamed change. When an
+ * {@link IncrementalSnapshot} is set, the signalled tables are re-read on the reader thread and their rows are
+ * interleaved with the streamed changes. The {@link LogicalMessage}s addressed to the source are never sent.
+ * <p>
+ * When a {@link ChangeEventFilter} is set, it is applied to all decoded messages, snapshots included. When a
+ * {@link ChangeEventSplitter} is set, the filtered messages are then split into one message per change event.
+ * <p>
+ * When a {@link LsnCheckpointStore} is set, the flushed LSN is saved to it before it is reported to the server. For
+ * the stateless decoders, the replayed WAL messages at or below the stored LSN are skipped by comparing their LSN,
+ * without decoding them.
+ * <p>
+ * When a {@link ReplicationStreamConnector} is set, a failed stream is replaced by a new one resumed from the last
+ * confirmed LSN, with a jittered exponential back-off between the attempts. The slot is not recreated. The reader
+ * closes the stream and the connection of the connector when it exits, and reconnects when the producer is
+ * restarted.
+ * <p>
+ * When the pipeline is enabled, the reader thread only reads the WAL messages, copies them into a preallocated
+ * {@link WalRingBuffer} and reports the flushed LSN. A publisher thread drains the ring buffer, decodes the WAL
+ * messages and sends them to the output, so a slow output doesn't stall the socket reads and vice versa. The filled
+ * slots are drained into batches when batching is enabled, without waiting for the maxLinger. When the ring buffer
+ * is full the reader holds the reads, which pushes back to the server, but keeps sending status updates.
+ * <p>
+ * When {@link PgCdcSourceMetrics} are set, the reads, sent messages and flushed LSN are recorded by the reader thread.
+ * <p>
+ * When a {@link Heartbeat} is set, it is started and stopped with the producer. The heartbeat messages are consumed
+ * like the other {@link LogicalMessage}s addressed to the source: their LSN is confirmed, which advances the flushed
+ * LSN while the streamed tables are idle. They end a batch and are never part of one.
+ *
+ * @author Christian Tzolov
+ */
+public class ReplicationStreamMessageProducer extends MessageProducerSupport {
+
+    private static final Log LOG = LogFactory.getLog(ReplicationStreamMessageProducer.class);
+
+    private static final long MIN_IDLE_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final long MAX_LINGER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Replaced by the reader thread on reconnect, and closed by it when it exits. Read by stop to wake up the reader.
+     */
+    private volatile PGReplicationStream replicationStream;
+
+    /**
+     * Set once the reader closed the stream on exit. A restarted reader opens a new stream with the connector.
+     */
+    private volatile boolean streamClosed;
+
+    private final PgCdcSourceProperties properties;
+
+    private final LsnTracker lsnTracker;
+
+    private final ReplicationMessageDecoder decoder;
+
+    /**
+     * Set only when the WAL messages are emitted as-is and batching is enabled.
+     */
+    private final RawReplicationMessageDecoder batchDecoder;
+
+    /**
+     * Set only when the pipeline is enabled.
+     */
+    private final WalRingBuffer ringBuffer;
+
+    private final SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("pg-cdc-reader-");
+
+    private final SimpleAsyncTaskExecutor publisherExecutor = new SimpleAsyncTaskExecutor("pg-cdc-publisher-");
+
+    private volatile boolean active;
+
+    /**
+     * Set while the reader thread runs.
+     */
+    private volatile Thread readerThread;
+
+    /**
+     * Set by the publisher thread when a WAL message failed to decode or send, until the reader rewinds the stream.
+     */
+    private volatile RuntimeException sendFailure;
+
+    private volatile InitialSnapshot initialSnapshot;
+
+    private volatile IncrementalSnapshot incrementalSnapshot;
+
+    private volatile ChangeEventFilter changeEventFilter;
+
+    private volatile ChangeEventSplitter changeEventSplitter;
+
+    private volatile PgCdcSourceMetrics metrics;
+
+    private volatile ReplicationStreamConnector connector;
+
+    private volatile LsnCheckpointStore checkpointStore;
+
+    private volatile Heartbeat heartbeat;
+
+    /**
+     * The WAL messages at or below this LSN were delivered before the restart and are skipped. Set only for the
+     * stateless decoders.
+     */
+    private volatile long checkpointLsn = LogSequenceNumber.INVALID_LSN.asLong();
+
+    private long idleBackoffNanos;
+
+    private long lastFeedbackTime;
+
+    private LogSequenceNumber lastFeedbackLsn = LogSequenceNumber.INVALID_LSN;
+
+    public ReplicationStreamMessageProducer(PGReplicationStream replicationStream, PgCdcSourceProperties properties,
+                                            LsnTracker lsnTracker, ReplicationMessageDecoder decoder) {
+        this.replicationStream = replicationStream;
+        this.properties = properties;
+        this.lsnTracker = lsnTracker;
+        this.decoder = decoder;
+        this.batchDecoder = (properties.getBatch().isEnabled() && decoder instanceof RawReplicationMessageDecoder) ?
+                (RawReplicationMessageDecoder) decoder : null;
+        PgCdcSourceProperties.Pipeline pipeline = properties.getPipeline();
+        this.ringBuffer = pipeline.isEnabled() ? new WalRingBuffer(pipeline.getSlots(), pipeline.getSlotBytes()) : null;
+        this.taskExecutor.setDaemon(true);
+        this.publisherExecutor.setDaemon(true);
+    }
+
+    /**
+     * @param initialSnapshot Snapshot to copy on the reader thread before streaming from the slot.
+     */
+    public void setInitialSnapshot(InitialSnapshot initialSnapshot) {
+        this.initialSnapshot = initialSnapshot;
+    }
+
+    /**
+     * @param incrementalSnapshot Handles the incremental snapshot signals and watermarks on the reader thread.
+     */
+    public void setIncrementalSnapshot(IncrementalSnapshot incrementalSnapshot) {
+        this.incrementalSnapshot = incrementalSnapshot;
+    }
+
+    /**
+     * @param changeEventFilter Filter of the decoded change events.
+     */
+    public void setChangeEventFilter(ChangeEventFilter changeEventFilter) {
+        this.changeEventFilter = changeEventFilter;
+    }
+
+    /**
+     * @param changeEventSplitter Splitter of the decoded messages into per change event messages.
+     */
+    public void setChangeEventSplitter(ChangeEventSplitter changeEventSplitter) {
+        this.changeEventSplitter = changeEventSplitter;
+    }
+
+    /**
+     * @param metrics Meters updated by the reader thread.
+     */
+    public void setMetrics(PgCdcSourceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param checkpointStore Store of the delivered LSN. The WAL messages at or below the stored LSN are skipped,
+     *                        if the decoder is stateless.
+     */
+    public void setCheckpointStore(LsnCheckpointStore checkpointStore) {
+        this.checkpointStore = checkpointStore;
+        this.checkpointLsn = (checkpointStore != null && this.decoder.isStateless()) ?
+                checkpointStore.load().asLong() : LogSequenceNumber.INVALID_LSN.asLong();
+    }
+
+    /**
+     * @param connector Opens a new replication stream when the current one fails.
+     */
+    public void setConnector(ReplicationStreamConnector connector) {
+        this.connector = connector;
+    }
+
+    /**
+     * @param heartbeat Writes the heartbeats while the producer is running.
+     */
+    public void setHeartbeat(Heartbeat heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    /**
+     * @param threadNamePrefix Name prefix of the reader thread. The publisher thread name is suffixed with
+     *                         'publisher-'.
+     */
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.taskExecutor.setThreadNamePrefix(threadNamePrefix);
+        this.publisherExecutor.setThreadNamePrefix(threadNamePrefix + "publisher-");
+    }
+
+    @Override
+    public String getComponentType() {
+        return "pg-cdc:replication-stream-producer";
+    }
+
+    @Override
+    protected void doStart() {
+        this.active = true;
+        this.sendFailure = null;
+        if (this.metrics != null) {
+            this.metrics.start();
+        }
+        if (this.heartbeat != null) {
+            this.heartbeat.start();
+        }
+        if (this.ringBuffer != null) {
+            this.publisherExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    publishLoop();
+                }
+            });
+        }
+        this.taskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readerThread = Thread.currentThread();
+                try {
+                    if (reopenReplicationStream() && copyInitialSnapshot()) {
+                        readLoop();
+                    }
+                } finally {
+                    closeReplicationStream();
+                    readerThread = null;
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void doStop() {
+        this.active = false;
+        if (this.metrics != null) {
+            this.metrics.stop();
+        }
+        if (this.heartbeat != null) {
+            this.heartbeat.stop();
+        }
+        Thread reader = this.readerThread;
+        if (reader != null && this.properties.getReadMode() == PgCdcSourceProperties.ReadMode.blocking) {
+            // the reader waits in read() until the next WAL message, an interrupt alone doesn't wake up the socket read
+            reader.interrupt();
+            try {
+                this.replicationStream.close();
+            } catch (SQLException e) {
+                LOG.debug("Unable to close the replication stream", e);
+            }
+        }
+    }
+
+    @Override
+    protected void sendMessage(Message<?> message) {
+        super.sendMessage(message);
+        if (this.metrics != null) {
+            this.metrics.sent(message);
+        }
+    }
+
+    /**
+     * @return Returns false if the stream closed by the previous reader can't be reopened.
+     */
+    private boolean reopenReplicationStream() {
+        if (!this.streamClosed) {
+            return true;
+        }
+        if (this.connector == null) {
+            LOG.error("The replication stream was closed when the producer stopped and no connector is set to " +
+                    "reopen it!");
+            return false;
+        }
+        reconnect();
+        return this.active;
+    }
+
+    /**
+     * Closes the stream and the connection opened by the connector, if any.
+     */
+    private void closeReplicationStream() {
+        try {
+            this.replicationStream.close();
+        } catch (SQLException e) {
+            LOG.debug("Unable to close the replication stream", e);
+        }
+        if (this.connector != null) {
+            this.connector.close();
+        }
+        this.streamClosed = true;
+    }
+
+    /**
+     * Emits the snapshot rows before any streamed change. The replication stream is not read meanwhile, but status
+     * updates are sent so the server doesn't time out the idle connection.
+     *
+     * @return Returns false if the snapshot failed. The producer is then stopped, as the changes must not be streamed
+     * without the snapshot rows.
+     */
+    private boolean copyInitialSnapshot() {
+        InitialSnapshot snapshot = this.initialSnapshot;
+        if (snapshot == null || !snapshot.isExported()) {
+            return true;
+        }
+        this.initialSnapshot = null;
+
+        try {
+            snapshot.copy(new Consumer<Message<?>>() {
+                @Override
+                public void accept(Message<?> message) {
+                    for (Message<?> transformed : transform(Collections.<Message<?>>singletonList(message))) {
+                        sendMessage(transformed);
+                    }
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        replicationStream.forceUpdateStatus();
+                    } catch (SQLException e) {
+                        LOG.warn("Failed to send the replication status update", e);
+                    }
+                }
+            }, this.properties.getFeedbackInterval());
+            return true;
+        } catch (RuntimeException e) {
+            LOG.error("Initial snapshot failed! Stopping the producer. Recreate the replication slot to take a new "
+                    + "snapshot.", e);
+            stop();
+            return false;
+        }
+    }
+
+    private void readLoop() {
+        while (this.active && !Thread.currentThread().isInterrupted()) {
+            RuntimeException failure = this.sendFailure;
+            if (failure != null) {
+                recoverFromSendFailure(failure);
+                continue;
+            }
+            try {
+                ByteBuffer byteBuffer = readMessage();
+
+                if (byteBuffer != null) {
+                    LogSequenceNumber lsn = this.replicationStream.getLastReceiveLSN();
+                    if (isCheckpointed(lsn)) {
+                        // delivered before the restart
+                    } else if (this.ringBuffer != null) {
+                        handOver(byteBuffer, lsn);
+                    } else if (this.batchDecoder != null) {
+                        sendBatch(byteBuffer, lsn);
+                    } else {
+                        decodeAndSend(byteBuffer, lsn);
+                    }
+                }
+
+                sendFeedback(false);
+            } catch (SQLException e) {
+                if (!this.active) {
+                    // the stream was closed by stop
+                    return;
+                }
+                if (this.connector != null && this.properties.getReconnect().isEnabled()) {
+                    LOG.error("The replication stream failed! Reconnecting.", e);
+                    reconnect();
+                } else {
+                    LOG.error("Error while streaming data", e);
+                    idle();
+                }
+            } catch (RuntimeException e) {
+                recoverFromSendFailure(e);
+            }
+        }
+    }
+
+    /**
+     * A WAL message that failed to decode or send stays in-flight, which would freeze the flushed LSN, and the
+     * following messages would overtake it. Instead the stream is rewound to the flushed LSN, so the server resends
+     * the failed message and everything after it in order. Without a connector the producer is stopped, and the stream
+     * resumes from the flushed LSN on restart.
+     */
+    private void recoverFromSendFailure(RuntimeException e) {
+        if (this.connector != null && this.properties.getReconnect().isEnabled()) {
+            LOG.error("Failed to send the replication message! Rewinding the stream to the flushed LSN.", e);
+            reconnect();
+        } else {
+            LOG.error("Failed to send the replication message! Stopping the producer.", e);
+            stop();
+        }
+    }
+
+    /**
+     * Copies the WAL message into the ring buffer. While the buffer is full, the reader parks and keeps sending the
+     * status updates.
+     */
+    private void handOver(ByteBuffer byteBuffer, LogSequenceNumber lsn) throws SQLException {
+        long backoffNanos = 0;
+        while (!this.ringBuffer.offer(byteBuffer, lsn)) {
+            if (!this.active) {
+                return;
+            }
+            sendFeedback(false);
+            backoffNanos = Math.min(Math.max(MIN_IDLE_BACKOFF_NANOS, backoffNanos * 2), MAX_LINGER_PARK_NANOS);
+            LockSupport.parkNanos(backoffNanos);
+        }
+    }
+
+    /**
+     * Drains the ring buffer on the publisher thread, until the producer is stopped.
+     */
+    private void publishLoop() {
+        long idleNanos = 0;
+        while (this.active && !Thread.currentThread().isInterrupted()) {
+            int available = this.ringBuffer.size();
+            if (available == 0) {
+                idleNanos = Math.min(Math.max(MIN_IDLE_BACKOFF_NANOS, idleNanos * 2), MAX_LINGER_PARK_NANOS);
+                LockSupport.parkNanos(idleNanos);
+                continue;
+            }
+            idleNanos = 0;
+
+            if (this.sendFailure != null) {
+                // the reader rewinds the stream, the server resends these messages
+                this.ringBuffer.release(available);
+                continue;
+            }
+            if (this.batchDecoder != null) {
+                publishBatch(available);
+            } else {
+                for (int i = 0; i < available && this.active && this.sendFailure == null; i++) {
+                    WalRingBuffer.Slot slot = this.ringBuffer.get(0);
+                    try {
+                        decodeAndSend(slot.getBuffer(), slot.getLsn());
+                    } catch (RuntimeException e) {
+                        this.sendFailure = e;
+                    } finally {
+                        this.ringBuffer.release(1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drains the available slots into batches bounded by the batch maxMessages and maxBytes limits.
+     */
+    private void publishBatch(int available) {
+        PgCdcSourceProperties.Batch batchProperties = this.properties.getBatch();
+        int index = 0;
+        while (index < available && this.active && this.sendFailure == null) {
+            WalMessageBatch batch = new WalMessageBatch(batchProperties.getMaxMessages(), batchProperties.getMaxBytes());
+            LogSequenceNumber sourceMessageLsn = null;
+            int count = 0;
+            while (index + count < available && !batch.isFull()) {
+                WalRingBuffer.Slot slot = this.ringBuffer.get(count);
+                if (isSourceMessage(slot.getBuffer())) {
+                    if (count == 0) {
+                        sourceMessageLsn = slot.getLsn();
+                        count++;
+                    }
+                    break;
+                }
+                batch.add(slot.getBuffer(), slot.getLsn());
+                count++;
+            }
+            try {
+                if (sourceMessageLsn != null) {
+                    send(Collections.<Message<?>>emptyList(), sourceMessageLsn);
+                } else {
+                    send(Collections.<Message<?>>singletonList(this.batchDecoder.toMessage(batch)), batch.getLastLsn());
+                }
+            } catch (RuntimeException e) {
+                this.sendFailure = e;
+            } finally {
+                this.ringBuffer.release(count);
+            }
+            index += count;
+        }
+    }
+
+    /**
+     * Waits until the publisher has processed all WAL messages handed over by the reader.
+     */
+    private void awaitPublished() {
+        while (this.ringBuffer != null && !this.ringBuffer.isEmpty() && this.active) {
+            LockSupport.parkNanos(MAX_LINGER_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Replaces the failed stream with a new one resumed from the last confirmed LSN, retrying with a jittered
+     * exponential back-off until it succeeds or the producer is stopped. The server resends everything past that
+     * LSN, including the transaction in progress, so the in-flight LSNs, the decoder and incremental snapshot state
+     * are dropped.
+     */
+    private void reconnect() {
+        if (this.metrics != null) {
+            this.metrics.disconnected();
+        }
+        try {
+            this.replicationStream.close();
+        } catch (SQLException e) {
+            LOG.debug("Unable to close the failed replication stream", e);
+        }
+
+        // the decoder state is owned by the publisher until the handed over messages are processed
+        awaitPublished();
+        LogSequenceNumber startLsn = this.lsnTracker.advance();
+        this.lsnTracker.clear();
+        this.sendFailure = null;
+        LsnCheckpointStore checkpointStore = this.checkpointStore;
+        if (checkpointStore != null && checkpointStore.load().asLong() > startLsn.asLong()) {
+            startLsn = checkpointStore.load();
+        }
+        this.decoder.reset();
+        IncrementalSnapshot snapshot = this.incrementalSnapshot;
+        if (snapshot != null) {
+            snapshot.reset();
+        }
+
+        PgCdcSourceProperties.Reconnect reconnect = this.properties.getReconnect();
+        long backoff = Math.max(1, reconnect.getInitialBackoff());
+        for (int attempt = 1; this.active && !Thread.currentThread().isInterrupted(); attempt++) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(
+                    ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1)));
+            if (!this.active) {
+                return;
+            }
+            try {
+                this.replicationStream = this.connector.connect(startLsn);
+                this.streamClosed = false;
+                LOG.info("Reconnected the replication stream at LSN " + startLsn.asString() + " after " + attempt +
+                        " attempt(s)");
+                if (this.metrics != null) {
+                    this.metrics.connected();
+                }
+                return;
+            } catch (SQLException e) {
+                LOG.warn("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+                backoff = Math.min(backoff * 2, Math.max(1, reconnect.getMaxBackoff()));
+            }
+        }
+    }
+
+    /**
+     * Drains the pending WAL messages into a single JSON array message, until the batch reaches its maxMessages or
+     * maxBytes limits or no new message arrives for maxLinger milliseconds.
+     */
+    private void sendBatch(ByteBuffer first, LogSequenceNumber firstLsn) throws SQLException {
+        if (isSourceMessage(first)) {
+            send(Collections.<Message<?>>emptyList(), firstLsn);
+            return;
+        }
+        PgCdcSourceProperties.Batch batchProperties = this.properties.getBatch();
+
+        WalMessageBatch batch = new WalMessageBatch(batchProperties.getMaxMessages(), batchProperties.getMaxBytes());
+        batch.add(first, firstLsn);
+
+        LogSequenceNumber sourceMessageLsn = null;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchProperties.getMaxLinger());
+        while (!batch.isFull() && this.active) {
+            ByteBuffer byteBuffer = this.replicationStream.readPending();
+            recordRead(byteBuffer);
+            if (byteBuffer != null) {
+                LogSequenceNumber lsn = this.replicationStream.getLastReceiveLSN();
+                if (isCheckpointed(lsn)) {
+                    continue;
+                }
+                if (isSourceMessage(byteBuffer)) {
+                    // confirmed after the batch, whose LSNs are lower
+                    sourceMessageLsn = lsn;
+                    break;
+                }
+                batch.add(byteBuffer, lsn);
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(Math.min(remaining, MAX_LINGER_PARK_NANOS));
+            }
+        }
+
+        send(Collections.<Message<?>>singletonList(this.batchDecoder.toMessage(batch)), batch.getLastLsn());
+        if (sourceMessageLsn != null) {
+            send(Collections.<Message<?>>emptyList(), sourceMessageLsn);
+        }
+    }
+
+    /**
+     * Lets the incremental snapshot, if any, consume its signals and watermarks and interleave the chunk rows,
+     * transforms the messages, then drops the remaining {@link LogicalMessage}s.
+     */
+    private List<Message<?>> processLogicalMessages(List<Message<?>> messages, LogSequenceNumber lsn) {
+        IncrementalSnapshot snapshot = this.incrementalSnapshot;
+        if (snapshot != null) {
+            messages = snapshot.process(messages, lsn);
+        }
+        messages = transform(messages);
+
+        List<Message<?>> result = messages;
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getPayload() instanceof LogicalMessage) {
+                if (result == messages) {
+                    result = new ArrayList<>(messages.subList(0, i));
+                }
+            } else if (result != messages) {
+                result.add(messages.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies the change event filter and splitter, if any.
+     */
+    private List<Message<?>> transform(List<Message<?>> messages) {
+        ChangeEventFilter filter = this.changeEventFilter;
+        if (filter != null) {
+            messages = filter.filter(messages);
+        }
+        ChangeEventSplitter splitter = this.changeEventSplitter;
+        if (splitter != null) {
+            messages = splitter.split(messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Decodes a WAL message and sends the decoded messages one at a time, as the decoder produces them, so a large
+     * transaction read from the decoder's transaction buffer is never held as a whole. The LSN is tracked like
+     * {@link #send(List, LogSequenceNumber)} does.
+     */
+    private void decodeAndSend(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        Iterator<Message<?>> decoded = this.decoder.decodeLazily(byteBuffer, lsn);
+        if (lsn != null) {
+            this.lsnTracker.track(lsn);
+        }
+
+        while (decoded.hasNext()) {
+            for (Message<?> message : processLogicalMessages(
+                    Collections.<Message<?>>singletonList(decoded.next()), lsn)) {
+                sendMessage(message);
+            }
+        }
+
+        if (lsn != null) {
+            this.lsnTracker.confirm(lsn);
+        }
+    }
+
+    /**
+     * Sends the messages decoded from a WAL message, tracking its LSN as in-flight until the output confirms the
+     * delivery of all of them. A failed send leaves the LSN unconfirmed, which holds back the flushed LSN reported
+     * to the server. A WAL message that decodes into no messages is confirmed straight away.
+     */
+    private void send(List<Message<?>> messages, LogSequenceNumber lsn) {
+        if (lsn != null) {
+            this.lsnTracker.track(lsn);
+        }
+
+        for (Message<?> message : messages) {
+            sendMessage(message);
+        }
+
+        if (lsn != null) {
+            this.lsnTracker.confirm(lsn);
+        }
+    }
+
+    /**
+     * Reports the flushable LSN back to the server, at most once per feedbackInterval unless forced.
+     */
+    private void sendFeedback(boolean force) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (!force && now - this.lastFeedbackTime < this.properties.getFeedbackInterval()) {
+            return;
+        }
+        this.lastFeedbackTime = now;
+
+        LogSequenceNumber flushableLsn = this.lsnTracker.advance();
+        if (flushableLsn.asLong() > this.lastFeedbackLsn.asLong()) {
+            LsnCheckpointStore checkpointStore = this.checkpointStore;
+            if (checkpointStore != null) {
+                checkpointStore.save(flushableLsn);
+            }
+            this.replicationStream.setAppliedLSN(flushableLsn);
+            this.replicationStream.setFlushedLSN(flushableLsn);
+            this.replicationStream.forceUpdateStatus();
+            this.lastFeedbackLsn = flushableLsn;
+            if (this.metrics != null) {
+                this.metrics.flushed(flushableLsn);
+            }
+        }
+    }
+
+    /**
+     * @return Returns the next WAL message or null if no message is pending in the adaptive read mode.
+     */
+    private ByteBuffer readMessage() throws SQLException {
+        if (this.properties.getReadMode() == PgCdcSourceProperties.ReadMode.blocking) {
+            ByteBuffer byteBuffer = this.replicationStream.readPending();
+            if (byteBuffer == null) {
+                if (this.ringBuffer != null && !this.ringBuffer.isEmpty()) {
+                    // wait for the publisher to confirm the handed over messages before blocking
+                    idle();
+                    return null;
+                }
+                // report the last confirmed LSNs before waiting, the next message may come in a long time
+                sendFeedback(true);
+                byteBuffer = this.replicationStream.read();
+            }
+            this.idleBackoffNanos = 0;
+            recordRead(byteBuffer);
+            return byteBuffer;
+        }
+
+        ByteBuffer byteBuffer = this.replicationStream.readPending();
+        recordRead(byteBuffer);
+        if (byteBuffer == null) {
+            idle();
+        } else {
+            this.idleBackoffNanos = 0;
+        }
+        return byteBuffer;
+    }
+
+    /**
+     * @return Returns true if the WAL message is a logical message addressed to the source, e.g. a heartbeat.
+     */
+    private static boolean isSourceMessage(ByteBuffer byteBuffer) {
+        return Wal2JsonDecoder.toSourceMessage(byteBuffer, null) != null;
+    }
+
+    private boolean isCheckpointed(LogSequenceNumber lsn) {
+        return lsn != null && lsn.asLong() <= this.checkpointLsn;
+    }
+
+    private void recordRead(ByteBuffer byteBuffer) {
+        PgCdcSourceMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.read((byteBuffer != null) ? byteBuffer.remaining() : -1,
+                    (byteBuffer != null) ? this.replicationStream.getLastReceiveLSN() : null);
+        }
+    }
+
+    /**
+     * Parks the reader thread doubling the back-off on every consecutive idle read, up to the maxIdleBackoff.
+     */
+    private void idle() {
+        long maxIdleBackoffNanos = TimeUnit.MILLISECONDS.toNanos(this.properties.getMaxIdleBackoff());
+        this.idleBackoffNanos = Math.min(Math.max(MIN_IDLE_BACKOFF_NANOS, this.idleBackoffNanos * 2),
+                maxIdleBackoffNanos);
+        LockSupport.parkNanos(this.idleBackoffNanos);
+    }
+}
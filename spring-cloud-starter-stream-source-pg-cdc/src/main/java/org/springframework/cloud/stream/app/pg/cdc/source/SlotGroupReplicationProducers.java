@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.replication.LogSequenceNumber;
+import org.postgresql.replication.PGReplicationStream;
+import org.postgresql.replication.fluent.logical.ChainedLogicalStreamBuilder;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.messaging.MessageChannel;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams the configured slot groups in parallel. Every {@link PgCdcSourceProperties.SlotGroup} gets its own
+ * replication connection, replication slot, decoder, {@link LsnTracker} and {@link ReplicationStreamMessageProducer}
+ * reader thread. All producers send to the same output channel, while the flushed LSN is tracked and reported
+ * per slot.
+ * <p>
+ * The WAL messages of one group are emitted in their commit order, but there is no ordering between the groups.
+ * Tables that must stay ordered relative to each other should be streamed by the same group.
+ * <p>
+ * The group tables are pushed down to the wal2json plugin, the change events of the other plugins are filtered by
+ * the {@link ChangeEventFilter} of the group. The configured startPosition applies to every group, as the LSN is a
+ * position in the shared WAL, and a group resumes from its own checkpoint past it.
+ *
+ * @author Christian Tzolov
+ */
+public class SlotGroupReplicationProducers implements SmartLifecycle, BeanFactoryAware, InitializingBean,
+        DisposableBean {
+
+    private static final Log LOG = LogFactory.getLog(SlotGroupReplicationProducers.class);
+
+    private final PgCdcSourceProperties properties;
+
+    private final MessageChannel outputChannel;
+
+    private final List<Connection> connections = new ArrayList<>();
+
+    private final List<ReplicationStreamMessageProducer> producers = new ArrayList<>();
+
+    private final List<IncrementalSnapshot> incrementalSnapshots = new ArrayList<>();
+
+    private final List<MappedFileLsnCheckpointStore> checkpointStores = new ArrayList<>();
+
+    private final List<ReplicationStreamConnector> connectors = new ArrayList<>();
+
+    private CachedPrimaryKeyColumnIndices primaryKeyColumnIndices;
+
+    private ChangeEventSplitter changeEventSplitter;
+
+    private MeterRegistry meterRegistry;
+
+    private BeanFactory beanFactory;
+
+    private volatile boolean running;
+
+    public SlotGroupReplicationProducers(PgCdcSourceProperties properties, MessageChannel outputChannel) {
+        this.properties = properties;
+        this.outputChannel = outputChannel;
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * @param meterRegistry Registry of the per slot group meters, or null to disable the metrics.
+     */
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        // shared by the groups, the primary key metadata is cached once
+        this.primaryKeyColumnIndices = new CachedPrimaryKeyColumnIndices(this.properties);
+        if (this.properties.isPerEvent()) {
+            this.changeEventSplitter = new ChangeEventSplitter(this.primaryKeyColumnIndices);
+        }
+
+        LogSequenceNumber startPosition = (this.properties.getStartPosition() != null) ?
+                LogSequenceNumber.valueOf(this.properties.getStartPosition()) : LogSequenceNumber.INVALID_LSN;
+
+        for (PgCdcSourceProperties.SlotGroup slotGroup : this.properties.getSlotGroups()) {
+            MappedFileLsnCheckpointStore checkpointStore = null;
+            if (this.properties.getCheckpointDirectory() != null) {
+                checkpointStore = PgCdcSourceConfiguration.createCheckpointStore(this.properties,
+                        slotGroup.getReplicationSlot());
+                this.checkpointStores.add(checkpointStore);
+            }
+
+            SlotStream slotStream = startReplicationStream(slotGroup, checkpointStore, startPosition);
+
+            LsnTracker lsnTracker = new LsnTracker();
+            ReplicationStreamMessageProducer producer = new ReplicationStreamMessageProducer(
+                    slotStream.replicationStream, this.properties, lsnTracker,
+                    PgCdcSourceConfiguration.createReplicationMessageDecoder(this.properties));
+            producer.setInitialSnapshot(slotStream.snapshot);
+            producer.setChangeEventFilter(PgCdcSourceConfiguration.createChangeEventFilter(this.properties,
+                    slotGroup.getTables(), this.primaryKeyColumnIndices));
+            producer.setChangeEventSplitter(this.changeEventSplitter);
+            producer.setCheckpointStore(checkpointStore);
+            ReplicationStreamConnector connector = new ReplicationStreamConnector(this.properties,
+                    slotGroup.getReplicationSlot(), this.properties.outputPluginOptionsAsProperties(slotGroup));
+            this.connectors.add(connector);
+            producer.setConnector(connector);
+            producer.setMetrics(PgCdcSourceConfiguration.createMetrics(this.meterRegistry, this.properties,
+                    slotGroup.getReplicationSlot()));
+            if (this.producers.isEmpty()) {
+                // a heartbeat message is decoded by the slots of all groups
+                producer.setHeartbeat(PgCdcSourceConfiguration.createHeartbeat(this.properties));
+            }
+            if (this.properties.getSnapshot().isIncremental()) {
+                // every slot receives all signals, a group snapshots only its own tables
+                IncrementalSnapshot incrementalSnapshot = PgCdcSourceConfiguration.createIncrementalSnapshot(
+                        this.properties, slotGroup.getReplicationSlot(), slotGroup.getTables());
+                this.incrementalSnapshots.add(incrementalSnapshot);
+                producer.setIncrementalSnapshot(incrementalSnapshot);
+            }
+            producer.setThreadNamePrefix("pg-cdc-reader-" + slotGroup.getReplicationSlot() + "-");
+            producer.setOutputChannel(this.outputChannel);
+            producer.setBeanFactory(this.beanFactory);
+            producer.afterPropertiesSet();
+            this.producers.add(producer);
+
+            LOG.info("Streaming slot group: " + slotGroup.getReplicationSlot() + ", tables: " + slotGroup.getTables());
+        }
+    }
+
+    /**
+     * Creates the replication slot of the group, unless it exists, exporting the initial snapshot if enabled, and
+     * starts streaming the slot over a new replication connection.
+     *
+     * @param startPosition LSN to start from, unless the checkpoint is past it, or
+     *                      {@link LogSequenceNumber#INVALID_LSN} for the slot position.
+     */
+    SlotStream startReplicationStream(PgCdcSourceProperties.SlotGroup slotGroup,
+                                      MappedFileLsnCheckpointStore checkpointStore,
+                                      LogSequenceNumber startPosition) throws SQLException {
+        Connection connection = PgCdcSourceConfiguration.createReplicationConnection(this.properties);
+        this.connections.add(connection);
+
+        PGConnection replicationConnection = connection.unwrap(PGConnection.class);
+        PgCdcSourceConfiguration.dropReplicationSlot(replicationConnection, this.properties,
+                slotGroup.getReplicationSlot());
+
+        InitialSnapshot snapshot = null;
+        boolean slotCreated;
+        if (this.properties.getSnapshot().isEnabled()) {
+            snapshot = InitialSnapshot.export(replicationConnection, this.properties,
+                    slotGroup.getReplicationSlot(), (slotGroup.getTables() != null) ?
+                            slotGroup.getTables() : this.properties.getSnapshot().getTables());
+            slotCreated = snapshot.isExported();
+        } else {
+            slotCreated = PgCdcSourceConfiguration.createReplicationSlot(replicationConnection, this.properties,
+                    slotGroup.getReplicationSlot());
+        }
+
+        ChainedLogicalStreamBuilder builder = PgCdcSourceConfiguration.createLogicalStreamBuilder(
+                replicationConnection, this.properties, slotGroup.getReplicationSlot(),
+                this.properties.outputPluginOptionsAsProperties(slotGroup));
+        LogSequenceNumber resumePosition = PgCdcSourceConfiguration.resolveStartPosition(checkpointStore,
+                slotCreated, startPosition);
+        if (!LogSequenceNumber.INVALID_LSN.equals(resumePosition)) {
+            builder.withStartPosition(resumePosition);
+        }
+        return new SlotStream(builder.start(), snapshot);
+    }
+
+    /**
+     * @return Returns the producers of the slot groups, in the slot groups order.
+     */
+    public List<ReplicationStreamMessageProducer> getProducers() {
+        return this.producers;
+    }
+
+    @Override
+    public void start() {
+        for (ReplicationStreamMessageProducer producer : this.producers) {
+            producer.start();
+        }
+        this.running = true;
+    }
+
+    @Override
+    public void stop() {
+        for (ReplicationStreamMessageProducer producer : this.producers) {
+            producer.stop();
+        }
+        this.running = false;
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE / 2;
+    }
+
+    @Override
+    public void destroy() {
+        for (IncrementalSnapshot incrementalSnapshot : this.incrementalSnapshots) {
+            incrementalSnapshot.close();
+        }
+        if (this.primaryKeyColumnIndices != null) {
+            this.primaryKeyColumnIndices.close();
+        }
+        for (MappedFileLsnCheckpointStore checkpointStore : this.checkpointStores) {
+            try {
+                checkpointStore.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close the checkpoint store!", e);
+            }
+        }
+        for (ReplicationStreamConnector connector : this.connectors) {
+            connector.close();
+        }
+        for (Connection connection : this.connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Unable to close the replication connection!", e);
+            }
+        }
+    }
+
+    /**
+     * Replication stream of a slot group and the initial snapshot exported with its slot, if any.
+     */
+    static class SlotStream {
+
+        private final PGReplicationStream replicationStream;
+
+        private final InitialSnapshot snapshot;
+
+        SlotStream(PGReplicationStream replicationStream, InitialSnapshot snapshot) {
+            this.replicationStream = replicationStream;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Schema, table, column and primary key names and types of a table, as read from the system catalogs. Used by the
+ * snapshots to select the table rows and convert them into insert change events.
+ *
+ * @author Christian Tzolov
+ */
+class TableMetadata {
+
+    private static final String TABLE_NAME_QUERY = "SELECT n.nspname, c.relname FROM pg_class c " +
+            "JOIN pg_namespace n ON n.oid = c.relnamespace WHERE c.oid = ?::regclass";
+
+    private static final String COLUMNS_QUERY = "SELECT a.attname, t.typname FROM pg_attribute a " +
+            "JOIN pg_type t ON t.oid = a.atttypid " +
+            "WHERE a.attrelid = ?::regclass AND a.attnum > 0 AND NOT a.attisdropped ORDER BY a.attnum";
+
+    private static final String PRIMARY_KEY_QUERY = "SELECT a.attname, t.typname FROM pg_index i " +
+            "CROSS JOIN generate_subscripts(i.indkey, 1) AS k " +
+            "JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = i.indkey[k] " +
+            "JOIN pg_type t ON t.oid = a.atttypid WHERE i.indrelid = ?::regclass AND i.indisprimary ORDER BY k";
+
+    private final String schema;
+
+    private final String table;
+
+    private final String qualifiedName;
+
+    private final List<String> columnNames;
+
+    private final List<String> columnTypes;
+
+    private final List<String> keyColumnNames;
+
+    private final List<String> keyColumnTypes;
+
+    TableMetadata(String schema, String table, String qualifiedName, List<String> columnNames,
+                  List<String> columnTypes, List<String> keyColumnNames, List<String> keyColumnTypes) {
+        this.schema = schema;
+        this.table = table;
+        this.qualifiedName = qualifiedName;
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.keyColumnNames = keyColumnNames;
+        this.keyColumnTypes = keyColumnTypes;
+    }
+
+    /**
+     * Reads the metadata of a table.
+     *
+     * @param connection    Connection to query the system catalogs with.
+     * @param qualifiedName Schema qualified name of the table (e.g. public.orders).
+     * @return Returns the table metadata.
+     * @throws SQLException if the table doesn't exist.
+     */
+    static TableMetadata load(Connection connection, String qualifiedName) throws SQLException {
+        String schema;
+        String table;
+        try (PreparedStatement statement = connection.prepareStatement(TABLE_NAME_QUERY)) {
+            statement.setString(1, qualifiedName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                schema = resultSet.getString(1);
+                table = resultSet.getString(2);
+            }
+        }
+
+        List<String> columnNames = new ArrayList<>();
+        List<String> columnTypes = new ArrayList<>();
+        query(connection, COLUMNS_QUERY, qualifiedName, columnNames, columnTypes);
+
+        List<String> keyColumnNames = new ArrayList<>();
+        List<String> keyColumnTypes = new ArrayList<>();
+        query(connection, PRIMARY_KEY_QUERY, qualifiedName, keyColumnNames, keyColumnTypes);
+
+        return new TableMetadata(schema, table, qualifiedName, columnNames, columnTypes, keyColumnNames,
+                keyColumnTypes);
+    }
+
+    private static void query(Connection connection, String query, String qualifiedName, List<String> names,
+                              List<String> types) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, qualifiedName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    names.add(resultSet.getString(1));
+                    types.add(resultSet.getString(2));
+                }
+            }
+        }
+    }
+
+    String getSchema() {
+        return this.schema;
+    }
+
+    String getTable() {
+        return this.table;
+    }
+
+    String getQualifiedName() {
+        return this.qualifiedName;
+    }
+
+    /**
+     * @return Returns the double quoted schema and table name, to be concatenated into SQL.
+     */
+    String getQuotedName() {
+        return quoteIdentifier(this.schema) + "." + quoteIdentifier(this.table);
+    }
+
+    /**
+     * @param names Column names.
+     * @return Returns the comma separated list of the double quoted names, to be concatenated into SQL.
+     */
+    static String quoteIdentifiers(List<String> names) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(quoteIdentifier(name));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Quotes an identifier as the quote_ident function does, but always: the catalog names are case sensitive and may
+     * be keywords or contain any character.
+     */
+    static String quoteIdentifier(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    List<String> getColumnNames() {
+        return this.columnNames;
+    }
+
+    List<String> getColumnTypes() {
+        return this.columnTypes;
+    }
+
+    List<String> getKeyColumnNames() {
+        return this.keyColumnNames;
+    }
+
+    List<String> getKeyColumnTypes() {
+        return this.keyColumnTypes;
+    }
+}
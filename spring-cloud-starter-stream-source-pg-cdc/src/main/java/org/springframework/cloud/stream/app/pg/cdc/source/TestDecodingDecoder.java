@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.SpillingTransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.TransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.testdecoding.ToWal2JsonParser;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decodes the text lines of the built-in 'test_decoding' plugin into the same {@link Change} and
+ * {@link org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent} model produced by the wal2json plugin, so
+ * no decoding-adapter processor is needed when wal2json can't be installed.
+ * <p>
+ * test_decoding writes a WAL message per BEGIN, COMMIT and DML line. The lines are parsed with the
+ * {@link ToWal2JsonParser}, which buffers the change events in a (possibly spilling) {@link TransactionBuffer} until
+ * the transaction commits. The committed transaction is then streamed from the buffer as a sequence of sub-batches of
+ * at most chunkSize events, tagged with the transaction id, the sub-batch sequence number and a last-chunk marker.
+ * <p>
+ * The TRUNCATE lines have no change event equivalent and are skipped. The logical decoding messages addressed to the
+ * source are emitted as {@link LogicalMessage}s, the others are skipped.
+ *
+ * @author Christian Tzolov
+ */
+public class TestDecodingDecoder implements ReplicationMessageDecoder {
+
+    private static final Log LOG = LogFactory.getLog(TestDecodingDecoder.class);
+
+    private static final String MESSAGE_LINE = "message: transactional: ";
+
+    private static final String MESSAGE_PREFIX = " prefix: ";
+
+    private static final String MESSAGE_CONTENT = " content:";
+
+    private static final String TABLE = "table ";
+
+    private static final String TRUNCATE_OPERATION = ": TRUNCATE:";
+
+    private final int chunkSize;
+
+    private final TransactionBuffer transactionBuffer;
+
+    private ToWal2JsonParser parser;
+
+    /**
+     * Keeps the transactions on-heap.
+     */
+    public TestDecodingDecoder(int chunkSize) {
+        this(chunkSize, new SpillingTransactionBuffer(Integer.MAX_VALUE, null, 1));
+    }
+
+    /**
+     * @param chunkSize         Maximum number of change events in a sub-batch.
+     * @param transactionBuffer Buffer of the change events of the transaction in progress.
+     */
+    public TestDecodingDecoder(int chunkSize, TransactionBuffer transactionBuffer) {
+        this.chunkSize = (chunkSize > 0) ? chunkSize : Integer.MAX_VALUE;
+        this.transactionBuffer = transactionBuffer;
+        this.parser = new ToWal2JsonParser(transactionBuffer);
+    }
+
+    @Override
+    public List<Message<?>> decode(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        List<Message<?>> messages = new ArrayList<>();
+        Iterator<Message<?>> chunks = decodeLazily(byteBuffer, lsn);
+        while (chunks.hasNext()) {
+            messages.add(chunks.next());
+        }
+        return messages;
+    }
+
+    /**
+     * Reads the sub-batches of a committed transaction from the transaction buffer as they are iterated.
+     */
+    @Override
+    public Iterator<Message<?>> decodeLazily(ByteBuffer byteBuffer, final LogSequenceNumber lsn) {
+        String line = RawReplicationMessageDecoder.toUtf8String(byteBuffer);
+
+        if (isMessage(line)) {
+            return decodeMessage(line, lsn).iterator();
+        }
+        if (isTruncate(line)) {
+            LOG.debug("Skip the test_decoding TRUNCATE line");
+            return Collections.<Message<?>>emptyIterator();
+        }
+
+        final Iterator<Change> chunks = this.parser.parseLogLine(line, this.chunkSize);
+        if (chunks == null) {
+            return Collections.<Message<?>>emptyIterator();
+        }
+
+        return new Iterator<Message<?>>() {
+
+            private int sequence = 0;
+
+            @Override
+            public boolean hasNext() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public Message<?> next() {
+                Change chunk = chunks.next();
+                if (lsn != null) {
+                    chunk.setNextlsn(lsn.asString());
+                }
+                MessageBuilder<Change> builder = MessageBuilder.withPayload(chunk)
+                        .setHeader(PgCdcHeaders.CHUNK_SEQUENCE, this.sequence++)
+                        .setHeader(PgCdcHeaders.LAST_CHUNK, !chunks.hasNext())
+                        .setHeader(PgCdcHeaders.XID, chunk.getXid());
+                if (lsn != null) {
+                    builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+                }
+                return builder.build();
+            }
+        };
+    }
+
+    /**
+     * Drops the transaction in progress.
+     */
+    @Override
+    public void reset() {
+        this.transactionBuffer.close();
+        this.parser = new ToWal2JsonParser(this.transactionBuffer);
+    }
+
+    static boolean isMessage(String line) {
+        return line.startsWith(MESSAGE_LINE);
+    }
+
+    /**
+     * Checks the operation following the 'table public.a, "Public"."B": ' relation list, as a value of a DML line may
+     * contain the TRUNCATE operation text too. The names containing a colon are double quoted.
+     */
+    static boolean isTruncate(String line) {
+        if (!line.startsWith(TABLE)) {
+            return false;
+        }
+        boolean quoted = false;
+        for (int i = TABLE.length(); i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                // an escaped "" pair toggles twice
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return line.startsWith(TRUNCATE_OPERATION, i);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a 'message: transactional: 0 prefix: pg-cdc-heartbeat, sz: 13 content:1508243256000' line.
+     *
+     * @return Returns the {@link LogicalMessage} or an empty list if the message is not addressed to the source.
+     */
+    static List<Message<?>> decodeMessage(String line, LogSequenceNumber lsn) {
+        int prefixStart = line.indexOf(MESSAGE_PREFIX);
+        int prefixEnd = line.indexOf(", sz: ", prefixStart);
+        int contentStart = line.indexOf(MESSAGE_CONTENT, prefixEnd);
+        if (prefixStart < 0 || prefixEnd < 0 || contentStart < 0) {
+            throw new IllegalStateException("Unexpected test_decoding message line: " + line);
+        }
+
+        String prefix = line.substring(prefixStart + MESSAGE_PREFIX.length(), prefixEnd);
+        if (!LogicalMessage.isSourceMessage(prefix)) {
+            return Collections.emptyList();
+        }
+        boolean transactional = line.charAt(MESSAGE_LINE.length()) == '1';
+        String content = line.substring(contentStart + MESSAGE_CONTENT.length());
+
+        MessageBuilder<LogicalMessage> builder =
+                MessageBuilder.withPayload(new LogicalMessage(transactional, prefix, content));
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+        return Collections.<Message<?>>singletonList(builder.build());
+    }
+}
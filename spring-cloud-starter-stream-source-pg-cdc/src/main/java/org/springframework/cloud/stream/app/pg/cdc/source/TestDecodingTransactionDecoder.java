@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Frames the text lines of the built-in 'test_decoding' plugin into one message per transaction, without decoding
+ * them. The payload is a JSON array of all lines of the transaction, from BEGIN to COMMIT, with the transaction id
+ * header. The transaction ids are unsigned 32-bit integers, so the header holds a Long. Every message holds a whole transaction, so the decoding-adapter processor can parse it without keeping any
+ * state across messages, and run with many instances and threads.
+ * <p>
+ * The lines are held on-heap until the transaction commits. The TRUNCATE lines are skipped. The logical decoding
+ * messages addressed to the source are emitted as {@link LogicalMessage}s, the others are skipped.
+ *
+ * @author Christian Tzolov
+ */
+public class TestDecodingTransactionDecoder implements ReplicationMessageDecoder {
+
+    private static final String BEGIN = "BEGIN";
+
+    private static final String COMMIT = "COMMIT";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final PgCdcSourceProperties.PayloadType payloadType;
+
+    /**
+     * Lines of the transaction in progress, or null between transactions.
+     */
+    private List<String> lines;
+
+    private Long xid;
+
+    public TestDecodingTransactionDecoder(PgCdcSourceProperties.PayloadType payloadType) {
+        this.payloadType = payloadType;
+    }
+
+    @Override
+    public List<Message<?>> decode(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        String line = RawReplicationMessageDecoder.toUtf8String(byteBuffer);
+
+        if (TestDecodingDecoder.isMessage(line)) {
+            return TestDecodingDecoder.decodeMessage(line, lsn);
+        }
+        if (TestDecodingDecoder.isTruncate(line)) {
+            return Collections.emptyList();
+        }
+
+        if (line.startsWith(BEGIN)) {
+            this.lines = new ArrayList<>();
+            this.xid = parseXid(line, BEGIN.length() + 1);
+            this.lines.add(line);
+            return Collections.emptyList();
+        }
+        if (this.lines == null) {
+            throw new IllegalStateException("Received a test_decoding line outside of a transaction: " + line);
+        }
+        this.lines.add(line);
+        if (!line.startsWith(COMMIT)) {
+            return Collections.emptyList();
+        }
+
+        try {
+            MessageBuilder<?> builder = (this.payloadType == PgCdcSourceProperties.PayloadType.bytes) ?
+                    RawReplicationMessageDecoder.jsonBytesMessageBuilder(this.mapper.writeValueAsBytes(this.lines)) :
+                    MessageBuilder.withPayload(this.mapper.writeValueAsString(this.lines));
+            if (this.xid != null) {
+                builder.setHeader(PgCdcHeaders.XID, this.xid);
+            }
+            if (lsn != null) {
+                builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+            }
+            return Collections.<Message<?>>singletonList(builder.build());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to frame the test_decoding transaction", e);
+        } finally {
+            reset();
+        }
+    }
+
+    @Override
+    public void reset() {
+        this.lines = null;
+        this.xid = null;
+    }
+
+    /**
+     * @return Returns the transaction id following the BEGIN keyword, or null if the include-xids option is off.
+     */
+    private static Long parseXid(String line, int start) {
+        int end = start;
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        return (end > start) ? Long.valueOf(line.substring(start, end)) : null;
+    }
+}
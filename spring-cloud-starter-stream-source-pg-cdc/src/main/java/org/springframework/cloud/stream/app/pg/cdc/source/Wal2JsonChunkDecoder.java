@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Assembles the wal2json output produced with the 'write-in-chunks' option into bounded size sub-batches.
+ * <p>
+ * With 'write-in-chunks' wal2json writes every transaction as a sequence of WAL messages:
+ * <ul>
+ * <li>a header chunk: {"xid":123,"nextlsn":"0/16D5D48","timestamp":"...","change":[</li>
+ * <li>one chunk per change event: {"kind":"insert",...} prefixed by ',' for all but the first event</li>
+ * <li>a closing chunk: ]}</li>
+ * </ul>
+ * Only the change events are parsed. They are emitted as {@link Change} messages holding at most chunkSize events,
+ * tagged with the transaction id, the sub-batch sequence number and a last-chunk marker. Memory stays bounded by the
+ * chunkSize no matter how big the transaction is.
+ * <p>
+ * The logical decoding messages are framed the same way. The ones addressed to the source are emitted as
+ * {@link LogicalMessage}s, the others are skipped.
+ *
+ * @author Christian Tzolov
+ */
+public class Wal2JsonChunkDecoder implements ReplicationMessageDecoder {
+
+    private static final byte[] HEADER_SUFFIX = "]}".getBytes();
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final int chunkSize;
+
+    /**
+     * Holds the xid, nextlsn and timestamp of the transaction in progress, or null between transactions.
+     */
+    private Change header;
+
+    private List<ChangeEvent> events;
+
+    private int sequence;
+
+    /**
+     * True once the transaction in progress has received a change event.
+     */
+    private boolean hasChanges;
+
+    public Wal2JsonChunkDecoder(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public List<Message<?>> decode(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        if (!byteBuffer.hasArray()) {
+            byteBuffer = ByteBuffer.wrap(RawReplicationMessageDecoder.toBytes(byteBuffer));
+        }
+        byte[] bytes = byteBuffer.array();
+        int start = byteBuffer.arrayOffset() + byteBuffer.position();
+        int end = start + byteBuffer.remaining();
+
+        while (start < end && isWhitespace(bytes[start])) {
+            start++;
+        }
+        while (end > start && isWhitespace(bytes[end - 1])) {
+            end--;
+        }
+        if (start < end && bytes[start] == ',') {
+            start++;
+            while (start < end && isWhitespace(bytes[start])) {
+                start++;
+            }
+        }
+        if (start == end) {
+            return Collections.emptyList();
+        }
+
+        try {
+            if (bytes[start] == ']') {
+                return completeTransaction(lsn);
+            } else if (bytes[start] == '{' && bytes[end - 1] == '[') {
+                beginTransaction(bytes, start, end);
+                return Collections.emptyList();
+            } else if (bytes[start] == '{') {
+                return addChangeEvent(bytes, start, end, lsn);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to parse the wal2json chunk", e);
+        }
+
+        throw new IllegalStateException("Unexpected wal2json chunk: " + new String(bytes, start, end - start));
+    }
+
+    @Override
+    public void reset() {
+        this.header = null;
+        this.events = null;
+    }
+
+    private void beginTransaction(byte[] bytes, int start, int end) throws IOException {
+        byte[] headerJson = new byte[end - start + HEADER_SUFFIX.length];
+        System.arraycopy(bytes, start, headerJson, 0, end - start);
+        System.arraycopy(HEADER_SUFFIX, 0, headerJson, end - start, HEADER_SUFFIX.length);
+
+        this.header = this.mapper.readValue(headerJson, Change.class);
+        this.events = new ArrayList<>();
+        this.sequence = 0;
+        this.hasChanges = false;
+    }
+
+    private List<Message<?>> addChangeEvent(byte[] bytes, int start, int end, LogSequenceNumber lsn)
+            throws IOException {
+        assertInTransaction();
+
+        if (Wal2JsonDecoder.isMessage(bytes, start, end - start)) {
+            // the other logical messages are skipped
+            LogicalMessage logicalMessage = Wal2JsonDecoder.toSourceMessage(bytes, start, end - start);
+            if (logicalMessage == null) {
+                return Collections.emptyList();
+            }
+            MessageBuilder<LogicalMessage> builder = MessageBuilder.withPayload(logicalMessage);
+            if (lsn != null) {
+                builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+            }
+            return Collections.<Message<?>>singletonList(builder.build());
+        }
+        this.hasChanges = true;
+
+        this.events.add(this.mapper.readValue(bytes, start, end - start, ChangeEvent.class));
+
+        if (this.events.size() >= this.chunkSize) {
+            return Collections.<Message<?>>singletonList(emitChunk(lsn, false));
+        }
+        return Collections.emptyList();
+    }
+
+    private List<Message<?>> completeTransaction(LogSequenceNumber lsn) {
+        assertInTransaction();
+        // the non-transactional logical messages are framed like a transaction without xid
+        List<Message<?>> lastChunk = (this.hasChanges || this.header.getXid() != null) ?
+                Collections.<Message<?>>singletonList(emitChunk(lsn, true)) : Collections.<Message<?>>emptyList();
+        this.header = null;
+        this.events = null;
+        return lastChunk;
+    }
+
+    private Message<?> emitChunk(LogSequenceNumber lsn, boolean lastChunk) {
+        Change change = new Change();
+        change.setXid(this.header.getXid());
+        change.setNextlsn(this.header.getNextlsn());
+        change.setTimestamp(this.header.getTimestamp());
+        change.setChange(this.events);
+
+        MessageBuilder<Change> builder = MessageBuilder.withPayload(change)
+                .setHeader(PgCdcHeaders.CHUNK_SEQUENCE, this.sequence++)
+                .setHeader(PgCdcHeaders.LAST_CHUNK, lastChunk);
+        if (change.getXid() != null) {
+            builder.setHeader(PgCdcHeaders.XID, change.getXid());
+        }
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+
+        this.events = new ArrayList<>();
+        return builder.build();
+    }
+
+    private void assertInTransaction() {
+        if (this.header == null) {
+            throw new IllegalStateException("Received a wal2json chunk outside of a transaction");
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
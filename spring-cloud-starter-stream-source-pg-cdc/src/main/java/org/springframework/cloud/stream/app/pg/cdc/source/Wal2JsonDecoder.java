@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses the wal2json 'format-version=1' transaction documents into {@link Change} messages. Used when the change
+ * events must be inspected by the source, e.g. to emit them one by one, instead of emitting the documents as-is.
+ * <p>
+ * The non-transactional logical decoding messages addressed to the source, e.g. the heartbeats, are written by
+ * wal2json as separate documents: {"change":[{"kind":"message","transactional":false,"prefix":"pg-cdc-..",..}]}.
+ * They are emitted as {@link LogicalMessage}s.
+ *
+ * @author Christian Tzolov
+ */
+public class Wal2JsonDecoder implements ReplicationMessageDecoder {
+
+    /**
+     * Upper bound of the size of a logical message document addressed to the source. Larger WAL messages are not
+     * searched.
+     */
+    private static final int MAX_SOURCE_MESSAGE_BYTES = 1024;
+
+    private static final byte[] MESSAGE_KIND = "\"kind\":\"message\"".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] SOURCE_PREFIX = ("\"" + LogicalMessage.SOURCE_PREFIX).getBytes(StandardCharsets.UTF_8);
+
+    private static final ObjectMapper MESSAGE_MAPPER = new ObjectMapper();
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Override
+    public List<Message<?>> decode(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        Message<?> logicalMessage = toSourceMessage(byteBuffer, lsn);
+        if (logicalMessage != null) {
+            return Collections.<Message<?>>singletonList(logicalMessage);
+        }
+
+        Change change;
+        try {
+            if (byteBuffer.hasArray()) {
+                change = this.mapper.readValue(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                        byteBuffer.remaining(), Change.class);
+            } else {
+                change = this.mapper.readValue(RawReplicationMessageDecoder.toBytes(byteBuffer), Change.class);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to parse the wal2json transaction", e);
+        }
+
+        MessageBuilder<Change> builder = MessageBuilder.withPayload(change);
+        if (change.getXid() != null) {
+            builder.setHeader(PgCdcHeaders.XID, change.getXid());
+        }
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+        return Collections.<Message<?>>singletonList(builder.build());
+    }
+
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
+
+    /**
+     * @param byteBuffer WAL message. Not modified.
+     * @param lsn        LSN of the WAL message.
+     * @return Returns the {@link LogicalMessage} message, if the WAL message is a wal2json logical message document
+     * addressed to the source, otherwise null.
+     */
+    static Message<?> toSourceMessage(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        if (byteBuffer.remaining() > MAX_SOURCE_MESSAGE_BYTES) {
+            return null;
+        }
+        LogicalMessage logicalMessage = byteBuffer.hasArray() ?
+                toSourceMessage(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                        byteBuffer.remaining()) :
+                toSourceMessage(RawReplicationMessageDecoder.toBytes(byteBuffer), 0, byteBuffer.remaining());
+        if (logicalMessage == null) {
+            return null;
+        }
+        MessageBuilder<LogicalMessage> builder = MessageBuilder.withPayload(logicalMessage);
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return Returns true if the bytes hold a wal2json logical message, either as document or as change event.
+     */
+    static boolean isMessage(byte[] bytes, int offset, int length) {
+        return indexOf(bytes, offset, length, MESSAGE_KIND) >= 0;
+    }
+
+    /**
+     * @return Returns the logical message held by the wal2json document or change event, if it is addressed to the
+     * source, otherwise null.
+     */
+    static LogicalMessage toSourceMessage(byte[] bytes, int offset, int length) {
+        if (!isMessage(bytes, offset, length) || indexOf(bytes, offset, length, SOURCE_PREFIX) < 0) {
+            return null;
+        }
+        JsonNode node;
+        try {
+            node = MESSAGE_MAPPER.readValue(bytes, offset, length, JsonNode.class);
+        } catch (IOException e) {
+            return null;
+        }
+        if (node.has("change")) {
+            node = node.path("change").path(0);
+        }
+        String prefix = node.path("prefix").asText(null);
+        if (!"message".equals(node.path("kind").asText()) || !LogicalMessage.isSourceMessage(prefix)) {
+            return null;
+        }
+        return new LogicalMessage(node.path("transactional").asBoolean(), prefix, node.path("content").asText(null));
+    }
+
+    private static int indexOf(byte[] bytes, int offset, int length, byte[] pattern) {
+        int last = offset + length - pattern.length;
+        outer:
+        for (int i = offset; i <= last; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
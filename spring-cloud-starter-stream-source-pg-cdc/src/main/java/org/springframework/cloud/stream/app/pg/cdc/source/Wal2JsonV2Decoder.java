@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Wal2JsonRecord;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes the wal2json 'format-version=2' per-tuple records.
+ * <p>
+ * Every INSERT, UPDATE and DELETE record is emitted as soon as it is received, as a {@link Change} holding a single
+ * change event. The transaction id, transaction LSN (the nextlsn, or else the lsn, of the BEGIN record) and timestamp
+ * of the enclosing transaction are copied from the BEGIN record, so downstream consumers handle the per-tuple messages
+ * exactly as the format-version 1 transactions. The MESSAGE records addressed to the source are emitted as {@link LogicalMessage}s. The BEGIN, COMMIT and the other
+ * non-DML records do not produce messages.
+ *
+ * @author Christian Tzolov
+ */
+public class Wal2JsonV2Decoder implements ReplicationMessageDecoder {
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * The BEGIN record of the transaction in progress, or null between transactions.
+     */
+    private Wal2JsonRecord begin;
+
+    @Override
+    public List<Message<?>> decode(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        Wal2JsonRecord record = parse(byteBuffer);
+
+        if (Wal2JsonRecord.BEGIN.equals(record.getAction())) {
+            this.begin = record;
+            return Collections.emptyList();
+        } else if (Wal2JsonRecord.COMMIT.equals(record.getAction())) {
+            this.begin = null;
+            return Collections.emptyList();
+        } else if (Wal2JsonRecord.MESSAGE.equals(record.getAction())) {
+            return decodeMessage(record, lsn);
+        } else if (!record.isDml()) {
+            return Collections.emptyList();
+        }
+
+        Change change = new Change();
+        change.setXid(record.getXid() != null ? record.getXid() : (this.begin != null ? this.begin.getXid() : null));
+        change.setNextlsn(this.begin != null ? this.begin.getTransactionLsn() : null);
+        change.setTimestamp(this.begin != null ? this.begin.getTimestamp() : record.getTimestamp());
+        change.setChange(Collections.singletonList(record.toChangeEvent()));
+
+        MessageBuilder<Change> builder = MessageBuilder.withPayload(change);
+        if (change.getXid() != null) {
+            builder.setHeader(PgCdcHeaders.XID, change.getXid());
+        }
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+        return Collections.<Message<?>>singletonList(builder.build());
+    }
+
+    @Override
+    public void reset() {
+        this.begin = null;
+    }
+
+    private List<Message<?>> decodeMessage(Wal2JsonRecord record, LogSequenceNumber lsn) {
+        if (!LogicalMessage.isSourceMessage(record.getPrefix())) {
+            return Collections.emptyList();
+        }
+        MessageBuilder<LogicalMessage> builder = MessageBuilder.withPayload(new LogicalMessage(
+                Boolean.TRUE.equals(record.getTransactional()), record.getPrefix(), record.getContent()));
+        if (lsn != null) {
+            builder.setHeader(PgCdcHeaders.LSN, lsn.asString());
+        }
+        return Collections.<Message<?>>singletonList(builder.build());
+    }
+
+    private Wal2JsonRecord parse(ByteBuffer byteBuffer) {
+        try {
+            if (byteBuffer.hasArray()) {
+                return this.mapper.readValue(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                        byteBuffer.remaining(), Wal2JsonRecord.class);
+            }
+            return this.mapper.readValue(RawReplicationMessageDecoder.toBytes(byteBuffer), Wal2JsonRecord.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to parse the wal2json record", e);
+        }
+    }
+}
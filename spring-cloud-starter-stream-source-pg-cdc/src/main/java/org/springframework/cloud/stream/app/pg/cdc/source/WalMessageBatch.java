@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.postgresql.replication.LogSequenceNumber;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Accumulates several wal2json transaction documents into a single JSON array, e.g. [{"xid":1,...},{"xid":2,...}].
+ * The WAL message bytes are appended as-is, so the batch is built without parsing or charset decoding. The array is
+ * closed by the first toBytes or toUtf8String call, no more messages can be added afterwards.
+ *
+ * @author Christian Tzolov
+ */
+public class WalMessageBatch {
+
+    private final int maxMessages;
+
+    private final int maxBytes;
+
+    private final ByteArrayOutputStream out;
+
+    private int size;
+
+    private LogSequenceNumber firstLsn;
+
+    private LogSequenceNumber lastLsn;
+
+    private boolean closed;
+
+    public WalMessageBatch(int maxMessages, int maxBytes) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.out = new ByteArrayOutputStream(Math.min(maxBytes, 64 * 1024));
+        this.out.write('[');
+    }
+
+    /**
+     * @param byteBuffer WAL message to append to the batch.
+     * @param lsn        LSN of the WAL message.
+     */
+    public void add(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        if (this.closed) {
+            throw new IllegalStateException("The WAL message batch is already closed");
+        }
+        if (this.size > 0) {
+            this.out.write(',');
+        }
+        if (byteBuffer.hasArray()) {
+            this.out.write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+        } else {
+            byte[] bytes = RawReplicationMessageDecoder.toBytes(byteBuffer);
+            this.out.write(bytes, 0, bytes.length);
+        }
+        this.size++;
+
+        if (lsn != null) {
+            if (this.firstLsn == null) {
+                this.firstLsn = lsn;
+            }
+            this.lastLsn = lsn;
+        }
+    }
+
+    /**
+     * @return Returns true if either the message count or the byte size limit of the batch has been reached.
+     */
+    public boolean isFull() {
+        return this.size >= this.maxMessages || this.out.size() >= this.maxBytes;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public LogSequenceNumber getFirstLsn() {
+        return this.firstLsn;
+    }
+
+    public LogSequenceNumber getLastLsn() {
+        return this.lastLsn;
+    }
+
+    public byte[] toBytes() {
+        close();
+        return this.out.toByteArray();
+    }
+
+    public String toUtf8String() {
+        close();
+        try {
+            return this.out.toString(StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void close() {
+        if (!this.closed) {
+            this.out.write(']');
+            this.closed = true;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.util.Assert;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring buffer of preallocated WAL message slots, handing the WAL messages over from
+ * the reader thread to the publisher thread without locks.
+ * <p>
+ * The reader copies every WAL message into the next free slot with {@link #offer(ByteBuffer, LogSequenceNumber)}.
+ * The publisher reads the filled slots with {@link #get(int)} and frees them with {@link #release(int)} once they
+ * are processed, so a slot is never overwritten while it is read. The head and tail sequences are published with
+ * ordered writes and each side caches the last seen sequence of the other side, to avoid reading the shared
+ * counters on every call.
+ *
+ * @author Christian Tzolov
+ */
+public class WalRingBuffer {
+
+    /**
+     * A preallocated WAL message slot. The slot array is reused: the decoders must not keep the buffer returned by
+     * {@link #getBuffer()} beyond the decode call.
+     */
+    public static class Slot {
+
+        private byte[] bytes;
+
+        private int length;
+
+        private LogSequenceNumber lsn;
+
+        Slot(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        /**
+         * @return Returns the WAL message. The backing array is always larger than the message, so the message
+         * bytes are copied out rather than taken over as-is (see RawReplicationMessageDecoder#toBytes).
+         */
+        public ByteBuffer getBuffer() {
+            return ByteBuffer.wrap(this.bytes, 0, this.length);
+        }
+
+        public int getLength() {
+            return this.length;
+        }
+
+        public LogSequenceNumber getLsn() {
+            return this.lsn;
+        }
+    }
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    private final int slotBytes;
+
+    /**
+     * Sequence of the next slot to fill. Written by the producer only.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Sequence of the next slot to read. Written by the consumer only.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Producer side cache of the head.
+     */
+    private long cachedHead;
+
+    /**
+     * Consumer side cache of the tail.
+     */
+    private long cachedTail;
+
+    /**
+     * @param capacity  Number of slots. Must be a power of two.
+     * @param slotBytes Initial size (in bytes) of every slot. Larger messages grow their slot.
+     */
+    public WalRingBuffer(int capacity, int slotBytes) {
+        Assert.isTrue(capacity > 0 && Integer.bitCount(capacity) == 1, "The capacity must be a power of two");
+        this.slots = new Slot[capacity];
+        this.mask = capacity - 1;
+        this.slotBytes = Math.max(1, slotBytes);
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new Slot(this.slotBytes);
+        }
+    }
+
+    /**
+     * Copies the WAL message into the next free slot. Called by the producer only.
+     *
+     * @param byteBuffer WAL message. Not modified.
+     * @param lsn        LSN of the WAL message.
+     * @return Returns false if the buffer is full.
+     */
+    public boolean offer(ByteBuffer byteBuffer, LogSequenceNumber lsn) {
+        long sequence = this.tail.get();
+        if (sequence - this.cachedHead >= this.slots.length) {
+            this.cachedHead = this.head.get();
+            if (sequence - this.cachedHead >= this.slots.length) {
+                return false;
+            }
+        }
+
+        Slot slot = this.slots[(int) sequence & this.mask];
+        int length = byteBuffer.remaining();
+        if (length >= slot.bytes.length) {
+            slot.bytes = new byte[Integer.highestOneBit(length) << 1];
+        } else if (slot.bytes.length > 16 * this.slotBytes && length < this.slotBytes) {
+            // give back the memory of a past large message
+            slot.bytes = new byte[this.slotBytes];
+        }
+        byteBuffer.duplicate().get(slot.bytes, 0, length);
+        slot.length = length;
+        slot.lsn = lsn;
+
+        this.tail.lazySet(sequence + 1);
+        return true;
+    }
+
+    /**
+     * @return Returns the number of filled slots. Called by the consumer only.
+     */
+    public int size() {
+        this.cachedTail = this.tail.get();
+        return (int) (this.cachedTail - this.head.get());
+    }
+
+    /**
+     * @param index Index of the filled slot, relative to the head. Must be lower than the last {@link #size()}.
+     * @return Returns the filled slot. Called by the consumer only.
+     */
+    public Slot get(int index) {
+        long sequence = this.head.get() + index;
+        Assert.isTrue(sequence < this.cachedTail, "No filled slot at index " + index);
+        return this.slots[(int) sequence & this.mask];
+    }
+
+    /**
+     * Frees the given number of slots at the head. Called by the consumer only.
+     */
+    public void release(int count) {
+        this.head.lazySet(this.head.get() + count);
+    }
+
+    /**
+     * @return Returns true if all filled slots were released.
+     */
+    public boolean isEmpty() {
+        return this.head.get() == this.tail.get();
+    }
+
+    public int getCapacity() {
+        return this.slots.length;
+    }
+}
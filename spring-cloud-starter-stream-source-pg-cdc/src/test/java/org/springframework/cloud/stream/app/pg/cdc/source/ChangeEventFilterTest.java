@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Test;
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.InMemroyPrimaryKeyColumnIndices;
+import org.springframework.cloud.stream.app.pg.cdc.keyvalue.KeyValueAdapter;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Christian Tzolov
+ */
+public class ChangeEventFilterTest {
+
+    @Test
+    public void filterTablesAndOperations() {
+        PgCdcSourceProperties.Filter filter = new PgCdcSourceProperties.Filter();
+        filter.setIncludeTables("public.*,audit.log");
+        filter.setExcludeTables("public.tmp");
+        filter.setOperations(asList(ChangeEvent.Kind.insert, ChangeEvent.Kind.update));
+
+        Message<?> message = message(
+                event(ChangeEvent.Kind.insert, "public", "xpto"),
+                event(ChangeEvent.Kind.delete, "public", "xpto"),
+                event(ChangeEvent.Kind.insert, "public", "tmp"),
+                event(ChangeEvent.Kind.update, "audit", "log"),
+                event(ChangeEvent.Kind.update, "audit", "other"));
+
+        Message<?> filtered = new ChangeEventFilter(filter, null).filter(message);
+        List<ChangeEvent> events = ((Change) filtered.getPayload()).getChange();
+        assertEquals(2, events.size());
+        assertEquals("xpto", events.get(0).getTable());
+        assertEquals("log", events.get(1).getTable());
+        assertEquals(882, filtered.getHeaders().get(PgCdcHeaders.XID));
+        assertEquals(Integer.valueOf(882), ((Change) filtered.getPayload()).getXid());
+    }
+
+    @Test
+    public void dropEmptyMessages() {
+        PgCdcSourceProperties.Filter filter = new PgCdcSourceProperties.Filter();
+        filter.setExcludeTables("public.xpto");
+        ChangeEventFilter changeEventFilter = new ChangeEventFilter(filter, null);
+
+        assertNull(changeEventFilter.filter(message(event(ChangeEvent.Kind.insert, "public", "xpto"))));
+
+        Message<?> lastChunk = MessageBuilder.fromMessage(message(event(ChangeEvent.Kind.insert, "public", "xpto")))
+                .setHeader(PgCdcHeaders.LAST_CHUNK, true).build();
+        assertEquals(0, ((Change) changeEventFilter.filter(lastChunk).getPayload()).getChange().size());
+    }
+
+    @Test
+    public void projectColumns() {
+        PgCdcSourceProperties.Filter filter = new PgCdcSourceProperties.Filter();
+        filter.setIncludeColumns("public.xpto.b,public.xpto.c");
+        filter.setExcludeColumns("public.xpto.c");
+
+        ChangeEvent event = event(ChangeEvent.Kind.insert, "public", "xpto");
+        event.setPknames(asList("a"));
+
+        Message<?> filtered = new ChangeEventFilter(filter, null).filter(message(event));
+        ChangeEvent projected = ((Change) filtered.getPayload()).getChange().get(0);
+        assertEquals(asList("a", "b"), projected.getColumnnames());
+        assertEquals(asList("int4", "bool"), projected.getColumntypes());
+        assertEquals(asList(1, true), projected.getColumnvalues());
+        assertEquals(asList("a"), projected.getPknames());
+    }
+
+    @Test
+    public void keepPrimaryKeyColumns() {
+        PgCdcSourceProperties.Filter filter = new PgCdcSourceProperties.Filter();
+        filter.setExcludeColumns("public.xpto.a,public.xpto.b");
+        Map<String, List<Integer>> indices = Collections.singletonMap("public.xpto", asList(2));
+
+        Message<?> filtered = new ChangeEventFilter(filter, new InMemroyPrimaryKeyColumnIndices(indices, "."))
+                .filter(message(event(ChangeEvent.Kind.insert, "public", "xpto")));
+        ChangeEvent projected = ((Change) filtered.getPayload()).getChange().get(0);
+        assertEquals(asList("c"), projected.getColumnnames());
+        assertEquals(asList("c"), projected.getPknames());
+        assertEquals("test1", new KeyValueAdapter(null).getKey(projected));
+    }
+
+    @Test
+    public void keepUndecodedColumnTexts() {
+        PgCdcSourceProperties.Filter filter = new PgCdcSourceProperties.Filter();
+        filter.setExcludeColumns("public.xpto.b");
+
+        ChangeEvent event = new ChangeEvent();
+        event.setKind(ChangeEvent.Kind.insert);
+        event.setSchema("public");
+        event.setTable("xpto");
+        event.addColumn("a", "integer", "1");
+        event.addColumn("b", "boolean", "true");
+        event.addColumn("c", "text", "x");
+        event.setPknames(asList("a"));
+
+        Message<?> filtered = new ChangeEventFilter(filter, null).filter(message(event));
+        ChangeEvent projected = ((Change) filtered.getPayload()).getChange().get(0);
+        assertEquals(asList("1", "x"), projected.getColumntexts());
+        assertEquals(asList(1, "x"), projected.getColumnvalues());
+    }
+
+    @Test
+    public void passOtherPayloads() {
+        PgCdcSourceProperties.Filter filter = new PgCdcSourceProperties.Filter();
+        filter.setExcludeTables("public.xpto");
+
+        Message<?> message = MessageBuilder.withPayload("{\"change\":[]}").build();
+        assertSame(message, new ChangeEventFilter(filter, null).filter(message));
+    }
+
+    private static ChangeEvent event(ChangeEvent.Kind kind, String schema, String table) {
+        ChangeEvent event = new ChangeEvent();
+        event.setKind(kind);
+        event.setSchema(schema);
+        event.setTable(table);
+        event.setColumnnames(asList("a", "b", "c"));
+        event.setColumntypes(asList("int4", "bool", "varchar"));
+        event.setColumnvalues(asList((Object) 1, true, "test1"));
+        return event;
+    }
+
+    private static Message<?> message(ChangeEvent... events) {
+        Change change = new Change();
+        change.setXid(882);
+        change.setChange(asList(events));
+        return MessageBuilder.withPayload(change).setHeader(PgCdcHeaders.XID, 882).build();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author Christian Tzolov
+ */
+public class ChangeEventSplitterTest {
+
+    private static final String TRANSACTION = "{\"xid\":882,\"nextlsn\":\"0/1560898\"," +
+            "\"timestamp\":\"2017-10-03 11:22:43.773734+02\",\"change\":[" +
+            "{\"kind\":\"insert\",\"schema\":\"public\",\"table\":\"xpto\",\"columnnames\":[\"a\",\"b\"]," +
+            "\"columntypes\":[\"int4\",\"varchar\"],\"columnvalues\":[1,\"x\"],\"pknames\":[\"a\"]}," +
+            "{\"kind\":\"delete\",\"schema\":\"public\",\"table\":\"xpto\"," +
+            "\"oldkeys\":{\"keynames\":[\"a\"],\"keytypes\":[\"int4\"],\"keyvalues\":[1]}}]}";
+
+    @Test
+    public void splitTransaction() {
+        List<Message<?>> decoded = new Wal2JsonDecoder().decode(ByteBuffer.wrap(TRANSACTION.getBytes()),
+                LogSequenceNumber.valueOf(7));
+        assertEquals(1, decoded.size());
+        assertEquals(882, decoded.get(0).getHeaders().get(PgCdcHeaders.XID));
+
+        List<Message<?>> messages = new ChangeEventSplitter(
+                new CachedPrimaryKeyColumnIndices(new PgCdcSourceProperties())).split(decoded);
+        assertEquals(2, messages.size());
+
+        for (Message<?> message : messages) {
+            assertEquals("public_xpto", message.getHeaders().get(PgCdcHeaders.DATASET));
+            assertEquals("1".hashCode(), message.getHeaders().get(PgCdcHeaders.KEY_HASH));
+            assertEquals("0/1560898", message.getHeaders().get(PgCdcHeaders.TRANSACTION_LSN));
+            assertEquals("0/7", message.getHeaders().get(PgCdcHeaders.LSN));
+            assertFalse(message.getHeaders().containsKey(PgCdcHeaders.LAST_CHUNK));
+
+            Change change = (Change) message.getPayload();
+            assertEquals(Integer.valueOf(882), change.getXid());
+            assertEquals(1, change.getChange().size());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class IncrementalSnapshotTest {
+
+    private static final TableMetadata XPTO = new TableMetadata("public", "xpto", "public.xpto",
+            asList("a", "b"), asList("int4", "varchar"), asList("a"), asList("int4"));
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void dropRowsChangedInsideTheWindow() {
+        IncrementalSnapshot.Chunk chunk = new IncrementalSnapshot.Chunk("1", XPTO,
+                asList(row(1, "x"), row(2, "y"), row(3, "z")), asList("3"), true);
+
+        // changed before the low watermark
+        chunk.reconcile(insert("public", "xpto", 1, "x1"));
+        assertEquals(3, chunk.getRows().size());
+
+        chunk.openWindow();
+        chunk.reconcile(insert("public", "xpto", 1, "x2"));
+        chunk.reconcile(insert("other", "xpto", 2, "y2"));
+        chunk.reconcile(delete(3));
+
+        List<ChangeEvent> rows = new ArrayList<>(chunk.getRows());
+        assertEquals(1, rows.size());
+        assertEquals(asList(2, "y"), rows.get(0).getColumnvalues());
+    }
+
+    @Test
+    public void compareKeysAsText() {
+        IncrementalSnapshot.Chunk chunk = new IncrementalSnapshot.Chunk("1", XPTO,
+                asList(row(1L, "x")), asList("1"), true);
+
+        chunk.openWindow();
+        chunk.reconcile(insert("public", "xpto", 1, "x1"));
+        assertTrue(chunk.getRows().isEmpty());
+    }
+
+    @Test
+    public void ignoreSignalsForOtherTables() {
+        IncrementalSnapshot snapshot = new IncrementalSnapshot(new PgCdcSourceProperties(), "public.orders", null);
+
+        Message<?> signal = MessageBuilder.withPayload(
+                new LogicalMessage(false, IncrementalSnapshot.SIGNAL_PREFIX, "public.xpto")).build();
+        List<Message<?>> messages = snapshot.process(Collections.<Message<?>>singletonList(signal),
+                LogSequenceNumber.valueOf(1));
+
+        assertTrue(messages.isEmpty());
+        assertTrue(snapshot.getPendingTables().isEmpty());
+    }
+
+    @Test
+    public void resumeSavedProgress() throws IOException {
+        File progressFile = temporaryFolder.newFile("slot.snapshot");
+        Files.write(progressFile.toPath(), asList("tables=public.orders,public.items", "key.0=42", "key.1=a b"),
+                StandardCharsets.ISO_8859_1);
+
+        IncrementalSnapshot snapshot = new IncrementalSnapshot(new PgCdcSourceProperties(), null, progressFile);
+
+        assertEquals(asList("public.orders", "public.items"), snapshot.getPendingTables());
+        assertEquals(asList("42", "a b"), snapshot.getLastKey());
+    }
+
+    @Test
+    public void startWithoutProgress() {
+        IncrementalSnapshot snapshot = new IncrementalSnapshot(new PgCdcSourceProperties(), null,
+                new File(temporaryFolder.getRoot(), "slot.snapshot"));
+
+        assertTrue(snapshot.getPendingTables().isEmpty());
+        assertNull(snapshot.getLastKey());
+    }
+
+    private static ChangeEvent row(Object a, String b) {
+        ChangeEvent changeEvent = new ChangeEvent();
+        changeEvent.setKind(ChangeEvent.Kind.insert);
+        changeEvent.setSchema("public");
+        changeEvent.setTable("xpto");
+        changeEvent.setColumnnames(XPTO.getColumnNames());
+        changeEvent.setColumntypes(XPTO.getColumnTypes());
+        changeEvent.setColumnvalues(asList(a, b));
+        return changeEvent;
+    }
+
+    private static ChangeEvent insert(String schema, String table, int a, String b) {
+        ChangeEvent changeEvent = row(a, b);
+        changeEvent.setSchema(schema);
+        changeEvent.setTable(table);
+        return changeEvent;
+    }
+
+    private static ChangeEvent delete(int a) {
+        ChangeEvent.OldKeys oldKeys = new ChangeEvent.OldKeys();
+        oldKeys.setKeynames(asList("a"));
+        oldKeys.setKeytypes(asList("int4"));
+        oldKeys.setKeyvalues(asList((Object) a));
+
+        ChangeEvent changeEvent = new ChangeEvent();
+        changeEvent.setKind(ChangeEvent.Kind.delete);
+        changeEvent.setSchema("public");
+        changeEvent.setTable("xpto");
+        changeEvent.setOldkeys(oldKeys);
+        return changeEvent;
+    }
+}
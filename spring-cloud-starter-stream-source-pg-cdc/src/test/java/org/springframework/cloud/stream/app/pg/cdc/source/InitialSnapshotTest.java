@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Christian Tzolov
+ */
+public class InitialSnapshotTest {
+
+    @Test
+    public void unescapeCopyTextFields() {
+        assertNull(InitialSnapshot.unescape("\\N"));
+        assertEquals("", InitialSnapshot.unescape(""));
+        assertEquals("plain text", InitialSnapshot.unescape("plain text"));
+        assertEquals("a\tb\nc\\d", InitialSnapshot.unescape("a\\tb\\nc\\\\d"));
+        assertEquals("\\N", InitialSnapshot.unescape("\\\\N"));
+        assertEquals("\r\b\f\u000B", InitialSnapshot.unescape("\\r\\b\\f\\v"));
+    }
+}
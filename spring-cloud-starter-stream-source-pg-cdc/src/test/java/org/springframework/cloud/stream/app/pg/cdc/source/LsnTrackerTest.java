@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Christian Tzolov
+ */
+public class LsnTrackerTest {
+
+    private LsnTracker tracker;
+
+    @Before
+    public void setup() {
+        tracker = new LsnTracker();
+    }
+
+    @Test
+    public void advanceWithoutMessages() {
+        assertEquals(LogSequenceNumber.INVALID_LSN, tracker.advance());
+    }
+
+    @Test
+    public void advanceOnlyPastConfirmedHead() {
+        tracker.track(LogSequenceNumber.valueOf(10L));
+        tracker.track(LogSequenceNumber.valueOf(20L));
+        tracker.track(LogSequenceNumber.valueOf(30L));
+
+        tracker.confirm(LogSequenceNumber.valueOf(20L));
+        assertEquals(LogSequenceNumber.INVALID_LSN, tracker.advance());
+
+        tracker.confirm(LogSequenceNumber.valueOf(10L));
+        assertEquals(LogSequenceNumber.valueOf(20L), tracker.advance());
+        assertEquals(1, tracker.getInFlightCount());
+
+        tracker.confirm(LogSequenceNumber.valueOf(30L));
+        assertEquals(LogSequenceNumber.valueOf(30L), tracker.advance());
+        assertEquals(0, tracker.getInFlightCount());
+    }
+
+    @Test
+    public void messagesSharingTheSameLsn() {
+        tracker.track(LogSequenceNumber.valueOf(10L));
+        tracker.track(LogSequenceNumber.valueOf(10L));
+
+        tracker.confirm(LogSequenceNumber.valueOf(10L));
+        assertEquals(LogSequenceNumber.INVALID_LSN, tracker.advance());
+
+        tracker.confirm(LogSequenceNumber.valueOf(10L));
+        assertEquals(LogSequenceNumber.valueOf(10L), tracker.advance());
+    }
+
+    @Test
+    public void clearDropsUnconfirmedMessages() {
+        tracker.track(LogSequenceNumber.valueOf(10L));
+        tracker.track(LogSequenceNumber.valueOf(20L));
+        tracker.confirm(LogSequenceNumber.valueOf(20L));
+
+        tracker.clear();
+        assertEquals(0, tracker.getInFlightCount());
+
+        tracker.track(LogSequenceNumber.valueOf(10L));
+        tracker.confirm(LogSequenceNumber.valueOf(10L));
+        assertEquals(LogSequenceNumber.valueOf(10L), tracker.advance());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.postgresql.replication.LogSequenceNumber;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Christian Tzolov
+ */
+public class MappedFileLsnCheckpointStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void saveAndReload() throws Exception {
+        File file = new File(folder.getRoot(), "slots/mySlot.lsn");
+
+        MappedFileLsnCheckpointStore store = new MappedFileLsnCheckpointStore(file);
+        assertEquals(LogSequenceNumber.INVALID_LSN, store.load());
+        store.save(LogSequenceNumber.valueOf("0/1560898"));
+        store.close();
+
+        store = new MappedFileLsnCheckpointStore(file);
+        assertEquals(LogSequenceNumber.valueOf("0/1560898"), store.load());
+        store.save(LogSequenceNumber.INVALID_LSN);
+        assertEquals(LogSequenceNumber.INVALID_LSN, store.load());
+        store.close();
+    }
+
+    @Test
+    public void ignoreTornWrite() throws Exception {
+        File file = folder.newFile("mySlot.lsn");
+
+        MappedFileLsnCheckpointStore store = new MappedFileLsnCheckpointStore(file);
+        store.save(LogSequenceNumber.valueOf(100L));
+        store.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeLong(200L);
+        }
+
+        store = new MappedFileLsnCheckpointStore(file);
+        assertEquals(LogSequenceNumber.INVALID_LSN, store.load());
+        store.close();
+    }
+
+    @Test
+    public void resolveStartPosition() throws Exception {
+        MappedFileLsnCheckpointStore store = new MappedFileLsnCheckpointStore(folder.newFile("mySlot.lsn"));
+        store.save(LogSequenceNumber.valueOf(100L));
+
+        assertEquals(LogSequenceNumber.valueOf(100L),
+                PgCdcSourceConfiguration.resolveStartPosition(store, false, LogSequenceNumber.valueOf(50L)));
+        assertEquals(LogSequenceNumber.valueOf(150L),
+                PgCdcSourceConfiguration.resolveStartPosition(store, false, LogSequenceNumber.valueOf(150L)));
+
+        // a new slot doesn't continue the checkpointed stream
+        assertEquals(LogSequenceNumber.INVALID_LSN,
+                PgCdcSourceConfiguration.resolveStartPosition(store, true, LogSequenceNumber.INVALID_LSN));
+        assertEquals(LogSequenceNumber.INVALID_LSN, store.load());
+        store.close();
+    }
+}
@@ -23,9 +23,12 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Arrays;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -95,6 +98,32 @@ public class PgCdcPropertiesTests {
         assertThat(properties.outputPluginOptionsAsProperties().getProperty("include-schemas"), equalTo("true"));
         assertThat(properties.outputPluginOptionsAsProperties().getProperty("include-types"), equalTo("true"));
         assertThat(properties.outputPluginOptionsAsProperties().getProperty("write-in-chunks"), equalTo("false"));
+        assertThat(properties.getReadMode(), equalTo(PgCdcSourceProperties.ReadMode.adaptive));
+        assertThat(properties.getMaxIdleBackoff(), equalTo(100L));
+    }
+
+    @Test
+    public void batch() {
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.replicationSlot:myWalSlot");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.batch.maxMessages:100");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.batch.maxLinger:5");
+        this.context.register(Conf.class);
+        this.context.refresh();
+        PgCdcSourceProperties properties = this.context.getBean(PgCdcSourceProperties.class);
+        assertThat(properties.getBatch().isEnabled(), equalTo(true));
+        assertThat(properties.getBatch().getMaxMessages(), equalTo(100));
+        assertThat(properties.getBatch().getMaxBytes(), equalTo(1024 * 1024));
+        assertThat(properties.getBatch().getMaxLinger(), equalTo(5L));
+    }
+
+    @Test
+    public void blockingReadMode() {
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.replicationSlot:myWalSlot");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.readMode:blocking");
+        this.context.register(Conf.class);
+        this.context.refresh();
+        PgCdcSourceProperties properties = this.context.getBean(PgCdcSourceProperties.class);
+        assertThat(properties.getReadMode(), equalTo(PgCdcSourceProperties.ReadMode.blocking));
     }
 
     @Test
@@ -118,6 +147,73 @@ public class PgCdcPropertiesTests {
 //        assertThat(properties.outputPluginOptionsAsProperties().getProperty("write-in-chunks"), equalTo("false"));
     }
 
+    @Test
+    public void formatVersion2() {
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.replicationSlot:myWalSlot");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.outputPluginOptions.format-version=2");
+        this.context.register(Conf.class);
+        this.context.refresh();
+        PgCdcSourceProperties properties = this.context.getBean(PgCdcSourceProperties.class);
+        assertThat(properties.isFormatVersion2(), equalTo(true));
+        assertThat(properties.outputPluginOptionsAsProperties().getProperty("include-pk"), equalTo("true"));
+    }
+
+
+    @Test
+    public void snapshot() {
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.replicationSlot:myWalSlot");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.snapshot.enabled:true");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.snapshot.tables:public.orders");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.snapshot.parallelism:8");
+        this.context.register(Conf.class);
+        this.context.refresh();
+        PgCdcSourceProperties properties = this.context.getBean(PgCdcSourceProperties.class);
+        assertThat(properties.getSnapshot().isEnabled(), equalTo(true));
+        assertThat(properties.getSnapshot().getTables(), equalTo("public.orders"));
+        assertThat(properties.getSnapshot().getParallelism(), equalTo(8));
+        assertThat(properties.getSnapshot().getRowsPerChunk(), equalTo(100000L));
+    }
+
+    @Test
+    public void filter() {
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.replicationSlot:myWalSlot");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.filter.includeTables:public.*");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.filter.excludeTables:public.tmp");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.filter.operations:insert,update");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.filter.excludeColumns:public.users.password");
+        this.context.register(Conf.class);
+        this.context.refresh();
+        PgCdcSourceProperties properties = this.context.getBean(PgCdcSourceProperties.class);
+        assertThat(properties.getFilter().isEnabled(), equalTo(true));
+        assertThat(properties.getFilter().getOperations(),
+                equalTo(Arrays.asList(ChangeEvent.Kind.insert, ChangeEvent.Kind.update)));
+        assertThat(properties.getFilter().getExcludeColumns(), equalTo("public.users.password"));
+        assertThat(properties.outputPluginOptionsAsProperties().getProperty("add-tables"), equalTo("public.*"));
+        assertThat(properties.outputPluginOptionsAsProperties().getProperty("filter-tables"), equalTo("public.tmp"));
+    }
+
+    @Test
+    public void slotGroups() {
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.replicationSlot:myWalSlot");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.slotGroups[0].replicationSlot:ordersSlot");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.slotGroups[0].tables:public.orders,public.items");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.slotGroups[1].replicationSlot:usersSlot");
+        EnvironmentTestUtils.addEnvironment(this.context, "pg.cdc.slotGroups[1].outputPluginOptions.include-types=false");
+        this.context.register(Conf.class);
+        this.context.refresh();
+        PgCdcSourceProperties properties = this.context.getBean(PgCdcSourceProperties.class);
+        assertThat(properties.getSlotGroups().size(), equalTo(2));
+
+        PgCdcSourceProperties.SlotGroup orders = properties.getSlotGroups().get(0);
+        assertThat(orders.getReplicationSlot(), equalTo("ordersSlot"));
+        assertThat(properties.outputPluginOptionsAsProperties(orders).getProperty("add-tables"),
+                equalTo("public.orders,public.items"));
+
+        PgCdcSourceProperties.SlotGroup users = properties.getSlotGroups().get(1);
+        assertThat(properties.outputPluginOptionsAsProperties(users).getProperty("add-tables"), equalTo(null));
+        assertThat(properties.outputPluginOptionsAsProperties(users).getProperty("include-types"), equalTo("false"));
+        assertThat(properties.outputPluginOptionsAsProperties(users).getProperty("include-xids"), equalTo("true"));
+    }
 
     @Configuration
     @EnableConfigurationProperties(PgCdcSourceProperties.class)
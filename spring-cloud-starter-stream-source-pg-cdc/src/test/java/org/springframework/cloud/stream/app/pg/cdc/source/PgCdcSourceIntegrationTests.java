@@ -22,6 +22,7 @@ import org.junit.runner.RunWith;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.postgresql.PGConnection;
+import org.postgresql.replication.LogSequenceNumber;
 import org.postgresql.replication.PGReplicationStream;
 import org.postgresql.replication.fluent.logical.ChainedLogicalStreamBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +32,7 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.cloud.stream.messaging.Source;
 import org.springframework.cloud.stream.test.binder.MessageCollector;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -59,7 +61,7 @@ public abstract class PgCdcSourceIntegrationTests {
     @Autowired
     protected MessageCollector messageCollector;
 
-    @TestPropertySource(properties = "pg.cdc.replicationSlot=mySlot")
+    @TestPropertySource(properties = {"pg.cdc.replicationSlot=mySlot", "pg.cdc.feedbackInterval=10"})
     public static class DefaultBehaviorTests extends PgCdcSourceIntegrationTests {
 
         @MockBean
@@ -76,6 +78,9 @@ public abstract class PgCdcSourceIntegrationTests {
 
             final String testData[] = {"Test Data 1", "Test Data 2"};
 
+            when(replicationStream.getLastReceiveLSN())
+                    .thenReturn(LogSequenceNumber.valueOf(1L), LogSequenceNumber.valueOf(2L));
+
             when(replicationStream.readPending()).thenAnswer(new Answer<ByteBuffer>() {
                 private int count = 0;
 
@@ -83,7 +88,7 @@ public abstract class PgCdcSourceIntegrationTests {
                 public ByteBuffer answer(InvocationOnMock invocationOnMock) throws Throwable {
                     ByteBuffer buffer = null;
                     if (count < testData.length) {
-                        buffer = ByteBuffer.allocate(testData[count].length()).put(testData[count].getBytes());
+                        buffer = ByteBuffer.wrap(testData[count].getBytes());
                         count++;
                     }
                     return buffer;
@@ -94,17 +99,104 @@ public abstract class PgCdcSourceIntegrationTests {
             assertNotNull(received);
             assertThat(received.getPayload(), Matchers.instanceOf(String.class));
             assertEquals("Test Data 1", received.getPayload());
+            assertEquals("0/1", received.getHeaders().get(PgCdcHeaders.LSN));
 
             received = messageCollector.forChannel(pgWalSource.output()).poll(2, TimeUnit.SECONDS);
             assertNotNull(received);
             assertThat(received.getPayload(), Matchers.instanceOf(String.class));
             assertEquals("Test Data 2", received.getPayload());
+            assertEquals("0/2", received.getHeaders().get(PgCdcHeaders.LSN));
 
             received = messageCollector.forChannel(pgWalSource.output()).poll(2, TimeUnit.SECONDS);
             assertNull(received);
 
-            verify(replicationStream, times(2)).setAppliedLSN(null);
-            verify(replicationStream, times(2)).setFlushedLSN(null);
+            verify(replicationStream, timeout(1000).atLeastOnce()).setAppliedLSN(LogSequenceNumber.valueOf(2L));
+            verify(replicationStream, timeout(1000).atLeastOnce()).setFlushedLSN(LogSequenceNumber.valueOf(2L));
+            verify(replicationStream, never()).setFlushedLSN(null);
+        }
+    }
+
+    @TestPropertySource(properties = {"pg.cdc.replicationSlot=mySlot", "pg.cdc.readMode=blocking"})
+    public static class BlockingReadTests extends PgCdcSourceIntegrationTests {
+
+        @MockBean
+        private PGReplicationStream replicationStream;
+
+        @MockBean
+        private PGConnection pgConnection;
+
+        @MockBean
+        private ChainedLogicalStreamBuilder logicalStreamBuilder;
+
+        @Test
+        public void testRead() throws InterruptedException, SQLException {
+
+            final String testData = "Test Data 1";
+
+            when(replicationStream.read()).thenAnswer(new Answer<ByteBuffer>() {
+                private int count = 0;
+
+                @Override
+                public ByteBuffer answer(InvocationOnMock invocationOnMock) throws Throwable {
+                    if (count++ == 0) {
+                        return ByteBuffer.wrap(testData.getBytes());
+                    }
+                    // emulate a blocking read on an idle stream
+                    Thread.sleep(100);
+                    return null;
+                }
+            });
+
+            Message<?> received = messageCollector.forChannel(pgWalSource.output()).poll(2, TimeUnit.SECONDS);
+            assertNotNull(received);
+            assertEquals("Test Data 1", received.getPayload());
+
+            received = messageCollector.forChannel(pgWalSource.output()).poll(1, TimeUnit.SECONDS);
+            assertNull(received);
+
+            verify(replicationStream, never()).readPending();
+        }
+    }
+
+    @TestPropertySource(properties = {"pg.cdc.replicationSlot=mySlot", "pg.cdc.payloadType=bytes"})
+    public static class BytesPayloadTests extends PgCdcSourceIntegrationTests {
+
+        @MockBean
+        private PGReplicationStream replicationStream;
+
+        @MockBean
+        private PGConnection pgConnection;
+
+        @MockBean
+        private ChainedLogicalStreamBuilder logicalStreamBuilder;
+
+        @Test
+        public void testReadPendingAsBytes() throws Exception {
+
+            final String testData = "{\"xid\":882}";
+
+            when(replicationStream.readPending()).thenAnswer(new Answer<ByteBuffer>() {
+                private int count = 0;
+
+                @Override
+                public ByteBuffer answer(InvocationOnMock invocationOnMock) throws Throwable {
+                    if (count++ == 0) {
+                        // emulate the driver's XLogData slice that skips the 25 bytes message header
+                        ByteBuffer xLogData = ByteBuffer.allocate(25 + testData.length());
+                        xLogData.position(25);
+                        xLogData.put(testData.getBytes());
+                        xLogData.position(25);
+                        return xLogData.slice();
+                    }
+                    return null;
+                }
+            });
+
+            Message<?> received = messageCollector.forChannel(pgWalSource.output()).poll(2, TimeUnit.SECONDS);
+            assertNotNull(received);
+            assertThat(received.getPayload(), Matchers.instanceOf(byte[].class));
+            assertEquals(testData, new String((byte[]) received.getPayload(), "UTF-8"));
+            assertEquals("application/json", received.getHeaders().get(MessageHeaders.CONTENT_TYPE).toString());
         }
     }
 
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.integration.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class PgCdcSourceMetricsTest {
+
+    private MeterRegistry registry;
+
+    private PgCdcSourceMetrics metrics;
+
+    @Before
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        metrics = new PgCdcSourceMetrics(registry, new PgCdcSourceProperties(), "mySlot");
+    }
+
+    @Test
+    public void reads() {
+        metrics.read(-1, null);
+        metrics.read(-1, null);
+        metrics.read(100, LogSequenceNumber.valueOf(10L));
+        metrics.read(50, LogSequenceNumber.valueOf(20L));
+        metrics.flushed(LogSequenceNumber.valueOf(10L));
+
+        assertEquals(2, registry.get("pg.cdc.reads").tag("slot", "mySlot").tag("result", "empty")
+                .counter().count(), 0);
+        assertEquals(2, registry.get("pg.cdc.reads").tag("result", "message").counter().count(), 0);
+        assertEquals(150, registry.get("pg.cdc.received.bytes").counter().count(), 0);
+        assertEquals(20, registry.get("pg.cdc.lsn.received").gauge().value(), 0);
+        assertEquals(10, registry.get("pg.cdc.lsn.flushed").gauge().value(), 0);
+        // the server LSN is not polled yet
+        assertTrue(Double.isNaN(registry.get("pg.cdc.lag.flushed").gauge().value()));
+        assertTrue(Double.isNaN(registry.get("pg.cdc.wal.retained").gauge().value()));
+    }
+
+    @Test
+    public void commitLatency() {
+        Change change = new Change();
+        change.setTimestamp("2017-10-03 11:22:43.773734+02");
+        metrics.sent(MessageBuilder.withPayload(change).build());
+        metrics.sent(MessageBuilder.withPayload(change).setHeader(PgCdcHeaders.SNAPSHOT, true).build());
+        metrics.sent(MessageBuilder.withPayload("{\"change\":[]}").build());
+
+        assertEquals(3, registry.get("pg.cdc.messages").counter().count(), 0);
+        assertEquals(1, registry.get("pg.cdc.commit.latency").timer().count());
+    }
+
+    @Test
+    public void rawCommitLatency() {
+        String document = "{\"xid\":882,\"timestamp\":\"2017-10-03 11:22:43.773734+02\",\"change\":[]}";
+        metrics.sent(MessageBuilder.withPayload(document).build());
+        metrics.sent(MessageBuilder.withPayload(document.getBytes(StandardCharsets.UTF_8)).build());
+        metrics.sent(MessageBuilder.withPayload("[" + document + "," + document + "]").build());
+
+        assertEquals(3, registry.get("pg.cdc.commit.latency").timer().count());
+    }
+
+    @Test
+    public void rawTimestamp() {
+        assertEquals("2017-10-03 11:22:43+00", PgCdcSourceMetrics.rawTimestamp(
+                "{\n\t\"xid\": 882,\n\t\"timestamp\": \"2017-10-03 11:22:43+00\",\n\t\"change\": []}"));
+        assertEquals("2017-10-03 11:22:43+00", PgCdcSourceMetrics.rawTimestamp(
+                "{\"xid\":882,\"timestamp\":\"2017-10-03 11:22:43+00\"}".getBytes(StandardCharsets.UTF_8)));
+        assertNull(PgCdcSourceMetrics.rawTimestamp("{\"xid\":882,\"change\":[]}"));
+        assertNull(PgCdcSourceMetrics.rawTimestamp("{\"xid\":882,\"change\":[]}".getBytes(StandardCharsets.UTF_8)));
+        assertNull(PgCdcSourceMetrics.rawTimestamp("{\"timestamp\":"));
+    }
+
+    @Test
+    public void reconnects() {
+        assertEquals(1, registry.get("pg.cdc.stream.up").gauge().value(), 0);
+        metrics.disconnected();
+        assertEquals(0, registry.get("pg.cdc.stream.up").gauge().value(), 0);
+        metrics.connected();
+        assertEquals(1, registry.get("pg.cdc.stream.up").gauge().value(), 0);
+        assertEquals(1, registry.get("pg.cdc.reconnects").counter().count(), 0);
+    }
+
+    @Test
+    public void commitTimeMillis() {
+        assertEquals(1507022563773L, metrics.commitTimeMillis("2017-10-03 11:22:43.773734+02"));
+        assertEquals(1507009963000L, metrics.commitTimeMillis("2017-10-03 11:22:43+05:30"));
+        assertEquals(1507029763500L, metrics.commitTimeMillis("2017-10-03 11:22:43.5+00"));
+        assertEquals(-1L, metrics.commitTimeMillis("not a timestamp"));
+        assertEquals(-1L, metrics.commitTimeMillis(null));
+    }
+}
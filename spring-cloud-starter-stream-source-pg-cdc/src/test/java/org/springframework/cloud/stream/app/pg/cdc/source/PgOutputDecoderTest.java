@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.messaging.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The fixtures reproduce, byte by byte, the pgoutput protocol version 1 messages streamed for:
+ * <pre>
+ * CREATE TABLE xpto (a int PRIMARY KEY, b boolean, c varchar(30));
+ * INSERT INTO xpto VALUES (1, true, 'test1');
+ * UPDATE xpto SET a = 2, c = NULL WHERE a = 1;
+ * DELETE FROM xpto WHERE a = 2;
+ * </pre>
+ *
+ * @author Christian Tzolov
+ */
+public class PgOutputDecoderTest {
+
+    private static final int RELATION_ID = 16385;
+
+    private static final int XID = 1011;
+
+    private PgOutputDecoder decoder;
+
+    @Before
+    public void setup() {
+        decoder = new PgOutputDecoder(1000);
+    }
+
+    @Test
+    public void decodeTransaction() throws IOException {
+        assertTrue(decoder.decode(begin(), LogSequenceNumber.valueOf(1)).isEmpty());
+        assertTrue(decoder.decode(relation(), LogSequenceNumber.valueOf(1)).isEmpty());
+        assertTrue(decoder.decode(insert(), LogSequenceNumber.valueOf(2)).isEmpty());
+        assertTrue(decoder.decode(update(), LogSequenceNumber.valueOf(3)).isEmpty());
+        assertTrue(decoder.decode(delete(), LogSequenceNumber.valueOf(4)).isEmpty());
+
+        List<Message<?>> messages = decoder.decode(commit(), LogSequenceNumber.valueOf(5));
+        assertEquals(1, messages.size());
+        assertEquals("0/5", messages.get(0).getHeaders().get(PgCdcHeaders.LSN));
+        assertEquals(XID, messages.get(0).getHeaders().get(PgCdcHeaders.XID));
+        assertEquals(true, messages.get(0).getHeaders().get(PgCdcHeaders.LAST_CHUNK));
+
+        Change change = (Change) messages.get(0).getPayload();
+        assertEquals(Integer.valueOf(XID), change.getXid());
+        assertEquals("0/16B3748", change.getNextlsn());
+        assertEquals("2017-10-03 09:22:43.773734+00", change.getTimestamp());
+        assertEquals(3, change.getChange().size());
+
+        ChangeEvent insert = change.getChange().get(0);
+        assertEquals(ChangeEvent.Kind.insert, insert.getKind());
+        assertEquals("public", insert.getSchema());
+        assertEquals("xpto", insert.getTable());
+        assertEquals(asList("a", "b", "c"), insert.getColumnnames());
+        assertEquals(asList("int4", "bool", "varchar"), insert.getColumntypes());
+        assertEquals(asList(1, true, "test1"), insert.getColumnvalues());
+        assertEquals(asList("a"), insert.getPknames());
+        assertNull(insert.getOldkeys());
+
+        ChangeEvent update = change.getChange().get(1);
+        assertEquals(ChangeEvent.Kind.update, update.getKind());
+        assertEquals(asList(2, true, null), update.getColumnvalues());
+        assertEquals(asList("a"), update.getOldkeys().getKeynames());
+        assertEquals(asList("int4"), update.getOldkeys().getKeytypes());
+        assertEquals(asList(1), update.getOldkeys().getKeyvalues());
+
+        ChangeEvent delete = change.getChange().get(2);
+        assertEquals(ChangeEvent.Kind.delete, delete.getKind());
+        assertNull(delete.getColumnnames());
+        assertEquals(asList(2), delete.getOldkeys().getKeyvalues());
+    }
+
+    @Test
+    public void streamTransactionInSubBatches() throws IOException {
+        decoder = new PgOutputDecoder(2);
+
+        decoder.decode(begin(), LogSequenceNumber.valueOf(1));
+        decoder.decode(relation(), LogSequenceNumber.valueOf(1));
+        assertTrue(decoder.decode(insert(), LogSequenceNumber.valueOf(2)).isEmpty());
+
+        List<Message<?>> messages = decoder.decode(update(), LogSequenceNumber.valueOf(3));
+        assertEquals(1, messages.size());
+        assertEquals(0, messages.get(0).getHeaders().get(PgCdcHeaders.CHUNK_SEQUENCE));
+        assertEquals(false, messages.get(0).getHeaders().get(PgCdcHeaders.LAST_CHUNK));
+        assertEquals(2, ((Change) messages.get(0).getPayload()).getChange().size());
+
+        decoder.decode(delete(), LogSequenceNumber.valueOf(4));
+        messages = decoder.decode(commit(), LogSequenceNumber.valueOf(5));
+        assertEquals(1, messages.get(0).getHeaders().get(PgCdcHeaders.CHUNK_SEQUENCE));
+        assertEquals(true, messages.get(0).getHeaders().get(PgCdcHeaders.LAST_CHUNK));
+        assertEquals(1, ((Change) messages.get(0).getPayload()).getChange().size());
+    }
+
+    @Test
+    public void unchangedToastedValue() throws IOException {
+        decoder.decode(begin(), LogSequenceNumber.valueOf(1));
+        decoder.decode(relation(), LogSequenceNumber.valueOf(1));
+
+        decoder.decode(message('U', out -> {
+            out.writeInt(RELATION_ID);
+            out.writeByte('N');
+            out.writeShort(3);
+            text(out, "1");
+            out.writeByte('u');
+            text(out, "test1");
+        }), LogSequenceNumber.valueOf(2));
+        Message<?> message = decoder.decode(commit(), LogSequenceNumber.valueOf(3)).get(0);
+
+        ChangeEvent update = ((Change) message.getPayload()).getChange().get(0);
+        assertEquals(asList("a", "c"), update.getColumnnames());
+        assertEquals(asList(1, "test1"), update.getColumnvalues());
+        assertEquals(asList("b"), update.getUnchangedcolumns());
+        assertEquals(asList(1), update.getOldkeys().getKeyvalues());
+    }
+
+    @Test
+    public void unchangedToastedValueOfReplicaIdentityFull() throws IOException {
+        decoder.decode(begin(), LogSequenceNumber.valueOf(1));
+        decoder.decode(relation(), LogSequenceNumber.valueOf(1));
+
+        decoder.decode(message('U', out -> {
+            out.writeInt(RELATION_ID);
+            out.writeByte('O');
+            out.writeShort(3);
+            text(out, "1");
+            text(out, "t");
+            text(out, "test1");
+            out.writeByte('N');
+            out.writeShort(3);
+            text(out, "1");
+            out.writeByte('u');
+            text(out, "test2");
+        }), LogSequenceNumber.valueOf(2));
+        Message<?> message = decoder.decode(commit(), LogSequenceNumber.valueOf(3)).get(0);
+
+        ChangeEvent update = ((Change) message.getPayload()).getChange().get(0);
+        assertEquals(asList("a", "b", "c"), update.getColumnnames());
+        assertEquals(asList(1, true, "test2"), update.getColumnvalues());
+        assertNull(update.getUnchangedcolumns());
+    }
+
+    @Test
+    public void sourceMessages() throws IOException {
+        assertTrue(decoder.decode(logicalMessage("heartbeat", "x"), LogSequenceNumber.valueOf(1)).isEmpty());
+
+        List<Message<?>> messages = decoder.decode(logicalMessage("pg-cdc-snapshot", "public.xpto"),
+                LogSequenceNumber.valueOf(2));
+        assertEquals(1, messages.size());
+        LogicalMessage message = (LogicalMessage) messages.get(0).getPayload();
+        assertEquals(IncrementalSnapshot.SIGNAL_PREFIX, message.getPrefix());
+        assertEquals("public.xpto", message.getContent());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknownRelation() throws IOException {
+        decoder.decode(begin(), LogSequenceNumber.valueOf(1));
+        decoder.decode(insert(), LogSequenceNumber.valueOf(2));
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static ByteBuffer message(char type, Writer writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        writer.write(out);
+        // the driver hands over the WAL payload as a slice of the CopyData buffer
+        byte[] xlogData = new byte[25 + bytes.size()];
+        System.arraycopy(bytes.toByteArray(), 0, xlogData, 25, bytes.size());
+        return ByteBuffer.wrap(xlogData, 25, bytes.size());
+    }
+
+    private static ByteBuffer begin() throws IOException {
+        return message('B', out -> {
+            out.writeLong(LogSequenceNumber.valueOf("0/16B3748").asLong());
+            // 2017-10-03 09:22:43.773734 UTC in microseconds since 2000-01-01
+            out.writeLong(560337763773734L);
+            out.writeInt(XID);
+        });
+    }
+
+    private static ByteBuffer relation() throws IOException {
+        return message('R', out -> {
+            out.writeInt(RELATION_ID);
+            string(out, "public");
+            string(out, "xpto");
+            out.writeByte('d');
+            out.writeShort(3);
+            column(out, true, "a", 23);
+            column(out, false, "b", 16);
+            column(out, false, "c", 1043);
+        });
+    }
+
+    private static ByteBuffer insert() throws IOException {
+        return message('I', out -> {
+            out.writeInt(RELATION_ID);
+            out.writeByte('N');
+            out.writeShort(3);
+            text(out, "1");
+            text(out, "t");
+            text(out, "test1");
+        });
+    }
+
+    private static ByteBuffer update() throws IOException {
+        return message('U', out -> {
+            out.writeInt(RELATION_ID);
+            out.writeByte('K');
+            out.writeShort(3);
+            text(out, "1");
+            out.writeByte('n');
+            out.writeByte('n');
+            out.writeByte('N');
+            out.writeShort(3);
+            text(out, "2");
+            text(out, "t");
+            out.writeByte('n');
+        });
+    }
+
+    private static ByteBuffer delete() throws IOException {
+        return message('D', out -> {
+            out.writeInt(RELATION_ID);
+            out.writeByte('K');
+            out.writeShort(3);
+            text(out, "2");
+            out.writeByte('n');
+            out.writeByte('n');
+        });
+    }
+
+    private static ByteBuffer commit() throws IOException {
+        return message('C', out -> {
+            out.writeByte(0);
+            out.writeLong(LogSequenceNumber.valueOf("0/16B3748").asLong());
+            out.writeLong(LogSequenceNumber.valueOf("0/16B3778").asLong());
+            out.writeLong(560337763773734L);
+        });
+    }
+
+    private static ByteBuffer logicalMessage(String prefix, String content) throws IOException {
+        return message('M', out -> {
+            out.writeByte(0);
+            out.writeLong(LogSequenceNumber.valueOf("0/16B3748").asLong());
+            string(out, prefix);
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        });
+    }
+
+    private static void column(DataOutputStream out, boolean key, String name, int typeOid) throws IOException {
+        out.writeByte(key ? 1 : 0);
+        string(out, name);
+        out.writeInt(typeOid);
+        out.writeInt(-1);
+    }
+
+    private static void string(DataOutputStream out, String value) throws IOException {
+        out.write(value.getBytes(StandardCharsets.UTF_8));
+        out.writeByte(0);
+    }
+
+    private static void text(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeByte('t');
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
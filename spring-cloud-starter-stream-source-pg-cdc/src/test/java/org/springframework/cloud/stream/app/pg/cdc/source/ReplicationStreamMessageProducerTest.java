@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+import org.postgresql.replication.PGReplicationStream;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Christian Tzolov
+ */
+public class ReplicationStreamMessageProducerTest {
+
+    private final QueueChannel output = new QueueChannel();
+
+    private PGReplicationStream failedStream;
+
+    private PGReplicationStream stream;
+
+    private ReplicationStreamConnector connector;
+
+    private ReplicationStreamMessageProducer producer;
+
+    @Before
+    public void setup() throws Exception {
+        PgCdcSourceProperties properties = new PgCdcSourceProperties();
+        properties.setFeedbackInterval(10);
+        properties.getReconnect().setInitialBackoff(10);
+        properties.getReconnect().setMaxBackoff(20);
+
+        failedStream = mock(PGReplicationStream.class);
+        when(failedStream.readPending()).thenThrow(new SQLException("Connection reset"));
+
+        stream = mock(PGReplicationStream.class);
+        when(stream.readPending()).thenReturn(ByteBuffer.wrap("Test Data".getBytes()), null);
+        when(stream.getLastReceiveLSN()).thenReturn(LogSequenceNumber.valueOf(1L));
+
+        connector = mock(ReplicationStreamConnector.class);
+        when(connector.connect(any(LogSequenceNumber.class)))
+                .thenThrow(new SQLException("Connection refused"))
+                .thenReturn(stream);
+
+        producer = new ReplicationStreamMessageProducer(failedStream, properties, new LsnTracker(),
+                new RawReplicationMessageDecoder(properties.getPayloadType()));
+        producer.setConnector(connector);
+        producer.setOutputChannel(output);
+        producer.setBeanFactory(new DefaultListableBeanFactory());
+        producer.afterPropertiesSet();
+    }
+
+    @After
+    public void close() {
+        producer.stop();
+    }
+
+    @Test
+    public void reconnectWithBackoff() throws Exception {
+        producer.start();
+
+        Message<?> received = output.receive(2000);
+        assertNotNull(received);
+        assertEquals("Test Data", received.getPayload());
+        assertEquals("0/1", received.getHeaders().get(PgCdcHeaders.LSN));
+
+        // the first attempt failed, the second one resumed the stream
+        verify(connector, times(2)).connect(any(LogSequenceNumber.class));
+        verify(failedStream).close();
+        verify(stream, timeout(1000).atLeastOnce()).setFlushedLSN(LogSequenceNumber.valueOf(1L));
+    }
+
+    @Test
+    public void closeStreamOnStop() throws Exception {
+        producer.start();
+        assertNotNull(output.receive(2000));
+
+        producer.stop();
+        verify(stream, timeout(1000)).close();
+        verify(connector, timeout(1000)).close();
+    }
+}
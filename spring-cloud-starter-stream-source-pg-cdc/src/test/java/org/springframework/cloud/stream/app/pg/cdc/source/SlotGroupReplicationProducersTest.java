@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.postgresql.replication.LogSequenceNumber;
+import org.postgresql.replication.PGReplicationStream;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Christian Tzolov
+ */
+public class SlotGroupReplicationProducersTest {
+
+    private static final String[] TRANSACTION = {
+            "BEGIN 882",
+            "table public.orders: INSERT: id[integer]:1",
+            "table public.users: INSERT: id[integer]:2",
+            "COMMIT 882"};
+
+    private final Map<String, PGReplicationStream> streams = new HashMap<>();
+
+    private final Map<String, LogSequenceNumber> startPositions = new ConcurrentHashMap<>();
+
+    private final QueueChannel output = new QueueChannel();
+
+    private PgCdcSourceProperties properties;
+
+    private SlotGroupReplicationProducers producers;
+
+    @Before
+    public void setup() throws Exception {
+        properties = new PgCdcSourceProperties();
+        properties.setOutputPlugin(PgCdcSourceProperties.OUTPUT_PLUGIN_TEST_DECODING);
+        properties.setFeedbackInterval(10);
+        properties.setSlotGroups(Arrays.asList(slotGroup("orders_slot", "public.orders"),
+                slotGroup("users_slot", "public.users")));
+        streams.put("orders_slot", mockStream());
+        streams.put("users_slot", mockStream());
+
+        producers = new SlotGroupReplicationProducers(properties, output) {
+            @Override
+            SlotStream startReplicationStream(PgCdcSourceProperties.SlotGroup slotGroup,
+                                              MappedFileLsnCheckpointStore checkpointStore,
+                                              LogSequenceNumber startPosition) {
+                startPositions.put(slotGroup.getReplicationSlot(), startPosition);
+                return new SlotStream(streams.get(slotGroup.getReplicationSlot()), null);
+            }
+        };
+        producers.setBeanFactory(new DefaultListableBeanFactory());
+    }
+
+    @After
+    public void close() {
+        producers.stop();
+        producers.destroy();
+    }
+
+    @Test
+    public void streamGroupTables() throws Exception {
+        producers.afterPropertiesSet();
+        producers.start();
+
+        // every slot decodes the whole transaction, a group emits only the events of its own table
+        Set<String> tables = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            Message<?> message = output.receive(2000);
+            assertNotNull(message);
+            Change change = (Change) message.getPayload();
+            assertEquals(1, change.getChange().size());
+            tables.add(change.getChange().get(0).getTable());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("orders", "users")), tables);
+        assertNull(output.receive(100));
+
+        for (PGReplicationStream stream : streams.values()) {
+            verify(stream, timeout(1000).atLeastOnce()).setFlushedLSN(LogSequenceNumber.valueOf(TRANSACTION.length));
+        }
+        assertEquals(LogSequenceNumber.INVALID_LSN, startPositions.get("orders_slot"));
+    }
+
+    @Test
+    public void startGroupsFromStartPosition() throws Exception {
+        properties.setStartPosition("0/10");
+        producers.afterPropertiesSet();
+
+        assertEquals(LogSequenceNumber.valueOf("0/10"), startPositions.get("orders_slot"));
+        assertEquals(LogSequenceNumber.valueOf("0/10"), startPositions.get("users_slot"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectGroupTablesOfFramedTransactions() throws Exception {
+        properties.setTestDecodingOutput(PgCdcSourceProperties.TestDecodingOutput.transaction);
+        producers.afterPropertiesSet();
+    }
+
+    private static PgCdcSourceProperties.SlotGroup slotGroup(String replicationSlot, String tables) {
+        PgCdcSourceProperties.SlotGroup slotGroup = new PgCdcSourceProperties.SlotGroup();
+        slotGroup.setReplicationSlot(replicationSlot);
+        slotGroup.setTables(tables);
+        return slotGroup;
+    }
+
+    /**
+     * @return Returns a stream reading the transaction once, one line per WAL message at the LSN of its line number.
+     */
+    private static PGReplicationStream mockStream() throws Exception {
+        final PGReplicationStream stream = mock(PGReplicationStream.class);
+        final int[] read = {0};
+        when(stream.readPending()).thenAnswer(new Answer<ByteBuffer>() {
+            @Override
+            public ByteBuffer answer(InvocationOnMock invocation) {
+                if (read[0] >= TRANSACTION.length) {
+                    return null;
+                }
+                return ByteBuffer.wrap(TRANSACTION[read[0]++].getBytes());
+            }
+        });
+        when(stream.getLastReceiveLSN()).thenAnswer(new Answer<LogSequenceNumber>() {
+            @Override
+            public LogSequenceNumber answer(InvocationOnMock invocation) {
+                return LogSequenceNumber.valueOf(read[0]);
+            }
+        });
+        return stream;
+    }
+}
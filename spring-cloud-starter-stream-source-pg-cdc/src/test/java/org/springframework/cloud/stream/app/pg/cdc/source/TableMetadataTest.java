@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Christian Tzolov
+ */
+public class TableMetadataTest {
+
+    @Test
+    public void quoteIdentifiers() {
+        TableMetadata metadata = new TableMetadata("My Schema", "order", "\"My Schema\".order",
+                Arrays.asList("id", "Na\"me"), Arrays.asList("int4", "text"),
+                Collections.singletonList("id"), Collections.singletonList("int4"));
+
+        assertEquals("\"My Schema\".\"order\"", metadata.getQuotedName());
+        assertEquals("\"id\", \"Na\"\"me\"", TableMetadata.quoteIdentifiers(metadata.getColumnNames()));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.buffer.SpillingTransactionBuffer;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class TestDecodingDecoderTest {
+
+    private static final String INSERT = "table public.xpto: INSERT: a[integer]:%d b[character varying]:'x y'";
+
+    private TestDecodingDecoder decoder;
+
+    @Before
+    public void setup() {
+        decoder = new TestDecodingDecoder(2);
+    }
+
+    @Test
+    public void emitTransactionInSubBatches() {
+        assertTrue(decode("BEGIN 882", 1).isEmpty());
+        assertTrue(decode(String.format(INSERT, 1), 2).isEmpty());
+        assertTrue(decode(String.format(INSERT, 2), 3).isEmpty());
+        assertTrue(decode(String.format(INSERT, 3), 4).isEmpty());
+
+        List<Message<?>> messages = decode("COMMIT 882 (at 2017-10-03 11:22:43.773734+02)", 5);
+        assertEquals(2, messages.size());
+        assertChunk(messages.get(0), 0, false, 1, 2);
+        assertChunk(messages.get(1), 1, true, 3);
+
+        Change change = (Change) messages.get(1).getPayload();
+        assertEquals("2017-10-03 11:22:43.773734+02", change.getTimestamp());
+        assertEquals("0/5", change.getNextlsn());
+        assertEquals("0/5", messages.get(1).getHeaders().get(PgCdcHeaders.LSN));
+        assertEquals("x y", change.getChange().get(0).getColumnvalues().get(1));
+    }
+
+    @Test
+    public void streamSpilledTransaction() {
+        decoder = new TestDecodingDecoder(2, new SpillingTransactionBuffer(1, null, 4096));
+        decode("BEGIN 882", 1);
+        for (int i = 1; i <= 3; i++) {
+            decode(String.format(INSERT, i), i + 1);
+        }
+
+        Iterator<Message<?>> chunks = decoder.decodeLazily(ByteBuffer.wrap("COMMIT 882".getBytes()),
+                LogSequenceNumber.valueOf(5));
+        assertChunk(chunks.next(), 0, false, 1, 2);
+        assertChunk(chunks.next(), 1, true, 3);
+        assertFalse(chunks.hasNext());
+    }
+
+    @Test
+    public void updateAndDelete() {
+        decode("BEGIN 882", 1);
+        decode("table public.xpto: UPDATE: old-key: a[integer]:1 new-tuple: a[integer]:2 b[text]:'z'", 2);
+        decode("table public.xpto: DELETE: a[integer]:2", 3);
+
+        List<Message<?>> messages = decode("COMMIT 882", 4);
+        assertEquals(1, messages.size());
+        List<ChangeEvent> events = ((Change) messages.get(0).getPayload()).getChange();
+        assertEquals(ChangeEvent.Kind.update, events.get(0).getKind());
+        assertEquals(1, events.get(0).getOldkeys().getKeyvalues().get(0));
+        assertEquals(2, events.get(0).getColumnvalues().get(0));
+        assertEquals(ChangeEvent.Kind.delete, events.get(1).getKind());
+        assertEquals(2, events.get(1).getOldkeys().getKeyvalues().get(0));
+    }
+
+    @Test
+    public void skipTruncate() {
+        decode("BEGIN 882", 1);
+        assertTrue(decode("table public.xpto: TRUNCATE: (no-flags)", 2).isEmpty());
+
+        List<Message<?>> messages = decode("COMMIT 882", 3);
+        assertEquals(1, messages.size());
+        assertChunk(messages.get(0), 0, true);
+    }
+
+    @Test
+    public void truncateTextInValue() {
+        decode("BEGIN 882", 1);
+        decode("table public.xpto: INSERT: a[integer]:1 b[text]:'table public.xpto: TRUNCATE: (no-flags)'", 2);
+
+        List<Message<?>> messages = decode("COMMIT 882", 3);
+        assertChunk(messages.get(0), 0, true, 1);
+        assertEquals("table public.xpto: TRUNCATE: (no-flags)",
+                ((Change) messages.get(0).getPayload()).getChange().get(0).getColumnvalues().get(1));
+    }
+
+    @Test
+    public void truncateOperation() {
+        assertTrue(TestDecodingDecoder.isTruncate("table public.a, public.b: TRUNCATE: restart_seqs cascade"));
+        assertTrue(TestDecodingDecoder.isTruncate("table \"my: schema\".\"a\"\"b\": TRUNCATE: (no-flags)"));
+        assertFalse(TestDecodingDecoder.isTruncate("table public.a: INSERT: b[text]:': TRUNCATE:'"));
+        assertFalse(TestDecodingDecoder.isTruncate("message: transactional: 1 prefix: x, sz: 11 content:: TRUNCATE:"));
+    }
+
+    @Test
+    public void resendTransactionAfterReset() {
+        decode("BEGIN 882", 1);
+        decode(String.format(INSERT, 1), 2);
+
+        // the stream is restarted and the server resends the whole transaction
+        decoder.reset();
+        decode("BEGIN 882", 1);
+        decode(String.format(INSERT, 1), 2);
+
+        List<Message<?>> messages = decode("COMMIT 882", 3);
+        assertEquals(1, messages.size());
+        assertChunk(messages.get(0), 0, true, 1);
+    }
+
+    @Test
+    public void heartbeatMessage() {
+        List<Message<?>> messages =
+                decode("message: transactional: 0 prefix: pg-cdc-heartbeat, sz: 13 content:1507022563773", 7);
+        assertEquals(1, messages.size());
+        LogicalMessage logicalMessage = (LogicalMessage) messages.get(0).getPayload();
+        assertEquals(Heartbeat.PREFIX, logicalMessage.getPrefix());
+        assertEquals("1507022563773", logicalMessage.getContent());
+        assertFalse(logicalMessage.isTransactional());
+        assertEquals("0/7", messages.get(0).getHeaders().get(PgCdcHeaders.LSN));
+
+        // the messages of other applications are skipped
+        assertTrue(decode("message: transactional: 1 prefix: other, sz: 1 content:x", 8).isEmpty());
+    }
+
+    private List<Message<?>> decode(String line, long lsn) {
+        return decoder.decode(ByteBuffer.wrap(line.getBytes()), LogSequenceNumber.valueOf(lsn));
+    }
+
+    private void assertChunk(Message<?> message, int sequence, boolean lastChunk, Object... values) {
+        assertEquals(882, message.getHeaders().get(PgCdcHeaders.XID));
+        assertEquals(sequence, message.getHeaders().get(PgCdcHeaders.CHUNK_SEQUENCE));
+        assertEquals(lastChunk, message.getHeaders().get(PgCdcHeaders.LAST_CHUNK));
+
+        Change change = (Change) message.getPayload();
+        assertEquals(882, change.getXid().intValue());
+        assertEquals(values.length, change.getChange().size());
+        for (int i = 0; i < values.length; i++) {
+            ChangeEvent event = change.getChange().get(i);
+            assertEquals(ChangeEvent.Kind.insert, event.getKind());
+            assertEquals(values[i], event.getColumnvalues().get(0));
+        }
+    }
+}
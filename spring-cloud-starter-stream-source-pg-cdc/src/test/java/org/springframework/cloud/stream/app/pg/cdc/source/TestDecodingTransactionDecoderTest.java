@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class TestDecodingTransactionDecoderTest {
+
+    private static final String INSERT = "table public.xpto: INSERT: a[integer]:1 b[text]:'x \"y\"'";
+
+    private TestDecodingTransactionDecoder decoder;
+
+    @Before
+    public void setup() {
+        decoder = new TestDecodingTransactionDecoder(PgCdcSourceProperties.PayloadType.string);
+    }
+
+    @Test
+    public void frameTransaction() throws Exception {
+        assertTrue(decode("BEGIN 882", 1).isEmpty());
+        assertTrue(decode(INSERT, 2).isEmpty());
+        assertTrue(decode("table public.xpto: TRUNCATE: (no-flags)", 3).isEmpty());
+
+        List<Message<?>> messages = decode("COMMIT 882", 4);
+        assertEquals(1, messages.size());
+        assertEquals(882L, messages.get(0).getHeaders().get(PgCdcHeaders.XID));
+        assertEquals("0/4", messages.get(0).getHeaders().get(PgCdcHeaders.LSN));
+
+        String[] lines = new ObjectMapper().readValue((String) messages.get(0).getPayload(), String[].class);
+        assertArrayEquals(new String[] { "BEGIN 882", INSERT, "COMMIT 882" }, lines);
+    }
+
+    @Test
+    public void frameTransactionAsBytes() throws Exception {
+        decoder = new TestDecodingTransactionDecoder(PgCdcSourceProperties.PayloadType.bytes);
+        decode("BEGIN", 1);
+        decode(INSERT, 2);
+
+        List<Message<?>> messages = decode("COMMIT", 3);
+        assertEquals(1, messages.size());
+        assertEquals(null, messages.get(0).getHeaders().get(PgCdcHeaders.XID));
+        assertEquals("application/json", messages.get(0).getHeaders().get(MessageHeaders.CONTENT_TYPE));
+
+        String[] lines = new ObjectMapper().readValue((byte[]) messages.get(0).getPayload(), String[].class);
+        assertEquals(3, lines.length);
+    }
+
+    @Test
+    public void unsignedTransactionId() {
+        decode("BEGIN 4294967295", 1);
+        decode(INSERT, 2);
+
+        List<Message<?>> messages = decode("COMMIT 4294967295", 3);
+        assertEquals(1, messages.size());
+        assertEquals(4294967295L, messages.get(0).getHeaders().get(PgCdcHeaders.XID));
+    }
+
+    @Test
+    public void heartbeatMessage() {
+        List<Message<?>> messages =
+                decode("message: transactional: 0 prefix: pg-cdc-heartbeat, sz: 13 content:1507022563773", 7);
+        assertEquals(1, messages.size());
+        assertEquals(Heartbeat.PREFIX, ((LogicalMessage) messages.get(0).getPayload()).getPrefix());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void lineOutsideOfTransaction() {
+        decode(INSERT, 1);
+    }
+
+    private List<Message<?>> decode(String line, long lsn) {
+        return decoder.decode(ByteBuffer.wrap(line.getBytes()), LogSequenceNumber.valueOf(lsn));
+    }
+}
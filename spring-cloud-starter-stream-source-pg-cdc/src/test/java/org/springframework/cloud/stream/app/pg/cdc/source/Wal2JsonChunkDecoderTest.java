@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class Wal2JsonChunkDecoderTest {
+
+    private static final String HEADER = "{\"xid\":882,\"nextlsn\":\"0/1560858\",\"timestamp\":\"2017-10-03 11:22:43.773734+02\",\"change\":[";
+
+    private static final String INSERT = "{\"kind\":\"insert\",\"schema\":\"public\",\"table\":\"xpto\",\"columnnames\":[\"a\"],\"columntypes\":[\"int4\"],\"columnvalues\":[%d]}";
+
+    private Wal2JsonChunkDecoder decoder;
+
+    @Before
+    public void setup() {
+        decoder = new Wal2JsonChunkDecoder(2);
+    }
+
+    @Test
+    public void streamTransactionInSubBatches() {
+        assertTrue(decode(HEADER, 1).isEmpty());
+        assertTrue(decode(String.format(INSERT, 1), 2).isEmpty());
+
+        List<Message<?>> messages = decode("," + String.format(INSERT, 2), 3);
+        assertEquals(1, messages.size());
+        assertChunk(messages.get(0), 0, false, 1, 2);
+
+        assertTrue(decode("," + String.format(INSERT, 3), 4).isEmpty());
+
+        messages = decode("]}", 5);
+        assertEquals(1, messages.size());
+        assertChunk(messages.get(0), 1, true, 3);
+        assertEquals("0/5", messages.get(0).getHeaders().get(PgCdcHeaders.LSN));
+    }
+
+    @Test
+    public void emptyTransaction() {
+        assertTrue(decode(HEADER, 1).isEmpty());
+
+        List<Message<?>> messages = decode("]}", 2);
+        assertEquals(1, messages.size());
+        assertChunk(messages.get(0), 0, true);
+    }
+
+    @Test
+    public void resendTransactionAfterReset() {
+        assertTrue(decode(HEADER, 1).isEmpty());
+        assertTrue(decode(String.format(INSERT, 1), 2).isEmpty());
+
+        // the stream is restarted and the server resends the whole transaction
+        decoder.reset();
+        assertTrue(decode(HEADER, 1).isEmpty());
+        assertTrue(decode(String.format(INSERT, 1), 2).isEmpty());
+
+        List<Message<?>> messages = decode("]}", 3);
+        assertEquals(1, messages.size());
+        assertChunk(messages.get(0), 0, true, 1);
+    }
+
+    @Test
+    public void prettyPrintedChunks() {
+        assertTrue(decode("{\n\t\"xid\": 882,\n\t\"change\": [\n", 1).isEmpty());
+        assertTrue(decode("\t\t,{\"kind\": \"insert\", \"schema\": \"public\", \"table\": \"xpto\"}\n", 2).isEmpty());
+
+        List<Message<?>> messages = decode("\n\t]\n}", 3);
+        assertEquals(1, messages.size());
+        assertEquals(1, ((Change) messages.get(0).getPayload()).getChange().size());
+    }
+
+    @Test
+    public void heartbeatMessage() {
+        assertTrue(decode("{\"change\":[", 1).isEmpty());
+
+        List<Message<?>> messages = decode("{\"kind\":\"message\",\"transactional\":false," +
+                "\"prefix\":\"pg-cdc-heartbeat\",\"content\":\"1507022563773\"}", 2);
+        assertEquals(1, messages.size());
+        LogicalMessage logicalMessage = (LogicalMessage) messages.get(0).getPayload();
+        assertEquals(Heartbeat.PREFIX, logicalMessage.getPrefix());
+        assertEquals("1507022563773", logicalMessage.getContent());
+        assertFalse(logicalMessage.isTransactional());
+
+        // the message frame is not emitted as an empty transaction
+        assertTrue(decode("]}", 3).isEmpty());
+
+        // the messages of other applications are skipped
+        assertTrue(decode("{\"change\":[", 4).isEmpty());
+        assertTrue(decode("{\"kind\":\"message\",\"transactional\":false,\"prefix\":\"other\"," +
+                "\"content\":\"x\"}", 5).isEmpty());
+        assertTrue(decode("]}", 6).isEmpty());
+    }
+
+    @Test
+    public void heartbeatDocument() {
+        String document = "{\"change\":[{\"kind\":\"message\",\"transactional\":false," +
+                "\"prefix\":\"pg-cdc-heartbeat\",\"content\":\"1507022563773\"}]}";
+
+        List<Message<?>> messages = new RawReplicationMessageDecoder(PgCdcSourceProperties.PayloadType.string)
+                .decode(ByteBuffer.wrap(document.getBytes()), LogSequenceNumber.valueOf(7L));
+        assertEquals(1, messages.size());
+        assertEquals(Heartbeat.PREFIX, ((LogicalMessage) messages.get(0).getPayload()).getPrefix());
+        assertEquals("0/7", messages.get(0).getHeaders().get(PgCdcHeaders.LSN));
+
+        messages = new Wal2JsonDecoder().decode(ByteBuffer.wrap(document.getBytes()), null);
+        assertEquals(Heartbeat.PREFIX, ((LogicalMessage) messages.get(0).getPayload()).getPrefix());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void changeOutsideOfTransaction() {
+        decode(String.format(INSERT, 1), 1);
+    }
+
+    private List<Message<?>> decode(String chunk, long lsn) {
+        return decoder.decode(ByteBuffer.wrap(chunk.getBytes()), LogSequenceNumber.valueOf(lsn));
+    }
+
+    private void assertChunk(Message<?> message, int sequence, boolean lastChunk, Object... values) {
+        assertEquals(882, message.getHeaders().get(PgCdcHeaders.XID));
+        assertEquals(sequence, message.getHeaders().get(PgCdcHeaders.CHUNK_SEQUENCE));
+        assertEquals(lastChunk, message.getHeaders().get(PgCdcHeaders.LAST_CHUNK));
+
+        Change change = (Change) message.getPayload();
+        assertEquals(882, change.getXid().intValue());
+        assertEquals(values.length, change.getChange().size());
+        for (int i = 0; i < values.length; i++) {
+            ChangeEvent event = change.getChange().get(i);
+            assertEquals(ChangeEvent.Kind.insert, event.getKind());
+            assertEquals(values[i], event.getColumnvalues().get(0));
+        }
+    }
+}
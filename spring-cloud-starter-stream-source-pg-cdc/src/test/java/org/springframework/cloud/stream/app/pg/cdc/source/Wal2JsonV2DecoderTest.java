@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.Change;
+import org.springframework.cloud.stream.app.pg.cdc.wal2json.ChangeEvent;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class Wal2JsonV2DecoderTest {
+
+    private static final String BEGIN = "{\"action\":\"B\",\"xid\":882,\"lsn\":\"0/1560858\",\"timestamp\":\"2017-10-03 11:22:43.773734+02\"}";
+
+    private static final String INSERT = "{\"action\":\"I\",\"lsn\":\"0/1560858\",\"schema\":\"public\",\"table\":\"xpto\"," +
+            "\"columns\":[{\"name\":\"a\",\"type\":\"integer\",\"value\":%d},{\"name\":\"b\",\"type\":\"character varying(30)\",\"value\":\"x\"}]," +
+            "\"pk\":[{\"name\":\"a\",\"type\":\"integer\"}]}";
+
+    private static final String COMMIT = "{\"action\":\"C\",\"xid\":882,\"lsn\":\"0/1560898\",\"timestamp\":\"2017-10-03 11:22:43.773734+02\"}";
+
+    private Wal2JsonV2Decoder decoder = new Wal2JsonV2Decoder();
+
+    @Test
+    public void emitEveryTuple() {
+        assertTrue(decode(BEGIN, 1).isEmpty());
+
+        List<Message<?>> messages = decode(String.format(INSERT, 1), 2);
+        assertEquals(1, messages.size());
+        assertEquals("0/2", messages.get(0).getHeaders().get(PgCdcHeaders.LSN));
+        assertEquals(882, messages.get(0).getHeaders().get(PgCdcHeaders.XID));
+
+        Change change = (Change) messages.get(0).getPayload();
+        assertEquals(Integer.valueOf(882), change.getXid());
+        assertEquals("2017-10-03 11:22:43.773734+02", change.getTimestamp());
+        assertEquals("0/1560858", change.getNextlsn());
+        assertEquals(1, change.getChange().size());
+
+        ChangeEvent event = change.getChange().get(0);
+        assertEquals(ChangeEvent.Kind.insert, event.getKind());
+        assertEquals(asList("a", "b"), event.getColumnnames());
+        assertEquals(asList("integer", "varchar"), event.getColumntypes());
+        assertEquals(asList(1, "x"), event.getColumnvalues());
+        assertEquals(asList("a"), event.getPknames());
+
+        assertEquals(1, decode(String.format(INSERT, 2), 3).size());
+        assertTrue(decode(COMMIT, 4).isEmpty());
+    }
+
+    @Test
+    public void transactionLsnFromBegin() {
+        decode("{\"action\":\"B\",\"xid\":882,\"lsn\":\"0/1560858\",\"nextlsn\":\"0/1560898\"}", 1);
+
+        Change change = (Change) decode(String.format(INSERT, 1), 2).get(0).getPayload();
+        assertEquals("0/1560898", change.getNextlsn());
+    }
+
+    @Test
+    public void ignoreNonDmlRecords() {
+        assertTrue(decode("{\"action\":\"M\",\"transactional\":false,\"prefix\":\"heartbeat\",\"content\":\"\"}", 1).isEmpty());
+        assertTrue(decode("{\"action\":\"T\",\"xid\":882,\"schema\":\"public\",\"table\":\"xpto\"}", 2).isEmpty());
+    }
+
+    @Test
+    public void emitSourceMessages() {
+        List<Message<?>> messages = decode("{\"action\":\"M\",\"transactional\":false," +
+                "\"prefix\":\"pg-cdc-watermark\",\"content\":\"low:42\"}", 3);
+        assertEquals(1, messages.size());
+        assertEquals("0/3", messages.get(0).getHeaders().get(PgCdcHeaders.LSN));
+
+        LogicalMessage message = (LogicalMessage) messages.get(0).getPayload();
+        assertEquals(IncrementalSnapshot.WATERMARK_PREFIX, message.getPrefix());
+        assertEquals("low:42", message.getContent());
+        assertFalse(message.isTransactional());
+    }
+
+    @Test
+    public void recordSlice() {
+        byte[] record = ("0123" + String.format(INSERT, 7)).getBytes();
+        ByteBuffer slice = ByteBuffer.wrap(record, 4, record.length - 4);
+
+        List<Message<?>> messages = decoder.decode(slice, LogSequenceNumber.valueOf(5));
+        assertEquals(asList(7, "x"), ((Change) messages.get(0).getPayload()).getChange().get(0).getColumnvalues());
+    }
+
+    private List<Message<?>> decode(String record, long lsn) {
+        return decoder.decode(ByteBuffer.wrap(record.getBytes()), LogSequenceNumber.valueOf(lsn));
+    }
+}
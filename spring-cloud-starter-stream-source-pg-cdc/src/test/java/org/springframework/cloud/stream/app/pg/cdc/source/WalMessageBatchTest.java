@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class WalMessageBatchTest {
+
+    @Test
+    public void jsonArrayOfMessages() {
+        WalMessageBatch batch = new WalMessageBatch(3, 1024);
+
+        batch.add(ByteBuffer.wrap("{\"xid\":1}".getBytes()), LogSequenceNumber.valueOf(10L));
+        assertFalse(batch.isFull());
+        batch.add(ByteBuffer.wrap("{\"xid\":2}".getBytes()), LogSequenceNumber.valueOf(20L));
+        assertFalse(batch.isFull());
+        batch.add(ByteBuffer.wrap("{\"xid\":3}".getBytes()), LogSequenceNumber.valueOf(30L));
+        assertTrue(batch.isFull());
+
+        assertEquals(3, batch.size());
+        assertEquals(LogSequenceNumber.valueOf(10L), batch.getFirstLsn());
+        assertEquals(LogSequenceNumber.valueOf(30L), batch.getLastLsn());
+        assertEquals("[{\"xid\":1},{\"xid\":2},{\"xid\":3}]", batch.toUtf8String());
+    }
+
+    @Test
+    public void fullOnMaxBytes() {
+        WalMessageBatch batch = new WalMessageBatch(100, 16);
+
+        batch.add(ByteBuffer.wrap("{\"xid\":1}".getBytes()), LogSequenceNumber.valueOf(10L));
+        assertFalse(batch.isFull());
+        batch.add(ByteBuffer.wrap("{\"xid\":2}".getBytes()), LogSequenceNumber.valueOf(20L));
+        assertTrue(batch.isFull());
+    }
+
+    @Test
+    public void closeArrayOnce() {
+        WalMessageBatch batch = new WalMessageBatch(3, 1024);
+        batch.add(ByteBuffer.wrap("{\"xid\":1}".getBytes()), LogSequenceNumber.valueOf(10L));
+
+        assertEquals("[{\"xid\":1}]", batch.toUtf8String());
+        assertEquals("[{\"xid\":1}]", batch.toUtf8String());
+        assertEquals("[{\"xid\":1}]", new String(batch.toBytes()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectAddAfterClose() {
+        WalMessageBatch batch = new WalMessageBatch(3, 1024);
+        batch.toBytes();
+        batch.add(ByteBuffer.wrap("{\"xid\":1}".getBytes()), LogSequenceNumber.valueOf(10L));
+    }
+}
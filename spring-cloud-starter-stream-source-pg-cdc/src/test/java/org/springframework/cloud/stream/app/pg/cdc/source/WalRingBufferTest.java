@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.pg.cdc.source;
+
+import org.junit.Test;
+import org.postgresql.replication.LogSequenceNumber;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Tzolov
+ */
+public class WalRingBufferTest {
+
+    @Test
+    public void offerUntilFull() {
+        WalRingBuffer ringBuffer = new WalRingBuffer(2, 4);
+        assertTrue(ringBuffer.isEmpty());
+
+        assertTrue(ringBuffer.offer(wal("{\"xid\":1}"), LogSequenceNumber.valueOf(1L)));
+        assertTrue(ringBuffer.offer(wal("{\"xid\":2}"), LogSequenceNumber.valueOf(2L)));
+        assertFalse(ringBuffer.offer(wal("{\"xid\":3}"), LogSequenceNumber.valueOf(3L)));
+        assertEquals(2, ringBuffer.size());
+
+        assertEquals("{\"xid\":1}", text(ringBuffer.get(0)));
+        assertEquals(LogSequenceNumber.valueOf(2L), ringBuffer.get(1).getLsn());
+        ringBuffer.release(1);
+
+        assertTrue(ringBuffer.offer(wal("{\"xid\":3}"), LogSequenceNumber.valueOf(3L)));
+        assertEquals(2, ringBuffer.size());
+        assertEquals("{\"xid\":2}", text(ringBuffer.get(0)));
+        assertEquals("{\"xid\":3}", text(ringBuffer.get(1)));
+        ringBuffer.release(2);
+        assertTrue(ringBuffer.isEmpty());
+    }
+
+    @Test
+    public void slotIsNeverTakenOverAsIs() {
+        WalRingBuffer ringBuffer = new WalRingBuffer(1, 8);
+        ringBuffer.offer(wal("12345678"), LogSequenceNumber.valueOf(1L));
+        ringBuffer.size();
+
+        ByteBuffer buffer = ringBuffer.get(0).getBuffer();
+        assertEquals(8, buffer.remaining());
+        assertTrue(buffer.array().length > 8);
+        assertNotSame(buffer.array(), RawReplicationMessageDecoder.toBytes(buffer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityPowerOfTwo() {
+        new WalRingBuffer(3, 8);
+    }
+
+    @Test
+    public void handOverInOrder() throws Exception {
+        final int count = 100000;
+        final WalRingBuffer ringBuffer = new WalRingBuffer(16, 8);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= count; i++) {
+                    while (!ringBuffer.offer(wal(String.valueOf(i)), LogSequenceNumber.valueOf(i))) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        int expected = 1;
+        while (expected <= count) {
+            int available = ringBuffer.size();
+            for (int i = 0; i < available; i++) {
+                WalRingBuffer.Slot slot = ringBuffer.get(i);
+                assertEquals(String.valueOf(expected), text(slot));
+                assertEquals(expected, slot.getLsn().asLong());
+                expected++;
+            }
+            ringBuffer.release(available);
+        }
+        producer.join();
+        assertTrue(ringBuffer.isEmpty());
+    }
+
+    private static ByteBuffer wal(String json) {
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(WalRingBuffer.Slot slot) {
+        ByteBuffer buffer = slot.getBuffer();
+        return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                StandardCharsets.UTF_8);
+    }
+}